@@ -4,6 +4,9 @@ import android.app.Application;
 import android.content.Context;
 
 import com.feng.socketdemo.utils.LanguageUtils;
+import com.feng.socketdemo.utils.SPUtil;
+
+import org.easydarwin.video.DecoderWarmup;
 
 public class MyApplication extends Application {
 
@@ -19,5 +22,9 @@ public class MyApplication extends Application {
         super.onCreate();
         // 应用语言设置
         LanguageUtils.applyLanguage(this);
+        if (SPUtil.getDecoderWarmup(this)) {
+            // 按上次播放的格式在后台预热解码器，缩短冷启动后的首帧时间
+            DecoderWarmup.start(this);
+        }
     }
 }
@@ -138,28 +138,28 @@ public class PlayActivity extends BaseActivity<ActivityPlayBinding, PlayModel> i
         // 屏幕保持不暗不关闭
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
 
-        if (savedInstanceState == null) {
-            ResultReceiver rr = getIntent().getParcelableExtra("rr");
-
-            if (rr == null) {
-                rr = new ResultReceiver(new Handler()) {
-                    @Override
-                    protected void onReceiveResult(int resultCode, Bundle resultData) {
-                        super.onReceiveResult(resultCode, resultData);
-
-                        if (isDestroyed) return;
-
-                        if (resultCode == PlayFragment.RESULT_REND_START) {
-                            onPlayStart();
-                        } else if (resultCode == PlayFragment.RESULT_REND_STOP) {
-                            onPlayStop();
-                        } else if (resultCode == PlayFragment.RESULT_REND_VIDEO_DISPLAY) {
-                            onVideoDisplayed();
-                        }
+        ResultReceiver rr = getIntent().getParcelableExtra("rr");
+        boolean ownReceiver = rr == null;
+        if (ownReceiver) {
+            rr = new ResultReceiver(new Handler()) {
+                @Override
+                protected void onReceiveResult(int resultCode, Bundle resultData) {
+                    super.onReceiveResult(resultCode, resultData);
+
+                    if (isDestroyed) return;
+
+                    if (resultCode == PlayFragment.RESULT_REND_START) {
+                        onPlayStart();
+                    } else if (resultCode == PlayFragment.RESULT_REND_STOP) {
+                        onPlayStop();
+                    } else if (resultCode == PlayFragment.RESULT_REND_VIDEO_DISPLAY) {
+                        onVideoDisplayed();
                     }
-                };
-            }
+                }
+            };
+        }
 
+        if (savedInstanceState == null) {
             PlayFragment fragment = PlayFragment.newInstance(url, transportMode, sendOption, rr);
             fragment.setOnDoubleTapListener(this);
             // 设置SEI监听器
@@ -169,8 +169,12 @@ public class PlayActivity extends BaseActivity<ActivityPlayBinding, PlayModel> i
             mRenderFragment = fragment;
         } else {
             mRenderFragment = (PlayFragment) getSupportFragmentManager().findFragmentById(R.id.render_holder);
-            // 恢复时重新设置监听器
+            // 恢复时重新设置监听器，播放器还在PlayModel里运行
             mRenderFragment.setSEIDataListener(this);
+            mRenderFragment.setOnDoubleTapListener(this);
+            if (ownReceiver) {
+                mRenderFragment.setResultReceiver(rr);
+            }
         }
 
 
@@ -19,7 +19,6 @@ import android.util.Log;
 import android.view.GestureDetector;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
-import android.view.Surface;
 import android.view.TextureView;
 import android.view.View;
 import android.view.ViewGroup;
@@ -33,6 +32,7 @@ import androidx.appcompat.app.AlertDialog;
 import androidx.core.view.ViewCompat;
 import androidx.core.view.ViewPropertyAnimatorListenerAdapter;
 import androidx.fragment.app.Fragment;
+import androidx.lifecycle.ViewModelProvider;
 
 import com.bumptech.glide.Glide;
 import com.feng.socketdemo.R;
@@ -96,7 +96,8 @@ public class PlayFragment extends Fragment implements TextureView.SurfaceTexture
     private ImageView mRenderCover;
     private ImageView mTakePictureThumb;// 显示抓拍的图片
     protected TextureView mSurfaceView;
-    private SurfaceTexture mSurfaceTexture;
+    // 播放器和 SurfaceTexture 放在ViewModel里，Activity重建时不中断播放
+    private PlayModel mModel;
     protected ImageView cover;
 
     private MediaScannerConnection mScanner;
@@ -142,6 +143,8 @@ public class PlayFragment extends Fragment implements TextureView.SurfaceTexture
             sendOption = getArguments().getInt(ARG_SEND_OPTION);
             mRR = getArguments().getParcelable(ARG_PARAM3);
         }
+
+        mModel = new ViewModelProvider(requireActivity()).get(PlayModel.class);
     }
 
     @Override
@@ -217,6 +220,13 @@ public class PlayFragment extends Fragment implements TextureView.SurfaceTexture
             }
         };
 
+        // 重建的界面直接接上还在运行的播放器
+        mStreamRender = mModel.getPlayer();
+        mModel.attach(mResultReceiver, this);
+        if (mStreamRender != null) {
+            sendResult(RESULT_REND_START, null);
+        }
+
         listener = new View.OnLayoutChangeListener() {
             @Override
             public void onLayoutChange(View v, int left, int top, int right, int bottom, int oldLeft, int oldTop, int oldRight, int oldBottom) {
@@ -275,12 +285,19 @@ public class PlayFragment extends Fragment implements TextureView.SurfaceTexture
         if (parent != null) {
             parent.removeOnLayoutChangeListener(listener);
         }
+        mModel.detach();
         super.onDestroyView();
     }
 
     @Override
     public void onDestroy() {
-        stopRending();
+        Activity activity = getActivity();
+        if (activity != null && activity.isChangingConfigurations()) {
+            // 界面重建，播放器留在ViewModel里
+            mStreamRender = null;
+        } else {
+            stopRending();
+        }
         super.onDestroy();
     }
 
@@ -347,15 +364,13 @@ public class PlayFragment extends Fragment implements TextureView.SurfaceTexture
 
     // 开始渲染
     protected void startRending(SurfaceTexture surface) {
-        mStreamRender = new EasyPlayerClient(getContext(), new Surface(surface), mResultReceiver, null, this);
-
         boolean autoRecord = SPUtil.getAutoRecord(getContext());
 
         File f = new File(FileUtil.getMoviePath(mUrl));
         f.mkdirs();
 
         try {
-            mStreamRender.start(mUrl, mType < 2 ? Client.TRANSTYPE_TCP : Client.TRANSTYPE_UDP, sendOption, Client.EASY_SDK_VIDEO_FRAME_FLAG | Client.EASY_SDK_AUDIO_FRAME_FLAG, "", "", autoRecord ? FileUtil.getMovieName(mUrl).getPath() : null);
+            mStreamRender = mModel.start(surface, mUrl, mType < 2 ? Client.TRANSTYPE_TCP : Client.TRANSTYPE_UDP, sendOption, autoRecord ? FileUtil.getMovieName(mUrl).getPath() : null);
         } catch (Exception e) {
             e.printStackTrace();
             Toast.makeText(getContext(), e.getMessage(), Toast.LENGTH_LONG).show();
@@ -369,7 +384,7 @@ public class PlayFragment extends Fragment implements TextureView.SurfaceTexture
     private void stopRending() {
         if (mStreamRender != null) {
             sendResult(RESULT_REND_STOP, null);
-            mStreamRender.stop();
+            mModel.stop();
             mStreamRender = null;
         }
     }
@@ -619,9 +634,11 @@ public class PlayFragment extends Fragment implements TextureView.SurfaceTexture
 
     @Override
     public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
-        if (mSurfaceTexture != null) {
-            mSurfaceView.setSurfaceTexture(mSurfaceTexture);
-        } else {
+        SurfaceTexture retained = mModel.onSurfaceTextureAvailable(surface);
+        if (retained != null) {
+            // 接回正在播放的 SurfaceTexture，解码器不受影响
+            mSurfaceView.setSurfaceTexture(retained);
+        } else if (mModel.getPlayer() == null) {
             startRending(surface);
         }
     }
@@ -635,7 +652,7 @@ public class PlayFragment extends Fragment implements TextureView.SurfaceTexture
 
     @Override
     public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
-        mSurfaceTexture = surface;
+        mModel.retainSurfaceTexture(surface);
         return false;
 
 //        stopRending();
@@ -687,6 +704,13 @@ public class PlayFragment extends Fragment implements TextureView.SurfaceTexture
         }
     }
 
+    /**
+     * Activity重建后换成新的结果接收者，参数里的还指向旧的Activity
+     */
+    public void setResultReceiver(ResultReceiver rr) {
+        mRR = rr;
+    }
+
     public void setOnDoubleTapListener(OnDoubleTapListener listener) {
         this.doubleTapListener = listener;
     }
@@ -1,15 +1,181 @@
 package com.feng.socketdemo.ui.main;
 
 import android.app.Application;
+import android.graphics.SurfaceTexture;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ResultReceiver;
+import android.view.Surface;
 
 import androidx.annotation.NonNull;
 
 import com.feng.socketdemo.base.BaseViewModel;
 
+import org.easydarwin.video.Client;
+import org.easydarwin.video.EasyPlayerClient;
+
+/**
+ * 播放页的ViewModel，持有播放器、RTSP连接和显示用的 SurfaceTexture。
+ * <p>
+ * Activity重建时它们都保留下来，新的界面只需要把 SurfaceTexture 接到自己的 TextureView 上，
+ * 不用重新建立连接、等待关键帧。界面真正退出时才停止播放。
+ */
 public class PlayModel extends BaseViewModel {
 
+    private EasyPlayerClient mPlayer;
+    private SurfaceTexture mSurfaceTexture;
+    private Surface mSurface;
+
+    /**
+     * 当前界面的结果接收者，界面重建期间为null
+     */
+    private ResultReceiver mTarget;
+    private EasyPlayerClient.SEIDataCallback mSEITarget;
+
+    /**
+     * 最近一次的视频尺寸和是否已经出图，新界面接上时补发
+     */
+    private Bundle mVideoSize;
+    private Bundle mVideoDisplayed;
+
+    /**
+     * 播放器的回调先到这里，再转给当前界面
+     */
+    private final ResultReceiver mForwarder = new ResultReceiver(new Handler(Looper.getMainLooper())) {
+        @Override
+        protected void onReceiveResult(int resultCode, Bundle resultData) {
+            if (resultCode == EasyPlayerClient.RESULT_VIDEO_SIZE) {
+                mVideoSize = resultData;
+            } else if (resultCode == EasyPlayerClient.RESULT_VIDEO_DISPLAYED) {
+                mVideoDisplayed = resultData != null ? resultData : new Bundle();
+            }
+            ResultReceiver target = mTarget;
+            if (target != null) {
+                target.send(resultCode, resultData);
+            }
+        }
+    };
+
+    private final EasyPlayerClient.SEIDataCallback mSEIForwarder = new EasyPlayerClient.SEIDataCallback() {
+        @Override
+        public void onSEIData(byte[] sei) {
+            EasyPlayerClient.SEIDataCallback target = mSEITarget;
+            if (target != null) {
+                target.onSEIData(sei);
+            }
+        }
+    };
+
     public PlayModel(@NonNull Application application) {
         super(application);
     }
 
+    /**
+     * 界面接上播放器，之前错过的视频尺寸和出图通知会补发一次
+     */
+    public void attach(ResultReceiver receiver, EasyPlayerClient.SEIDataCallback seiCallback) {
+        mTarget = receiver;
+        mSEITarget = seiCallback;
+        if (receiver != null && mPlayer != null) {
+            if (mVideoSize != null) {
+                receiver.send(EasyPlayerClient.RESULT_VIDEO_SIZE, mVideoSize);
+            }
+            if (mVideoDisplayed != null) {
+                receiver.send(EasyPlayerClient.RESULT_VIDEO_DISPLAYED, mVideoDisplayed);
+            }
+        }
+    }
+
+    /**
+     * 界面销毁，播放器继续运行
+     */
+    public void detach() {
+        mTarget = null;
+        mSEITarget = null;
+    }
+
+    public EasyPlayerClient getPlayer() {
+        return mPlayer;
+    }
+
+    /**
+     * 开始播放，视频显示在 surface 上，之后这个 SurfaceTexture 由ViewModel管理
+     */
+    public EasyPlayerClient start(SurfaceTexture surface, String url, int transType, int sendOption, String recordPath) {
+        stop();
+        mSurfaceTexture = surface;
+        mSurface = new Surface(surface);
+        mPlayer = new EasyPlayerClient(getApplication(), mSurface, mForwarder, null, mSEIForwarder);
+        try {
+            mPlayer.start(url, transType, sendOption, Client.EASY_SDK_VIDEO_FRAME_FLAG | Client.EASY_SDK_AUDIO_FRAME_FLAG, "", "", recordPath);
+        } catch (RuntimeException e) {
+            // SurfaceTexture 还在 TextureView 上用着，不能释放
+            mSurfaceTexture = null;
+            stop();
+            throw e;
+        }
+        return mPlayer;
+    }
+
+    /**
+     * TextureView 销毁时保留它的 SurfaceTexture，解码器继续往里输出
+     */
+    public void retainSurfaceTexture(SurfaceTexture surface) {
+        if (mPlayer != null && (mSurfaceTexture == null || mSurfaceTexture == surface)) {
+            mSurfaceTexture = surface;
+            return;
+        }
+        // 没有在播放，或者播放器已经切到了新的 SurfaceTexture，旧的不再需要
+        surface.release();
+    }
+
+    /**
+     * 新的 TextureView 可用时调用
+     *
+     * @return 需要接到 TextureView 上的 SurfaceTexture，为null表示直接使用 surface
+     */
+    public SurfaceTexture onSurfaceTextureAvailable(SurfaceTexture surface) {
+        if (mPlayer == null || mSurfaceTexture == surface) {
+            return null;
+        }
+        if (mSurfaceTexture != null) {
+            return mSurfaceTexture;
+        }
+        // 保留的 SurfaceTexture 已经没有了，切到新的surface上继续播放
+        Surface old = mSurface;
+        mSurfaceTexture = surface;
+        mSurface = new Surface(surface);
+        mPlayer.setSurface(mSurface);
+        if (old != null) {
+            old.release();
+        }
+        return null;
+    }
+
+    /**
+     * 停止播放，释放 SurfaceTexture
+     */
+    public void stop() {
+        if (mPlayer != null) {
+            mPlayer.stop();
+            mPlayer = null;
+        }
+        if (mSurface != null) {
+            mSurface.release();
+            mSurface = null;
+        }
+        if (mSurfaceTexture != null) {
+            mSurfaceTexture.release();
+            mSurfaceTexture = null;
+        }
+        mVideoSize = null;
+        mVideoDisplayed = null;
+    }
+
+    @Override
+    protected void onCleared() {
+        stop();
+        super.onCleared();
+    }
 }
@@ -20,6 +20,21 @@ public class SPUtil {
                 .apply();
     }
 
+    /* ============================ 缓存码流最近的画面，重连和切换时立即显示 ============================ */
+    private static final String KEY_STREAM_CACHE = "use-stream-cache";
+
+    public static boolean getStreamCache(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context)
+                .getBoolean(KEY_STREAM_CACHE, true);
+    }
+
+    public static void setStreamCache(Context context, boolean isChecked) {
+        PreferenceManager.getDefaultSharedPreferences(context)
+                .edit()
+                .putBoolean(KEY_STREAM_CACHE, isChecked)
+                .apply();
+    }
+
     /* ============================ 开启视频的同时进行录像 ============================ */
     private static final String KEY_AUTO_RECORD = "auto_record";
 
@@ -65,4 +80,19 @@ public class SPUtil {
                 .apply();
     }
 
+    /* ============================ 启动时预热解码器 ============================ */
+    private static final String KEY_DECODER_WARMUP = "decoder_warmup";
+
+    public static boolean getDecoderWarmup(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context)
+                .getBoolean(KEY_DECODER_WARMUP, false);
+    }
+
+    public static void setDecoderWarmup(Context context, boolean isChecked) {
+        PreferenceManager.getDefaultSharedPreferences(context)
+                .edit()
+                .putBoolean(KEY_DECODER_WARMUP, isChecked)
+                .apply();
+    }
+
 }
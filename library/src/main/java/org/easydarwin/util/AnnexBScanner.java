@@ -0,0 +1,269 @@
+package org.easydarwin.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Annex B 码流的起始码(00 00 01)扫描。
+ * <p>
+ * 每次读8个字节，用"是否含0字节"的位运算跳过不可能出现起始码的数据，只在含0的字里逐字节比较。
+ * 既可以一次性扫描一整帧，也可以把码流分成任意多段依次喂进来，跨段的起始码和NAL都能正确衔接。
+ * <p>
+ * 找到的NAL通过 {@link Listener} 按(数据, 偏移, 长度, 类型)回调，扫描过程不分配内存。
+ * 回调的数据不含起始码，也不含起始码前的 trailing_zero_8bits。
+ */
+public final class AnnexBScanner {
+
+    /**
+     * 本段是NAL的开头
+     */
+    public static final int FLAG_START = 1;
+    /**
+     * 本段是NAL的结尾
+     */
+    public static final int FLAG_END = 2;
+
+    public interface Listener {
+        /**
+         * 扫描到NAL的一段数据。一次性扫描整帧时每个NAL只回调一次，flags为 FLAG_START | FLAG_END；
+         * 分段扫描时一个NAL可能分几次回调，只在最后一段带 FLAG_END。
+         *
+         * @param data   数据，只在回调期间有效
+         * @param offset 本段在data里的起始位置，FLAG_START时为NAL头
+         * @param length 本段长度
+         * @param type   nal_unit_type
+         * @param flags  {@link #FLAG_START}、{@link #FLAG_END}
+         * @return false 停止扫描
+         */
+        boolean onNalUnit(ByteBuffer data, int offset, int length, int type, int flags);
+    }
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    private final boolean mHevc;
+    private final Listener mListener;
+
+    /**
+     * 上一段末尾暂扣的0字节，可能是跨段起始码的一部分
+     */
+    private final ByteBuffer mZeros = ByteBuffer.wrap(new byte[2]);
+    private int mPendingZeros;
+    /**
+     * 上一段以起始码结尾，下一段的第一个字节是NAL头
+     */
+    private boolean mAwaitingHeader;
+    /**
+     * 当前正在输出的NAL类型，-1表示还没遇到起始码
+     */
+    private int mType = -1;
+    private boolean mStarted;
+
+    private ByteBuffer mWrapped;
+
+    public AnnexBScanner(boolean hevc, Listener listener) {
+        mHevc = hevc;
+        mListener = listener;
+    }
+
+    /**
+     * 丢弃分段扫描的中间状态，下次从新的码流开始
+     */
+    public void reset() {
+        mPendingZeros = 0;
+        mAwaitingHeader = false;
+        mType = -1;
+        mStarted = false;
+    }
+
+    /**
+     * 同 {@link #scan(ByteBuffer, int, int, boolean)}。同一个数组反复扫描时不会重复包装
+     */
+    public boolean scan(byte[] data, int offset, int limit, boolean endOfUnit) {
+        ByteBuffer wrapped = mWrapped;
+        if (wrapped == null || wrapped.array() != data) {
+            wrapped = ByteBuffer.wrap(data);
+            mWrapped = wrapped;
+        }
+        return scan(wrapped, offset, limit, endOfUnit);
+    }
+
+    /**
+     * 扫描 [offset, limit) 之间的数据
+     *
+     * @param endOfUnit 这段数据之后当前NAL就结束了(如一整帧的末尾)，否则等下一段数据接着扫描
+     * @return false 表示被回调中止
+     */
+    public boolean scan(ByteBuffer data, int offset, int limit, boolean endOfUnit) {
+        int position = offset;
+        if (position >= limit && !endOfUnit) {
+            // 空的一段不能改变暂扣的0和待读的NAL头
+            return true;
+        }
+
+        if (mPendingZeros > 0 && position < limit) {
+            int zeros = 0;
+            while (position + zeros < limit && data.get(position + zeros) == 0) {
+                zeros++;
+            }
+            if (position + zeros == limit) {
+                if (!endOfUnit) {
+                    // 还是0，继续攒着
+                    mPendingZeros = Math.min(2, mPendingZeros + zeros);
+                    return true;
+                }
+                // 扣下的0都是 trailing_zero_8bits
+                mPendingZeros = 0;
+                return endNal();
+            }
+            int pending = mPendingZeros;
+            mPendingZeros = 0;
+            if (position + zeros < limit && pending + zeros >= 2 && data.get(position + zeros) == 1) {
+                // 上一段末尾的0和本段开头拼成了起始码
+                if (!endNal()) {
+                    return false;
+                }
+                position += zeros + 1;
+                if (position >= limit) {
+                    mAwaitingHeader = !endOfUnit;
+                    return true;
+                }
+                startNal(data.get(position));
+            } else if (mType >= 0) {
+                // 只是NAL中间的0，把扣下的补回去
+                if (!emit(mZeros, 0, pending, false)) {
+                    return false;
+                }
+            }
+        } else if (mAwaitingHeader && position < limit) {
+            mAwaitingHeader = false;
+            startNal(data.get(position));
+        }
+
+        while (position < limit) {
+            int start = findStartCode(data, position, limit);
+            if (start < 0) {
+                break;
+            }
+            if (mType >= 0) {
+                // trailing_zero_8bits(如4字节起始码的第一个0)不属于上一个NAL
+                int end = start;
+                while (end > position && data.get(end - 1) == 0) {
+                    end--;
+                }
+                if (!emit(data, position, end - position, true)) {
+                    return false;
+                }
+                mType = -1;
+            }
+            position = start + 3;
+            if (position >= limit) {
+                mAwaitingHeader = !endOfUnit;
+                return true;
+            }
+            startNal(data.get(position));
+        }
+
+        if (endOfUnit) {
+            mPendingZeros = 0;
+            mAwaitingHeader = false;
+        }
+        if (mType < 0) {
+            if (!endOfUnit) {
+                mPendingZeros = Math.min(2, trailingZeros(data, position, limit));
+            }
+            return true;
+        }
+
+        // 末尾的0可能是起始码的一部分(分段时)或 trailing_zero_8bits(整帧结束时)，先扣下
+        int zeros = trailingZeros(data, position, limit);
+        if (endOfUnit) {
+            boolean goOn = emit(data, position, limit - zeros - position, true);
+            mType = -1;
+            return goOn;
+        }
+        // NAL里不会有连续3个0，多出来的不用补回
+        mPendingZeros = Math.min(2, zeros);
+        if (limit - zeros > position) {
+            return emit(data, position, limit - zeros - position, false);
+        }
+        return true;
+    }
+
+    private void startNal(byte header) {
+        mType = nalType(header);
+        mStarted = false;
+    }
+
+    private boolean endNal() {
+        if (mType < 0) {
+            return true;
+        }
+        // 上一个NAL恰好在上一段末尾结束，补一个空的结尾
+        boolean goOn = emit(mZeros, 0, 0, true);
+        mType = -1;
+        return goOn;
+    }
+
+    private boolean emit(ByteBuffer data, int offset, int length, boolean end) {
+        int flags = 0;
+        if (!mStarted) {
+            flags |= FLAG_START;
+            mStarted = true;
+        }
+        if (end) {
+            flags |= FLAG_END;
+        }
+        if (length == 0 && flags == 0) {
+            return true;
+        }
+        return mListener.onNalUnit(data, offset, length, mType, flags);
+    }
+
+    private int nalType(byte header) {
+        return mHevc ? (header >> 1) & 0x3F : header & 0x1F;
+    }
+
+    private static int trailingZeros(ByteBuffer data, int position, int limit) {
+        int zeros = 0;
+        while (limit - zeros > position && data.get(limit - zeros - 1) == 0) {
+            zeros++;
+        }
+        return zeros;
+    }
+
+    /**
+     * 查找起始码 00 00 01
+     *
+     * @return 起始码第一个字节的位置，没找到返回-1
+     */
+    public static int findStartCode(ByteBuffer data, int offset, int limit) {
+        int i = offset;
+        while (i + 8 <= limit) {
+            long x = data.getLong(i);
+            // 8个字节都不是0，起始码不可能从这里开始
+            if (((x - ONES) & ~x & HIGHS) == 0) {
+                i += 8;
+                continue;
+            }
+            int end = i + 8;
+            for (; i < end; i++) {
+                if (data.get(i) == 0 && i + 2 < limit && data.get(i + 1) == 0 && data.get(i + 2) == 1) {
+                    return i;
+                }
+            }
+        }
+        for (; i + 2 < limit; i++) {
+            if (data.get(i) == 0 && data.get(i + 1) == 0 && data.get(i + 2) == 1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 同 {@link #findStartCode(ByteBuffer, int, int)}，每次调用会包装一次数组
+     */
+    public static int findStartCode(byte[] data, int offset, int limit) {
+        return findStartCode(ByteBuffer.wrap(data), offset, Math.min(limit, data.length));
+    }
+}
@@ -19,8 +19,7 @@ import android.media.MediaCodecInfo;
 import android.util.Pair;
 
 
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
 
 /**
  * Provides static utility methods for manipulating various types of codec specific data.
@@ -193,19 +192,21 @@ public final class CodecSpecificDataUtil {
       // data does not consist of NAL start code delimited units.
       return null;
     }
-    List<Integer> starts = new ArrayList<>();
+    int count = 0;
     int nalUnitIndex = 0;
     do {
-      starts.add(nalUnitIndex);
+      count++;
       nalUnitIndex = findNalStartCode(data, nalUnitIndex + NAL_START_CODE.length);
     } while (nalUnitIndex != C.INDEX_UNSET);
-    byte[][] split = new byte[starts.size()][];
-    for (int i = 0; i < starts.size(); i++) {
-      int startIndex = starts.get(i);
-      int endIndex = i < starts.size() - 1 ? starts.get(i + 1) : data.length;
+    byte[][] split = new byte[count][];
+    int startIndex = 0;
+    for (int i = 0; i < count; i++) {
+      int endIndex = i < count - 1
+          ? findNalStartCode(data, startIndex + NAL_START_CODE.length) : data.length;
       byte[] nal = new byte[endIndex - startIndex];
       System.arraycopy(data, startIndex, nal, 0, nal.length);
       split[i] = nal;
+      startIndex = endIndex;
     }
     return split;
   }
@@ -218,11 +219,14 @@ public final class CodecSpecificDataUtil {
    * @return The index of the first byte of the found start code, or {@link C#INDEX_UNSET}.
    */
   private static int findNalStartCode(byte[] data, int index) {
-    int endIndex = data.length - NAL_START_CODE.length;
-    for (int i = index; i <= endIndex; i++) {
-      if (isNalStartCode(data, i)) {
-        return i;
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    // AnnexBScanner finds 3-byte start codes; only those preceded by a zero byte count here.
+    int i = AnnexBScanner.findStartCode(buffer, index + 1, data.length);
+    while (i != -1) {
+      if (isNalStartCode(data, i - 1)) {
+        return i - 1;
       }
+      i = AnnexBScanner.findStartCode(buffer, i + 1, data.length);
     }
     return C.INDEX_UNSET;
   }
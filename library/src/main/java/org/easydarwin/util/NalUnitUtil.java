@@ -0,0 +1,572 @@
+package org.easydarwin.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * H.264/H.265 参数集(SPS/VPS)解析。
+ * <p>
+ * 从SPS里取出解码器配置需要的信息：裁剪后的显示尺寸、profile/level、参考帧和DPB大小，
+ * 并按level的约束算出一个访问单元最多有多大，用来预先设置 MediaFormat 的 KEY_MAX_INPUT_SIZE。
+ * <p>
+ * 传入的数据从NAL头开始(不含起始码)，可以带有后面的其它NAL，解析只读到需要的字段为止。
+ * 码流不完整或不合法时返回null。
+ */
+public final class NalUnitUtil {
+
+    public static final int H264_NAL_IDR = 5;
+    public static final int H264_NAL_SPS = 7;
+    public static final int H264_NAL_PPS = 8;
+
+    public static final int H265_NAL_VPS = 32;
+    public static final int H265_NAL_SPS = 33;
+    public static final int H265_NAL_PPS = 34;
+
+    /**
+     * 这些profile的SPS里带有chroma_format_idc等扩展字段
+     */
+    private static final int[] H264_HIGH_PROFILES = {100, 110, 122, 244, 44, 83, 86, 118, 128, 138, 139, 134, 135};
+
+    /**
+     * H.264 Table A-1：level_idc, MaxMBPS, MaxFS, MaxDpbMbs, MinCR。level 1b 单独处理
+     */
+    private static final int[][] H264_LEVEL_LIMITS = {
+            {10, 1485, 99, 396, 2},
+            {11, 3000, 396, 900, 2},
+            {12, 6000, 396, 2376, 2},
+            {13, 11880, 396, 2376, 2},
+            {20, 11880, 396, 2376, 2},
+            {21, 19800, 792, 4752, 2},
+            {22, 20250, 1620, 8100, 2},
+            {30, 40500, 1620, 8100, 2},
+            {31, 108000, 3600, 18000, 4},
+            {32, 216000, 5120, 20480, 4},
+            {40, 245760, 8192, 32768, 4},
+            {41, 245760, 8192, 32768, 2},
+            {42, 522240, 8704, 34816, 2},
+            {50, 589824, 22080, 110400, 2},
+            {51, 983040, 36864, 184320, 2},
+            {52, 2073600, 36864, 184320, 2},
+            {60, 4177920, 139264, 696320, 2},
+            {61, 8355840, 139264, 696320, 2},
+            {62, 16711680, 139264, 696320, 2},
+    };
+    private static final int[] H264_LEVEL_1B_LIMITS = {9, 1485, 99, 396, 2};
+
+    /**
+     * H.265各level的MinCrBase都不小于2，按2估算得到的是上界
+     */
+    private static final int H265_MIN_CR = 2;
+
+    /**
+     * 解析出的SPS
+     */
+    public static final class SpsData {
+        public boolean hevc;
+        public int profileIdc;
+        /**
+         * H.264为constraint_set标志，H.265为general_tier_flag
+         */
+        public int constraintFlags;
+        public int levelIdc;
+        public int seqParameterSetId;
+        public int chromaFormatIdc = 1;
+        public boolean separateColorPlane;
+        public int bitDepthLuma = 8;
+        public int bitDepthChroma = 8;
+        /**
+         * 编码尺寸(H.264按宏块对齐)
+         */
+        public int codedWidth;
+        public int codedHeight;
+        /**
+         * 裁剪后的显示尺寸
+         */
+        public int width;
+        public int height;
+        public int maxNumRefFrames;
+        /**
+         * 解码器最多需要缓存的帧数(DPB)
+         */
+        public int maxDecFrameBuffering;
+        /**
+         * 输出顺序与解码顺序最多相差的帧数，-1表示码流没有声明
+         */
+        public int maxNumReorderFrames = -1;
+        public int frameNumLength;
+        public boolean gapsInFrameNumAllowed;
+        public boolean frameMbsOnly = true;
+        public int picOrderCntType;
+        public int picOrderCntLsbLength;
+        public int maxSubLayers = 1;
+        public int videoParameterSetId;
+
+        /**
+         * 码流是否不需要重排序(没有B帧)，可以放心让解码器按低延时方式输出
+         */
+        public boolean isReorderFree() {
+            if (maxNumReorderFrames >= 0) {
+                return maxNumReorderFrames == 0;
+            }
+            // Baseline/Constrained Baseline 不会有B帧；POC type 2 要求输出顺序等于解码顺序
+            return !hevc && (profileIdc == 66 || picOrderCntType == 2);
+        }
+
+        /**
+         * 按level约束算出的一个访问单元的最大字节数，level未知时返回0
+         */
+        public int maxAccessUnitSize() {
+            int width = codedWidth;
+            int height = codedHeight;
+            long rawPicBytes;
+            int subWidthC = chromaFormatIdc == 1 || chromaFormatIdc == 2 ? 2 : 1;
+            int subHeightC = chromaFormatIdc == 1 ? 2 : 1;
+            long lumaSamples = (long) ((width + 15) & ~15) * ((height + 15) & ~15);
+            long chromaSamples = chromaFormatIdc == 0 || separateColorPlane ? 0 : 2 * lumaSamples / (subWidthC * subHeightC);
+            rawPicBytes = (lumaSamples * bitDepthLuma + chromaSamples * bitDepthChroma) / 8;
+            if (hevc) {
+                return (int) Math.min(Integer.MAX_VALUE, rawPicBytes / H265_MIN_CR);
+            }
+            int[] limits = h264LevelLimits(profileIdc, constraintFlags, levelIdc);
+            if (limits == null) {
+                return 0;
+            }
+            // A.3.1：首个访问单元不超过 RawMbBytes * Max(PicSizeInMbs, MaxMBPS/172) / MinCR
+            long picSizeInMbs = lumaSamples / 256;
+            long mbs = Math.max(picSizeInMbs, limits[1] / 172);
+            long rawMbBytes = picSizeInMbs == 0 ? 384 : rawPicBytes / picSizeInMbs;
+            return (int) Math.min(Integer.MAX_VALUE, rawMbBytes * mbs / limits[4]);
+        }
+
+        /**
+         * 该level下按16:9能达到的最大尺寸，用作自适应播放(adaptive playback)的最大宽高。
+         * 竖屏码流宽高对调。level未知时返回当前尺寸。
+         *
+         * @return {宽, 高}
+         */
+        public int[] maxAdaptiveSize() {
+            int maxW = codedWidth;
+            int maxH = codedHeight;
+            if (!hevc) {
+                int[] limits = h264LevelLimits(profileIdc, constraintFlags, levelIdc);
+                if (limits != null) {
+                    int maxFs = limits[2];
+                    int hMbs = (int) Math.sqrt(maxFs * 9 / 16.0);
+                    int wMbs = maxFs / Math.max(1, hMbs);
+                    int w = wMbs * 16;
+                    int h = hMbs * 16;
+                    if (codedHeight > codedWidth) {
+                        int t = w;
+                        w = h;
+                        h = t;
+                    }
+                    maxW = Math.max(maxW, w);
+                    maxH = Math.max(maxH, h);
+                }
+            } else {
+                // H.265 Table A.8：MaxLumaPs
+                long maxLumaPs = h265MaxLumaPs(levelIdc);
+                if (maxLumaPs > 0) {
+                    int h = (int) Math.sqrt(maxLumaPs * 9 / 16.0) & ~7;
+                    int w = (int) (maxLumaPs / Math.max(1, h)) & ~7;
+                    if (codedHeight > codedWidth) {
+                        int t = w;
+                        w = h;
+                        h = t;
+                    }
+                    maxW = Math.max(maxW, w);
+                    maxH = Math.max(maxH, h);
+                }
+            }
+            return new int[]{maxW, maxH};
+        }
+
+        @Override
+        public String toString() {
+            return "SpsData{" + (hevc ? "hevc" : "avc") + ", profile=" + profileIdc + ", level=" + levelIdc + ", " + width + "x" + height + " (coded " + codedWidth + "x" + codedHeight + "), refs=" + maxNumRefFrames + ", dpb=" + maxDecFrameBuffering + ", reorder=" + maxNumReorderFrames + '}';
+        }
+    }
+
+    /**
+     * 解析出的H.265 VPS
+     */
+    public static final class VpsData {
+        public int videoParameterSetId;
+        public int maxLayers;
+        public int maxSubLayers;
+        public boolean temporalIdNesting;
+        public int profileIdc;
+        public int tierFlag;
+        public int levelIdc;
+
+        @Override
+        public String toString() {
+            return "VpsData{" + "id=" + videoParameterSetId + ", layers=" + maxLayers + ", subLayers=" + maxSubLayers + ", profile=" + profileIdc + ", level=" + levelIdc + '}';
+        }
+    }
+
+    private NalUnitUtil() {
+    }
+
+    /**
+     * 在Annex B格式的数据里查找指定类型的NAL
+     *
+     * @return NAL头的位置(起始码之后)，没找到返回-1
+     */
+    public static int findNalUnit(byte[] data, int offset, int limit, int type, boolean hevc) {
+        limit = Math.min(limit, data.length);
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int start = AnnexBScanner.findStartCode(buffer, Math.max(offset, 0), limit);
+        while (start >= 0 && start + 3 < limit) {
+            int header = data[start + 3] & 0xFF;
+            int nalType = hevc ? (header >> 1) & 0x3F : header & 0x1F;
+            if (nalType == type) {
+                return start + 3;
+            }
+            start = AnnexBScanner.findStartCode(buffer, start + 3, limit);
+        }
+        return -1;
+    }
+
+    /**
+     * 去掉防竞争字节(00 00 03 中的 03)，得到RBSP
+     */
+    public static byte[] unescapeStream(byte[] data, int offset, int limit) {
+        byte[] out = new byte[limit - offset];
+        int length = 0;
+        int zeros = 0;
+        for (int i = offset; i < limit; i++) {
+            byte b = data[i];
+            if (zeros >= 2 && b == 3) {
+                zeros = 0;
+                continue;
+            }
+            zeros = b == 0 ? zeros + 1 : 0;
+            out[length++] = b;
+        }
+        if (length == out.length) {
+            return out;
+        }
+        byte[] trimmed = new byte[length];
+        System.arraycopy(out, 0, trimmed, 0, length);
+        return trimmed;
+    }
+
+    /**
+     * 解析H.264 SPS
+     *
+     * @param offset NAL头的位置
+     */
+    public static SpsData parseH264Sps(byte[] data, int offset, int limit) {
+        try {
+            ParsableBitArray bits = new ParsableBitArray(unescapeStream(data, offset, Math.min(limit, data.length)));
+            bits.skipBits(8); // nal header
+            SpsData sps = new SpsData();
+            sps.profileIdc = bits.readBits(8);
+            sps.constraintFlags = bits.readBits(8);
+            sps.levelIdc = bits.readBits(8);
+            sps.seqParameterSetId = bits.readUnsignedExpGolombCodedInt();
+
+            if (isH264HighProfile(sps.profileIdc)) {
+                sps.chromaFormatIdc = bits.readUnsignedExpGolombCodedInt();
+                if (sps.chromaFormatIdc == 3) {
+                    sps.separateColorPlane = bits.readBit();
+                }
+                sps.bitDepthLuma = bits.readUnsignedExpGolombCodedInt() + 8;
+                sps.bitDepthChroma = bits.readUnsignedExpGolombCodedInt() + 8;
+                bits.skipBits(1); // qpprime_y_zero_transform_bypass_flag
+                if (bits.readBit()) { // seq_scaling_matrix_present_flag
+                    int count = sps.chromaFormatIdc != 3 ? 8 : 12;
+                    for (int i = 0; i < count; i++) {
+                        if (bits.readBit()) {
+                            skipScalingList(bits, i < 6 ? 16 : 64);
+                        }
+                    }
+                }
+            }
+
+            sps.frameNumLength = bits.readUnsignedExpGolombCodedInt() + 4;
+            sps.picOrderCntType = bits.readUnsignedExpGolombCodedInt();
+            if (sps.picOrderCntType == 0) {
+                sps.picOrderCntLsbLength = bits.readUnsignedExpGolombCodedInt() + 4;
+            } else if (sps.picOrderCntType == 1) {
+                bits.skipBits(1); // delta_pic_order_always_zero_flag
+                bits.readSignedExpGolombCodedInt(); // offset_for_non_ref_pic
+                bits.readSignedExpGolombCodedInt(); // offset_for_top_to_bottom_field
+                int cycle = bits.readUnsignedExpGolombCodedInt();
+                for (int i = 0; i < cycle; i++) {
+                    bits.readSignedExpGolombCodedInt(); // offset_for_ref_frame
+                }
+            }
+            sps.maxNumRefFrames = bits.readUnsignedExpGolombCodedInt();
+            sps.gapsInFrameNumAllowed = bits.readBit();
+
+            int widthInMbs = bits.readUnsignedExpGolombCodedInt() + 1;
+            int heightInMapUnits = bits.readUnsignedExpGolombCodedInt() + 1;
+            sps.frameMbsOnly = bits.readBit();
+            int heightInMbs = (sps.frameMbsOnly ? 1 : 2) * heightInMapUnits;
+            if (!sps.frameMbsOnly) {
+                bits.skipBits(1); // mb_adaptive_frame_field_flag
+            }
+            bits.skipBits(1); // direct_8x8_inference_flag
+
+            sps.codedWidth = widthInMbs * 16;
+            sps.codedHeight = heightInMbs * 16;
+            sps.width = sps.codedWidth;
+            sps.height = sps.codedHeight;
+            if (bits.readBit()) { // frame_cropping_flag
+                int left = bits.readUnsignedExpGolombCodedInt();
+                int right = bits.readUnsignedExpGolombCodedInt();
+                int top = bits.readUnsignedExpGolombCodedInt();
+                int bottom = bits.readUnsignedExpGolombCodedInt();
+                int chromaArrayType = sps.separateColorPlane ? 0 : sps.chromaFormatIdc;
+                int cropUnitX = chromaArrayType == 1 || chromaArrayType == 2 ? 2 : 1;
+                int cropUnitY = (chromaArrayType == 1 ? 2 : 1) * (sps.frameMbsOnly ? 1 : 2);
+                sps.width -= (left + right) * cropUnitX;
+                sps.height -= (top + bottom) * cropUnitY;
+            }
+
+            // 没有VUI声明时按level的MaxDpbMbs推算
+            int[] limits = h264LevelLimits(sps.profileIdc, sps.constraintFlags, sps.levelIdc);
+            sps.maxDecFrameBuffering = limits != null ? Math.min(limits[3] / (widthInMbs * heightInMbs), 16) : 16;
+            sps.maxDecFrameBuffering = Math.max(sps.maxDecFrameBuffering, sps.maxNumRefFrames);
+            if (bits.readBit()) { // vui_parameters_present_flag
+                parseH264Vui(bits, sps);
+            }
+            return sps;
+        } catch (RuntimeException e) {
+            // 截断或不合法的SPS
+            return null;
+        }
+    }
+
+    private static void parseH264Vui(ParsableBitArray bits, SpsData sps) {
+        if (bits.readBit()) { // aspect_ratio_info_present_flag
+            if (bits.readBits(8) == 255) { // Extended_SAR
+                bits.skipBits(32);
+            }
+        }
+        if (bits.readBit()) { // overscan_info_present_flag
+            bits.skipBits(1);
+        }
+        if (bits.readBit()) { // video_signal_type_present_flag
+            bits.skipBits(4);
+            if (bits.readBit()) { // colour_description_present_flag
+                bits.skipBits(24);
+            }
+        }
+        if (bits.readBit()) { // chroma_loc_info_present_flag
+            bits.readUnsignedExpGolombCodedInt();
+            bits.readUnsignedExpGolombCodedInt();
+        }
+        if (bits.readBit()) { // timing_info_present_flag
+            bits.skipBits(65);
+        }
+        boolean nalHrd = bits.readBit();
+        if (nalHrd) {
+            skipH264Hrd(bits);
+        }
+        boolean vclHrd = bits.readBit();
+        if (vclHrd) {
+            skipH264Hrd(bits);
+        }
+        if (nalHrd || vclHrd) {
+            bits.skipBits(1); // low_delay_hrd_flag
+        }
+        bits.skipBits(1); // pic_struct_present_flag
+        if (bits.readBit()) { // bitstream_restriction_flag
+            bits.skipBits(1); // motion_vectors_over_pic_boundaries_flag
+            bits.readUnsignedExpGolombCodedInt(); // max_bytes_per_pic_denom
+            bits.readUnsignedExpGolombCodedInt(); // max_bits_per_mb_denom
+            bits.readUnsignedExpGolombCodedInt(); // log2_max_mv_length_horizontal
+            bits.readUnsignedExpGolombCodedInt(); // log2_max_mv_length_vertical
+            sps.maxNumReorderFrames = bits.readUnsignedExpGolombCodedInt();
+            sps.maxDecFrameBuffering = Math.max(bits.readUnsignedExpGolombCodedInt(), sps.maxNumRefFrames);
+        }
+    }
+
+    private static void skipH264Hrd(ParsableBitArray bits) {
+        int cpbCnt = bits.readUnsignedExpGolombCodedInt() + 1;
+        bits.skipBits(8); // bit_rate_scale, cpb_size_scale
+        for (int i = 0; i < cpbCnt; i++) {
+            bits.readUnsignedExpGolombCodedInt(); // bit_rate_value_minus1
+            bits.readUnsignedExpGolombCodedInt(); // cpb_size_value_minus1
+            bits.skipBits(1); // cbr_flag
+        }
+        bits.skipBits(20);
+    }
+
+    private static void skipScalingList(ParsableBitArray bits, int size) {
+        int lastScale = 8;
+        int nextScale = 8;
+        for (int i = 0; i < size; i++) {
+            if (nextScale != 0) {
+                int deltaScale = bits.readSignedExpGolombCodedInt();
+                nextScale = (lastScale + deltaScale + 256) % 256;
+            }
+            lastScale = (nextScale == 0) ? lastScale : nextScale;
+        }
+    }
+
+    /**
+     * 解析H.265 SPS
+     *
+     * @param offset NAL头的位置
+     */
+    public static SpsData parseH265Sps(byte[] data, int offset, int limit) {
+        try {
+            ParsableBitArray bits = new ParsableBitArray(unescapeStream(data, offset, Math.min(limit, data.length)));
+            bits.skipBits(16); // nal header
+            SpsData sps = new SpsData();
+            sps.hevc = true;
+            sps.videoParameterSetId = bits.readBits(4);
+            int maxSubLayersMinus1 = bits.readBits(3);
+            sps.maxSubLayers = maxSubLayersMinus1 + 1;
+            bits.skipBits(1); // sps_temporal_id_nesting_flag
+            int[] ptl = parseH265ProfileTierLevel(bits, maxSubLayersMinus1);
+            sps.profileIdc = ptl[0];
+            sps.constraintFlags = ptl[1];
+            sps.levelIdc = ptl[2];
+
+            sps.seqParameterSetId = bits.readUnsignedExpGolombCodedInt();
+            sps.chromaFormatIdc = bits.readUnsignedExpGolombCodedInt();
+            if (sps.chromaFormatIdc == 3) {
+                sps.separateColorPlane = bits.readBit();
+            }
+            sps.codedWidth = bits.readUnsignedExpGolombCodedInt();
+            sps.codedHeight = bits.readUnsignedExpGolombCodedInt();
+            sps.width = sps.codedWidth;
+            sps.height = sps.codedHeight;
+            if (bits.readBit()) { // conformance_window_flag
+                int left = bits.readUnsignedExpGolombCodedInt();
+                int right = bits.readUnsignedExpGolombCodedInt();
+                int top = bits.readUnsignedExpGolombCodedInt();
+                int bottom = bits.readUnsignedExpGolombCodedInt();
+                int chromaArrayType = sps.separateColorPlane ? 0 : sps.chromaFormatIdc;
+                int subWidthC = chromaArrayType == 1 || chromaArrayType == 2 ? 2 : 1;
+                int subHeightC = chromaArrayType == 1 ? 2 : 1;
+                sps.width -= (left + right) * subWidthC;
+                sps.height -= (top + bottom) * subHeightC;
+            }
+            sps.bitDepthLuma = bits.readUnsignedExpGolombCodedInt() + 8;
+            sps.bitDepthChroma = bits.readUnsignedExpGolombCodedInt() + 8;
+            sps.picOrderCntLsbLength = bits.readUnsignedExpGolombCodedInt() + 4;
+            boolean subLayerOrderingInfo = bits.readBit();
+            for (int i = subLayerOrderingInfo ? 0 : maxSubLayersMinus1; i <= maxSubLayersMinus1; i++) {
+                // 取最高子层的值
+                sps.maxDecFrameBuffering = bits.readUnsignedExpGolombCodedInt() + 1;
+                sps.maxNumReorderFrames = bits.readUnsignedExpGolombCodedInt();
+                bits.readUnsignedExpGolombCodedInt(); // sps_max_latency_increase_plus1
+            }
+            sps.maxNumRefFrames = sps.maxDecFrameBuffering;
+            return sps;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 解析H.265 VPS
+     *
+     * @param offset NAL头的位置
+     */
+    public static VpsData parseH265Vps(byte[] data, int offset, int limit) {
+        try {
+            ParsableBitArray bits = new ParsableBitArray(unescapeStream(data, offset, Math.min(limit, data.length)));
+            bits.skipBits(16); // nal header
+            VpsData vps = new VpsData();
+            vps.videoParameterSetId = bits.readBits(4);
+            bits.skipBits(2); // vps_base_layer_internal_flag, vps_base_layer_available_flag
+            vps.maxLayers = bits.readBits(6) + 1;
+            int maxSubLayersMinus1 = bits.readBits(3);
+            vps.maxSubLayers = maxSubLayersMinus1 + 1;
+            vps.temporalIdNesting = bits.readBit();
+            bits.skipBits(16); // vps_reserved_0xffff_16bits
+            int[] ptl = parseH265ProfileTierLevel(bits, maxSubLayersMinus1);
+            vps.profileIdc = ptl[0];
+            vps.tierFlag = ptl[1];
+            vps.levelIdc = ptl[2];
+            return vps;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return {general_profile_idc, general_tier_flag, general_level_idc}
+     */
+    private static int[] parseH265ProfileTierLevel(ParsableBitArray bits, int maxSubLayersMinus1) {
+        bits.skipBits(2); // general_profile_space
+        int tier = bits.readBits(1);
+        int profile = bits.readBits(5);
+        bits.skipBits(32); // general_profile_compatibility_flag
+        bits.skipBits(48); // progressive/interlaced/non_packed/frame_only + 44 bits
+        int level = bits.readBits(8);
+        boolean[] profilePresent = new boolean[maxSubLayersMinus1];
+        boolean[] levelPresent = new boolean[maxSubLayersMinus1];
+        for (int i = 0; i < maxSubLayersMinus1; i++) {
+            profilePresent[i] = bits.readBit();
+            levelPresent[i] = bits.readBit();
+        }
+        if (maxSubLayersMinus1 > 0) {
+            bits.skipBits(2 * (8 - maxSubLayersMinus1)); // reserved_zero_2bits
+        }
+        for (int i = 0; i < maxSubLayersMinus1; i++) {
+            if (profilePresent[i]) {
+                bits.skipBits(88);
+            }
+            if (levelPresent[i]) {
+                bits.skipBits(8);
+            }
+        }
+        return new int[]{profile, tier, level};
+    }
+
+    private static boolean isH264HighProfile(int profileIdc) {
+        for (int p : H264_HIGH_PROFILES) {
+            if (p == profileIdc) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] h264LevelLimits(int profileIdc, int constraintFlags, int levelIdc) {
+        // level 1b：Baseline/Main/Extended用 level_idc 11 + constraint_set3_flag表示，其它profile用9
+        boolean constraintSet3 = (constraintFlags & 0x10) != 0;
+        if (levelIdc == 9 || (levelIdc == 11 && constraintSet3 && (profileIdc == 66 || profileIdc == 77 || profileIdc == 88))) {
+            return H264_LEVEL_1B_LIMITS;
+        }
+        for (int[] limits : H264_LEVEL_LIMITS) {
+            if (limits[0] == levelIdc) {
+                return limits;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * H.265 Table A.8 的MaxLumaPs，general_level_idc = level × 30。未知返回0
+     */
+    private static long h265MaxLumaPs(int levelIdc) {
+        if (levelIdc <= 0) {
+            return 0;
+        } else if (levelIdc <= 30) {
+            return 36864;
+        } else if (levelIdc <= 60) {
+            return 122880;
+        } else if (levelIdc <= 63) {
+            return 245760;
+        } else if (levelIdc <= 90) {
+            return 552960;
+        } else if (levelIdc <= 93) {
+            return 983040;
+        } else if (levelIdc <= 123) {
+            return 2228224;
+        } else if (levelIdc <= 156) {
+            return 8912896;
+        } else if (levelIdc <= 186) {
+            return 35651584;
+        }
+        return 0;
+    }
+}
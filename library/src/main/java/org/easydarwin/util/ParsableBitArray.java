@@ -177,6 +177,47 @@ public final class ParsableBitArray {
     return returnValue;
   }
 
+  /**
+   * Reads an unsigned Exp-Golomb-coded format integer, as used by H.264/H.265 parameter sets.
+   *
+   * @return The value of the parsed Exp-Golomb-coded integer.
+   * @throws IllegalStateException If the data ends before the code is complete.
+   */
+  public int readUnsignedExpGolombCodedInt() {
+    int leadingZeros = 0;
+    while (!readBitChecked()) {
+      leadingZeros++;
+      if (leadingZeros > 31) {
+        throw new IllegalStateException("Exp-Golomb code too long");
+      }
+    }
+    if (leadingZeros == 0) {
+      return 0;
+    }
+    if (bitsLeft() < leadingZeros) {
+      throw new IllegalStateException("Truncated Exp-Golomb code");
+    }
+    return (int) ((1L << leadingZeros) - 1 + (readBits(leadingZeros) & 0xFFFFFFFFL));
+  }
+
+  /**
+   * Reads a signed Exp-Golomb-coded format integer.
+   *
+   * @return The value of the parsed Exp-Golomb-coded integer.
+   * @throws IllegalStateException If the data ends before the code is complete.
+   */
+  public int readSignedExpGolombCodedInt() {
+    int codeNum = readUnsignedExpGolombCodedInt();
+    return ((codeNum % 2) == 0 ? -1 : 1) * ((codeNum + 1) / 2);
+  }
+
+  private boolean readBitChecked() {
+    if (bitsLeft() <= 0) {
+      throw new IllegalStateException("Truncated Exp-Golomb code");
+    }
+    return readBit();
+  }
+
   private void assertValidOffset() {
     // It is fine for position to be at the end of the array, but no further.
   }
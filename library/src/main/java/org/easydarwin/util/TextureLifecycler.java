@@ -21,10 +21,42 @@ public class TextureLifecycler implements LifecycleOwner {
 
     WeakReference<TextureView> mRef;
 
+    /**
+     * 是否在 TextureView 销毁(旋转、重新attach)时保留 SurfaceTexture
+     */
+    private final boolean mRetainSurface;
+    /**
+     * 保留下来的 SurfaceTexture，view重新可用时接回去，surface不变，解码器不受影响
+     */
+    private SurfaceTexture mRetained;
+
     public TextureLifecycler(TextureView view) {
-        mRef = new WeakReference<>(view);
+        this(view, false);
+    }
+
+    /**
+     * @param retainSurface true时view的销毁只走到ON_STOP，直到调用 {@link #release()} 才ON_DESTROY
+     */
+    public TextureLifecycler(TextureView view, boolean retainSurface) {
+        mRetainSurface = retainSurface;
         mLifecycleRegistry.markState(Lifecycle.State.INITIALIZED);
-        if (view.isAvailable()) {
+        attach(view);
+    }
+
+    /**
+     * 换一个 TextureView 显示(比如界面重建后的新view)，保留的 SurfaceTexture 会接到新的view上
+     */
+    public void attach(TextureView view) {
+        mRef = new WeakReference<>(view);
+        if (mRetained != null) {
+            if (view.getSurfaceTexture() != mRetained) {
+                view.setSurfaceTexture(mRetained);
+            }
+            if (view.isAvailable()) {
+                mLifecycleRegistry.handleLifecycleEvent(Lifecycle.Event.ON_START);
+                mLifecycleRegistry.handleLifecycleEvent(Lifecycle.Event.ON_RESUME);
+            }
+        } else if (view.isAvailable()) {
             mLifecycleRegistry.handleLifecycleEvent(Lifecycle.Event.ON_CREATE);
             mLifecycleRegistry.handleLifecycleEvent(Lifecycle.Event.ON_START);
             mLifecycleRegistry.handleLifecycleEvent(Lifecycle.Event.ON_RESUME);
@@ -32,7 +64,14 @@ public class TextureLifecycler implements LifecycleOwner {
         view.setSurfaceTextureListener(new TextureView.SurfaceTextureListener() {
             @Override
             public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
-                mLifecycleRegistry.handleLifecycleEvent(Lifecycle.Event.ON_CREATE);
+                TextureView view = mRef.get();
+                if (mRetained != null && view != null) {
+                    if (surface != mRetained) {
+                        view.setSurfaceTexture(mRetained);
+                    }
+                } else {
+                    mLifecycleRegistry.handleLifecycleEvent(Lifecycle.Event.ON_CREATE);
+                }
                 mLifecycleRegistry.handleLifecycleEvent(Lifecycle.Event.ON_START);
                 mLifecycleRegistry.handleLifecycleEvent(Lifecycle.Event.ON_RESUME);
             }
@@ -46,6 +85,10 @@ public class TextureLifecycler implements LifecycleOwner {
             public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
                 mLifecycleRegistry.handleLifecycleEvent(Lifecycle.Event.ON_PAUSE);
                 mLifecycleRegistry.handleLifecycleEvent(Lifecycle.Event.ON_STOP);
+                if (mRetainSurface) {
+                    mRetained = surface;
+                    return false;
+                }
                 mLifecycleRegistry.handleLifecycleEvent(Lifecycle.Event.ON_DESTROY);
                 return true;
             }
@@ -57,4 +100,18 @@ public class TextureLifecycler implements LifecycleOwner {
         });
     }
 
+    /**
+     * 不再显示时调用，释放保留的 SurfaceTexture 并进入ON_DESTROY
+     */
+    public void release() {
+        if (mLifecycleRegistry.getCurrentState() == Lifecycle.State.INITIALIZED
+                || mLifecycleRegistry.getCurrentState() == Lifecycle.State.DESTROYED) {
+            return;
+        }
+        mLifecycleRegistry.handleLifecycleEvent(Lifecycle.Event.ON_DESTROY);
+        if (mRetained != null) {
+            mRetained.release();
+            mRetained = null;
+        }
+    }
 }
@@ -79,6 +79,33 @@ public class Client implements Closeable {
         public byte[] buffer;
         public int offset = 0;
         public boolean audio;
+
+        /**
+         * 来自 {@link StreamCache} 的预播帧，只用来建立参考帧，解码后不显示，不参与音视频同步和录像
+         */
+        boolean preroll;
+        /**
+         * 预播的最后一帧，解码后立即显示
+         */
+        boolean prerollLast;
+
+        /**
+         * 清空所有字段，供 {@link FramePool} 复用
+         */
+        void reset() {
+            codec = type = 0;
+            fps = 0;
+            width = height = 0;
+            reserved1 = reserved2 = 0;
+            sample_rate = channels = bits_per_sample = 0;
+            length = 0;
+            timestamp_usec = timestamp_sec = stamp = 0;
+            bitrate = losspacket = 0;
+            buffer = null;
+            offset = 0;
+            audio = false;
+            preroll = prerollLast = false;
+        }
     }
 
     public static final class MediaInfo {
@@ -113,6 +140,9 @@ public class Client implements Closeable {
     }
 
     public interface SourceCallBack {
+        /**
+         * frameInfo 来自 {@link FramePool}，使用完毕后由实现方归还
+         */
         void onSourceCallBack(int _channelId, int _channelPtr, int _frameType, FrameInfo frameInfo);
 
         void onMediaInfoCallBack(int _channelId, MediaInfo mi);
@@ -313,24 +343,23 @@ public class Client implements Closeable {
             return;
         }
 
-        ByteBuffer buffer = ByteBuffer.wrap(frameBuffer);
-        buffer.order(ByteOrder.LITTLE_ENDIAN);
-        FrameInfo fi = new FrameInfo();
-        fi.codec = buffer.getInt();
-        fi.type = buffer.getInt();
-        fi.fps = buffer.get();
-        buffer.get();
-        fi.width = buffer.getShort();
-        fi.height = buffer.getShort();
-        buffer.getInt();
-        buffer.getInt();
-        buffer.getShort();
-        fi.sample_rate = buffer.getInt();
-        fi.channels = buffer.getInt();
-        fi.bits_per_sample = buffer.getInt();
-        fi.length = buffer.getInt();
-        fi.timestamp_usec = buffer.getInt();
-        fi.timestamp_sec = buffer.getInt();
+        // 帧头是小端的结构体，直接按偏移读取，避免每帧包装一个ByteBuffer
+        FrameInfo fi = FramePool.getDefault().obtainFrame();
+        fi.codec = readIntLE(frameBuffer, 0);
+        fi.type = readIntLE(frameBuffer, 4);
+        fi.fps = frameBuffer[8];
+        fi.width = readShortLE(frameBuffer, 10);
+        fi.height = readShortLE(frameBuffer, 12);
+        fi.sample_rate = readIntLE(frameBuffer, 24);
+        fi.channels = readIntLE(frameBuffer, 28);
+        fi.bits_per_sample = readIntLE(frameBuffer, 32);
+        fi.length = readIntLE(frameBuffer, 36);
+        fi.timestamp_usec = readIntLE(frameBuffer, 40);
+        fi.timestamp_sec = readIntLE(frameBuffer, 44);
+        if (frameBuffer.length >= 56) {
+            // 丢包率，ReferenceTracker 判断H.265的参考链用
+            fi.losspacket = Float.intBitsToFloat(readIntLE(frameBuffer, 52));
+        }
 
         long sec = fi.timestamp_sec < 0 ? Integer.MAX_VALUE - Integer.MIN_VALUE + 1 + fi.timestamp_sec : fi.timestamp_sec;
         long usec = fi.timestamp_usec < 0 ? Integer.MAX_VALUE - Integer.MIN_VALUE + 1 + fi.timestamp_usec : fi.timestamp_usec;
@@ -346,13 +375,24 @@ public class Client implements Closeable {
         }
 
         if (callBack != null) {
+            // 暂停时每一帧都会走到这里，只在verbose级别输出
             if (paused) {
-                Log.i(TAG, "channel_" + _channelId + " is paused!");
+                Log.v(TAG, "channel_" + _channelId + " is paused!");
             }
             callBack.onSourceCallBack(_channelId, _channelPtr, _frameType, fi);
+        } else {
+            FramePool.getDefault().release(fi);
         }
     }
 
+    private static int readIntLE(byte[] b, int offset) {
+        return (b[offset] & 0xff) | (b[offset + 1] & 0xff) << 8 | (b[offset + 2] & 0xff) << 16 | (b[offset + 3] & 0xff) << 24;
+    }
+
+    private static short readShortLE(byte[] b, int offset) {
+        return (short) ((b[offset] & 0xff) | (b[offset + 1] & 0xff) << 8);
+    }
+
 
 
     private static void onEvent(int channel, int err, int state) {
@@ -369,6 +409,15 @@ public class Client implements Closeable {
     }
 
     public void pause() {
+        pause(10000);
+    }
+
+    /**
+     * 暂停，连接保持一段时间，超时后才真正关闭，{@link #resume()} 时重新打开
+     *
+     * @param closeDelayMs 暂停多久之后关闭连接
+     */
+    public void pause(long closeDelayMs) {
         if (Looper.myLooper() != Looper.getMainLooper()) {
             throw new IllegalThreadStateException("please call pause in Main thread!");
         }
@@ -379,7 +428,8 @@ public class Client implements Closeable {
 
         paused = 1;
         Log.i(TAG, "pause:=" + 1);
-        h.postDelayed(closeTask, 10000);
+        h.removeCallbacks(closeTask);
+        h.postDelayed(closeTask, closeDelayMs);
     }
 
     public void resume() {
@@ -0,0 +1,345 @@
+package org.easydarwin.video;
+
+import android.content.Context;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.easydarwin.util.CodecSpecificDataUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 视频解码器能力的持久化缓存。
+ * <p>
+ * 遍历 MediaCodecList、查询 CodecCapabilities 在有些设备上要一百多毫秒，每次起播都做一遍不划算。
+ * 这里每个系统版本(Build.FINGERPRINT)只探测一次H.264、H.265解码器的尺寸范围、颜色格式、最大实例数、
+ * 是否支持低延时和自适应播放，结果存到一个小文件里，之后选解码器只是查内存。
+ * <p>
+ * 在后台线程加载( {@link #preload()} )，没加载完就查询的话在调用线程上等待，所以不要在主线程查询。
+ */
+public final class CodecCapabilityCache {
+
+    private static final String TAG = CodecCapabilityCache.class.getSimpleName();
+
+    private static final String FILE = "codec_caps";
+    /**
+     * 文件格式变化时加一
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * API 30 的 CodecCapabilities.FEATURE_LowLatency
+     */
+    private static final String FEATURE_LOW_LATENCY = "low-latency";
+
+    static final String[] MIME_TYPES = {"video/avc", "video/hevc"};
+
+    private static CodecCapabilityCache sDefault;
+
+    /**
+     * 一个解码器对某种格式的能力
+     */
+    public static final class Decoder {
+        public final String name;
+        public final String mime;
+        /**
+         * 输出到内存时使用的颜色格式，0表示没有认识的格式
+         */
+        public final int colorFormat;
+        /**
+         * 支持的宽高范围，都为0表示未知(API 21以下)
+         */
+        public final int minWidth, maxWidth, minHeight, maxHeight;
+        /**
+         * 最大的像素数，0表示未知
+         */
+        public final int maxPixels;
+        /**
+         * 最多同时存在的实例数，0表示未知(API 23以下)
+         */
+        public final int maxInstances;
+        public final boolean adaptivePlayback;
+        public final boolean lowLatency;
+
+        Decoder(String name, String mime, int colorFormat, int minWidth, int maxWidth, int minHeight, int maxHeight, int maxPixels, int maxInstances, boolean adaptivePlayback, boolean lowLatency) {
+            this.name = name;
+            this.mime = mime;
+            this.colorFormat = colorFormat;
+            this.minWidth = minWidth;
+            this.maxWidth = maxWidth;
+            this.minHeight = minHeight;
+            this.maxHeight = maxHeight;
+            this.maxPixels = maxPixels;
+            this.maxInstances = maxInstances;
+            this.adaptivePlayback = adaptivePlayback;
+            this.lowLatency = lowLatency;
+        }
+
+        /**
+         * 宽高都在支持的范围内
+         */
+        public boolean isSizeInRange(int width, int height) {
+            if (maxWidth == 0 || maxHeight == 0) {
+                return true;
+            }
+            return width >= minWidth && width <= maxWidth && height >= minHeight && height <= maxHeight;
+        }
+
+        /**
+         * 宽高在范围内，像素数也不超过上限
+         */
+        public boolean isSizeSupported(int width, int height) {
+            return isSizeInRange(width, height) && (maxPixels == 0 || (long) width * height <= maxPixels);
+        }
+
+        @Override
+        public String toString() {
+            return "Decoder{" + "name=" + name + ", mime=" + mime + ", colorFormat=" + colorFormat + ", width=" + minWidth + "-" + maxWidth + ", height=" + minHeight + "-" + maxHeight + ", maxPixels=" + maxPixels + ", maxInstances=" + maxInstances + ", adaptive=" + adaptivePlayback + ", lowLatency=" + lowLatency + '}';
+        }
+    }
+
+    private final File mFile;
+
+    private volatile List<Decoder> mDecoders;
+    private Thread mLoader;
+    private volatile boolean mFromFile;
+    private volatile long mLoadMs;
+
+    CodecCapabilityCache(File file) {
+        mFile = file;
+    }
+
+    public static synchronized CodecCapabilityCache getDefault(Context context) {
+        if (sDefault == null) {
+            sDefault = new CodecCapabilityCache(new File(context.getApplicationContext().getFilesDir(), FILE));
+        }
+        return sDefault;
+    }
+
+    /**
+     * 在后台线程加载，已经加载或正在加载时什么也不做
+     */
+    public void preload() {
+        synchronized (this) {
+            if (mDecoders != null || mLoader != null) {
+                return;
+            }
+            mLoader = new Thread("CODEC_CAPS") {
+                @Override
+                public void run() {
+                    ensureLoaded();
+                }
+            };
+        }
+        mLoader.start();
+    }
+
+    /**
+     * 某种格式的首选解码器，与 MediaCodecList 的顺序一致
+     *
+     * @return 没有这种格式的解码器时返回null
+     */
+    public Decoder select(String mime) {
+        for (Decoder decoder : ensureLoaded()) {
+            if (decoder.mime.equalsIgnoreCase(mime)) {
+                return decoder;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 某种格式的所有解码器
+     */
+    public List<Decoder> getDecoders(String mime) {
+        ArrayList<Decoder> decoders = new ArrayList<>();
+        for (Decoder decoder : ensureLoaded()) {
+            if (decoder.mime.equalsIgnoreCase(mime)) {
+                decoders.add(decoder);
+            }
+        }
+        return decoders;
+    }
+
+    /**
+     * 删掉保存的结果，下次查询时重新探测
+     */
+    public synchronized void invalidate() {
+        mDecoders = null;
+        mLoader = null;
+        if (mFile.exists() && !mFile.delete()) {
+            Log.w(TAG, "can't delete " + mFile);
+        }
+    }
+
+    /**
+     * 结果是否来自保存的文件(而不是重新探测的)
+     */
+    public boolean isFromFile() {
+        return mFromFile;
+    }
+
+    /**
+     * 加载或探测花费的时间(毫秒)
+     */
+    public long getLoadMs() {
+        return mLoadMs;
+    }
+
+    private synchronized List<Decoder> ensureLoaded() {
+        List<Decoder> decoders = mDecoders;
+        if (decoders != null) {
+            return decoders;
+        }
+        long begin = SystemClock.elapsedRealtime();
+        decoders = read();
+        mFromFile = decoders != null;
+        if (decoders == null) {
+            decoders = probe();
+            write(decoders);
+        }
+        mLoadMs = SystemClock.elapsedRealtime() - begin;
+        Log.i(TAG, String.format("%d decoders %s in %d ms", decoders.size(), mFromFile ? "loaded" : "probed", mLoadMs));
+        mDecoders = decoders = Collections.unmodifiableList(decoders);
+        return decoders;
+    }
+
+    private static List<Decoder> probe() {
+        ArrayList<Decoder> decoders = new ArrayList<>();
+        int numCodecs = MediaCodecList.getCodecCount();
+        for (int i = 0; i < numCodecs; i++) {
+            MediaCodecInfo codecInfo = MediaCodecList.getCodecInfoAt(i);
+            if (codecInfo.isEncoder()) {
+                continue;
+            }
+            for (String type : codecInfo.getSupportedTypes()) {
+                for (String mime : MIME_TYPES) {
+                    if (type.equalsIgnoreCase(mime)) {
+                        try {
+                            decoders.add(probe(codecInfo, mime));
+                        } catch (RuntimeException e) {
+                            // 个别厂商的codec查询能力时会抛异常，跳过它
+                            Log.w(TAG, String.format("can't query %s:%s", codecInfo.getName(), e));
+                        }
+                    }
+                }
+            }
+        }
+        return decoders;
+    }
+
+    private static Decoder probe(MediaCodecInfo codecInfo, String mime) {
+        MediaCodecInfo.CodecCapabilities capabilities = codecInfo.getCapabilitiesForType(mime);
+        int colorFormat = CodecSpecificDataUtil.selectColorFormat(codecInfo, mime);
+        int minWidth = 0, maxWidth = 0, minHeight = 0, maxHeight = 0, maxPixels = 0;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            MediaCodecInfo.VideoCapabilities videoCapabilities = capabilities.getVideoCapabilities();
+            if (videoCapabilities != null) {
+                minWidth = videoCapabilities.getSupportedWidths().getLower();
+                maxWidth = videoCapabilities.getSupportedWidths().getUpper();
+                minHeight = videoCapabilities.getSupportedHeights().getLower();
+                maxHeight = videoCapabilities.getSupportedHeights().getUpper();
+                try {
+                    // 最宽时能支持的最大高度，宽高上限一般不能同时达到
+                    maxPixels = maxWidth * videoCapabilities.getSupportedHeightsFor(maxWidth).getUpper();
+                } catch (IllegalArgumentException e) {
+                    maxPixels = 0;
+                }
+            }
+        }
+        int maxInstances = 0;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            maxInstances = capabilities.getMaxSupportedInstances();
+        }
+        boolean adaptive = capabilities.isFeatureSupported(MediaCodecInfo.CodecCapabilities.FEATURE_AdaptivePlayback);
+        boolean lowLatency = Build.VERSION.SDK_INT >= 30 && capabilities.isFeatureSupported(FEATURE_LOW_LATENCY);
+        return new Decoder(codecInfo.getName(), mime, colorFormat, minWidth, maxWidth, minHeight, maxHeight, maxPixels, maxInstances, adaptive, lowLatency);
+    }
+
+    /**
+     * @return 文件不存在、损坏或者是别的系统版本保存的时返回null
+     */
+    private List<Decoder> read() {
+        if (!mFile.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != VERSION || !Build.FINGERPRINT.equals(in.readUTF())) {
+                Log.i(TAG, "system changed, probe decoders again");
+                return null;
+            }
+            int count = in.readInt();
+            ArrayList<Decoder> decoders = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                decoders.add(new Decoder(in.readUTF(), in.readUTF(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readBoolean(), in.readBoolean()));
+            }
+            return decoders;
+        } catch (IOException e) {
+            Log.w(TAG, String.format("can't read %s:%s", mFile, e));
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void write(List<Decoder> decoders) {
+        // 先写临时文件再改名，写到一半被杀也不会留下损坏的文件
+        File tmp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(VERSION);
+            out.writeUTF(Build.FINGERPRINT);
+            out.writeInt(decoders.size());
+            for (Decoder decoder : decoders) {
+                out.writeUTF(decoder.name);
+                out.writeUTF(decoder.mime);
+                out.writeInt(decoder.colorFormat);
+                out.writeInt(decoder.minWidth);
+                out.writeInt(decoder.maxWidth);
+                out.writeInt(decoder.minHeight);
+                out.writeInt(decoder.maxHeight);
+                out.writeInt(decoder.maxPixels);
+                out.writeInt(decoder.maxInstances);
+                out.writeBoolean(decoder.adaptivePlayback);
+                out.writeBoolean(decoder.lowLatency);
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(mFile)) {
+                Log.w(TAG, "can't save " + mFile);
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, String.format("can't save %s:%s", mFile, e));
+            closeQuietly(out);
+            tmp.delete();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package org.easydarwin.video;
+
+import android.media.MediaCodec;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 解码器实例的复用池。
+ * <p>
+ * 创建一个硬解码器(分配codec组件)往往要几十到几百毫秒，而 stop 之后重新 configure 要快得多。
+ * 播放器不再使用的codec停止后放回这里，下次需要同一个codec组件时直接重新配置使用，
+ * 分辨率变化、主子码流切换、停止后重新播放都不必重新创建。
+ * <p>
+ * 放回的codec处于未配置状态，不再绑定原来的surface。硬件解码器的实例数有限，
+ * 所以空闲的codec数量很少，闲置太久或内存紧张时释放。
+ * 池里有空闲codec时在一个后台线程上定时检查，没人再来取也会按时释放，池空了就停掉这个线程。
+ */
+public final class DecoderPool {
+
+    private static final String TAG = DecoderPool.class.getSimpleName();
+
+    private static final DecoderPool sDefault = new DecoderPool(2, 30000);
+
+    private static final class Idle {
+        final String name;
+        final MediaCodec codec;
+        final long since;
+
+        Idle(String name, MediaCodec codec, long since) {
+            this.name = name;
+            this.codec = codec;
+            this.since = since;
+        }
+    }
+
+    private final int mMaxIdle;
+    private final long mMaxIdleMs;
+    private final ArrayList<Idle> mIdle = new ArrayList<>();
+
+    private long mHits, mMisses;
+
+    /**
+     * 定时释放闲置超时的codec，池里没有codec时为null
+     */
+    private HandlerThread mExpireThread;
+    private Handler mExpireHandler;
+    private final Runnable mExpire = new Runnable() {
+        @Override
+        public void run() {
+            releaseExpired();
+        }
+    };
+
+    /**
+     * @param maxIdle   最多保留的空闲codec个数
+     * @param maxIdleMs 空闲超过该时间的codec释放
+     */
+    public DecoderPool(int maxIdle, long maxIdleMs) {
+        mMaxIdle = maxIdle;
+        mMaxIdleMs = maxIdleMs;
+    }
+
+    public static DecoderPool getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * 借出一个未配置的codec，优先复用池里同名的实例
+     *
+     * @param name codec组件名，如 {@link android.media.MediaCodecInfo#getName()}
+     */
+    public MediaCodec obtain(String name) throws IOException {
+        MediaCodec codec = null;
+        List<Idle> expired;
+        synchronized (this) {
+            for (int i = mIdle.size() - 1; i >= 0; i--) {
+                if (mIdle.get(i).name.equals(name)) {
+                    codec = mIdle.remove(i).codec;
+                    break;
+                }
+            }
+            if (codec != null) {
+                mHits++;
+            } else {
+                mMisses++;
+            }
+            expired = removeExpired();
+            scheduleExpire();
+        }
+        releaseAll(expired);
+        if (codec != null) {
+            Log.i(TAG, String.format("reuse codec %s", name));
+            return codec;
+        }
+        return MediaCodec.createByCodecName(name);
+    }
+
+    /**
+     * 停止codec并放回池里，之后调用方不能再使用它。停止失败或池已满时直接释放。
+     *
+     * @param name 创建该codec时的组件名
+     */
+    public void recycle(String name, MediaCodec codec) {
+        if (codec == null) {
+            return;
+        }
+        try {
+            codec.stop();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                // 可能用过回调模式，下一个使用者不一定是
+                codec.setCallback(null);
+            }
+        } catch (IllegalStateException e) {
+            // 出错状态的codec不能再配置
+            Log.w(TAG, String.format("codec %s can't be reused:%s", name, e.getMessage()));
+            codec.release();
+            return;
+        }
+
+        List<Idle> expired;
+        synchronized (this) {
+            mIdle.add(new Idle(name, codec, SystemClock.elapsedRealtime()));
+            expired = removeExpired();
+            while (mIdle.size() > mMaxIdle) {
+                expired.add(mIdle.remove(0));
+            }
+            scheduleExpire();
+        }
+        releaseAll(expired);
+    }
+
+    /**
+     * 释放所有空闲的codec，内存紧张时调用
+     */
+    public void trim() {
+        List<Idle> idle;
+        synchronized (this) {
+            idle = new ArrayList<>(mIdle);
+            mIdle.clear();
+            scheduleExpire();
+        }
+        releaseAll(idle);
+    }
+
+    /**
+     * 只释放闲置超时的codec
+     */
+    public void releaseExpired() {
+        List<Idle> expired;
+        synchronized (this) {
+            expired = removeExpired();
+            scheduleExpire();
+        }
+        releaseAll(expired);
+    }
+
+    public long getMaxIdleMs() {
+        return mMaxIdleMs;
+    }
+
+    public synchronized int idleCount() {
+        return mIdle.size();
+    }
+
+    public synchronized long hits() {
+        return mHits;
+    }
+
+    public synchronized long misses() {
+        return mMisses;
+    }
+
+    private List<Idle> removeExpired() {
+        List<Idle> expired = new ArrayList<>();
+        long now = SystemClock.elapsedRealtime();
+        for (int i = mIdle.size() - 1; i >= 0; i--) {
+            if (now - mIdle.get(i).since > mMaxIdleMs) {
+                expired.add(mIdle.remove(i));
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * 按最早放回的codec安排下一次检查，池空时取消检查并停掉线程。持有锁时调用
+     */
+    private void scheduleExpire() {
+        if (mIdle.isEmpty()) {
+            if (mExpireThread != null) {
+                mExpireHandler.removeCallbacks(mExpire);
+                mExpireThread.quit();
+                mExpireThread = null;
+                mExpireHandler = null;
+            }
+            return;
+        }
+        if (mExpireThread == null) {
+            mExpireThread = new HandlerThread("DECODER_POOL", Process.THREAD_PRIORITY_BACKGROUND);
+            mExpireThread.start();
+            mExpireHandler = new Handler(mExpireThread.getLooper());
+        }
+        long oldest = Long.MAX_VALUE;
+        for (Idle idle : mIdle) {
+            oldest = Math.min(oldest, idle.since);
+        }
+        long delay = Math.max(0, oldest + mMaxIdleMs - SystemClock.elapsedRealtime()) + 1;
+        mExpireHandler.removeCallbacks(mExpire);
+        mExpireHandler.postDelayed(mExpire, delay);
+    }
+
+    /**
+     * release 可能比较耗时，不在锁里做
+     */
+    private static void releaseAll(List<Idle> idle) {
+        for (Idle i : idle) {
+            i.codec.release();
+        }
+    }
+}
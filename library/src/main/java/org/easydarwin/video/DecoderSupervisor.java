@@ -0,0 +1,319 @@
+package org.easydarwin.video;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.security.InvalidParameterException;
+
+/**
+ * 硬解码器的健康管理。
+ * <p>
+ * 硬解码出错时先临时用软解码顶上，按退避时间在下一个关键帧重新配置硬解码再试，而不是整个会话都退回软解码。
+ * 出错按原因分成三类：码流问题(参数集不对，不怪解码器，下个关键帧就重试)、暂时性错误(资源不足、被回收、
+ * surface已经失效、解码出错，退避后重试)和不支持(能力检查发现没有对应的解码器、尺寸超出范围)。
+ * <p>
+ * 每种格式、分辨率的结论按设备保存下来：能力检查不支持的直接用软解码，稳定运行 {@link #STABLE_MS} 的记为可以硬解，
+ * 可以硬解的第一次暂时性错误不退避，下个关键帧就换回硬解码。
+ * 连续失败 {@link #MAX_FAILURES} 次只在本次播放中放弃，不保存，失败可能只是当时的surface或资源造成的。
+ * 系统升级(Build.FINGERPRINT 变化)后结论作废。
+ * <p>
+ * 同时统计硬解、软解各自的时长和帧数。只在解码线程(和异步解码的回调线程)调用，统计值可以在任意线程读取。
+ */
+public final class DecoderSupervisor {
+
+    private static final String TAG = DecoderSupervisor.class.getSimpleName();
+
+    private static final String PREFS = "decoder_verdicts";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+
+    public static final int VERDICT_UNKNOWN = 0;
+    public static final int VERDICT_HARDWARE = 1;
+    public static final int VERDICT_SOFTWARE = 2;
+
+    /**
+     * 码流问题，不算解码器的错
+     */
+    static final int FAILURE_STREAM = 0;
+    /**
+     * 暂时性错误，退避后重试
+     */
+    static final int FAILURE_TRANSIENT = 1;
+    /**
+     * 能力检查发现解码器不支持，重试也没用
+     */
+    static final int FAILURE_UNSUPPORTED = 2;
+
+    static final long BASE_BACKOFF_MS = 1000;
+    static final long MAX_BACKOFF_MS = 30000;
+    static final int MAX_FAILURES = 4;
+    static final long STABLE_MS = 10000;
+
+    private static final int MODE_NONE = 0;
+    private static final int MODE_HARDWARE = 1;
+    private static final int MODE_SOFTWARE = 2;
+
+    private final Context mContext;
+
+    /**
+     * 当前格式和分辨率的结论键
+     */
+    private String mKey;
+    private int mFailures;
+    private long mRetryAt = -1;
+    private boolean mGaveUp;
+    private boolean mStable;
+    /**
+     * 当前格式和分辨率在本机稳定硬解过
+     */
+    private boolean mKnownGood;
+
+    private int mMode = MODE_NONE;
+    private long mModeSince;
+    private volatile long mHardwareMs, mSoftwareMs;
+    private volatile long mHardwareFrames, mSoftwareFrames;
+    private volatile long mHardwareFailures, mRetries, mFallbacks;
+
+    DecoderSupervisor(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * 新的播放，重试状态清零，统计保留
+     */
+    synchronized void reset() {
+        onStopped();
+        mKey = null;
+        mFailures = 0;
+        mRetryAt = -1;
+        mGaveUp = false;
+        mStable = false;
+    }
+
+    /**
+     * 创建硬解码器之前调用
+     *
+     * @return false 表示这种格式和分辨率应该直接用软解码
+     */
+    synchronized boolean allowHardware(String mime, int width, int height) {
+        String key = mime + "@" + width + "x" + height;
+        if (!key.equals(mKey)) {
+            mKey = key;
+            mFailures = 0;
+            mRetryAt = -1;
+            mGaveUp = false;
+            mStable = false;
+        }
+        if (mGaveUp) {
+            return false;
+        }
+        int verdict = getVerdict(mContext, key);
+        mKnownGood = verdict == VERDICT_HARDWARE;
+        if (verdict == VERDICT_SOFTWARE) {
+            Log.i(TAG, String.format("%s is known to fail in hardware, use software decoder", key));
+            mGaveUp = true;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 硬解码器创建或解码出错
+     */
+    synchronized void onHardwareFailure(Throwable e) {
+        mHardwareFailures++;
+        int failure = classify(e);
+        if (failure == FAILURE_STREAM) {
+            mRetryAt = 0;
+        } else if (failure == FAILURE_UNSUPPORTED) {
+            mGaveUp = true;
+            mRetryAt = -1;
+            if (mKey != null) {
+                putVerdict(mContext, mKey, VERDICT_SOFTWARE);
+            }
+        } else if (++mFailures >= MAX_FAILURES) {
+            mGaveUp = true;
+            mRetryAt = -1;
+        } else {
+            mRetryAt = SystemClock.elapsedRealtime() + backoffMs(mFailures, mKnownGood);
+        }
+        Log.w(TAG, String.format("hardware decoder failed(%s):%s, %s", failureName(failure), e, mGaveUp ? "give up" : "retry after " + Math.max(0, mRetryAt - SystemClock.elapsedRealtime()) + "ms"));
+    }
+
+    /**
+     * 软解码期间每个关键帧调用，到了重试时间就换回硬解码
+     */
+    synchronized boolean shouldRetryHardware() {
+        if (mGaveUp || mRetryAt < 0 || SystemClock.elapsedRealtime() < mRetryAt) {
+            return false;
+        }
+        mRetryAt = -1;
+        mRetries++;
+        return true;
+    }
+
+    synchronized void onHardwareStarted() {
+        switchMode(MODE_HARDWARE);
+        mStable = false;
+    }
+
+    synchronized void onSoftwareStarted() {
+        if (mMode == MODE_HARDWARE) {
+            mFallbacks++;
+        }
+        switchMode(MODE_SOFTWARE);
+    }
+
+    synchronized void onStopped() {
+        switchMode(MODE_NONE);
+    }
+
+    /**
+     * 每送一帧去解码调用一次
+     */
+    synchronized void onFrame(boolean hardware) {
+        if (!hardware) {
+            mSoftwareFrames++;
+            return;
+        }
+        mHardwareFrames++;
+        if (!mStable && mMode == MODE_HARDWARE && SystemClock.elapsedRealtime() - mModeSince >= STABLE_MS) {
+            mStable = true;
+            mFailures = 0;
+            if (mKey != null) {
+                putVerdict(mContext, mKey, VERDICT_HARDWARE);
+            }
+        }
+    }
+
+    private void switchMode(int mode) {
+        long now = SystemClock.elapsedRealtime();
+        if (mMode == MODE_HARDWARE) {
+            mHardwareMs += now - mModeSince;
+        } else if (mMode == MODE_SOFTWARE) {
+            mSoftwareMs += now - mModeSince;
+        }
+        mMode = mode;
+        mModeSince = now;
+    }
+
+    /**
+     * 第 failures 次暂时性错误后等多久重试硬解码
+     *
+     * @param knownGood 这种格式和分辨率在本机稳定硬解过，第一次出错多半是偶然的，不等
+     */
+    static long backoffMs(int failures, boolean knownGood) {
+        if (knownGood && failures == 1) {
+            return 0;
+        }
+        return Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << (failures - 1));
+    }
+
+    static int classify(Throwable e) {
+        if (e instanceof InvalidParameterException) {
+            // csd不全
+            return FAILURE_STREAM;
+        }
+        if (e instanceof UnsupportedOperationException) {
+            // 只有选解码器时的能力检查会抛出
+            return FAILURE_UNSUPPORTED;
+        }
+        // 包括 MediaCodec.CodecException：资源不足、被回收是暂时的，不可恢复的错误也重新配置试试，连续失败才放弃；
+        // configure 时surface已经失效会抛 IllegalArgumentException，换了surface就好了
+        return FAILURE_TRANSIENT;
+    }
+
+    private static String failureName(int failure) {
+        return failure == FAILURE_STREAM ? "stream" : failure == FAILURE_UNSUPPORTED ? "unsupported" : "transient";
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        SharedPreferences sp = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        if (!Build.FINGERPRINT.equals(sp.getString(KEY_FINGERPRINT, null))) {
+            // 系统或固件变了，之前的结论不再可信
+            sp.edit().clear().putString(KEY_FINGERPRINT, Build.FINGERPRINT).apply();
+        }
+        return sp;
+    }
+
+    /**
+     * 本设备上某种格式和分辨率的硬解结论
+     *
+     * @param key 如 video/avc@1920x1080
+     */
+    public static synchronized int getVerdict(Context context, String key) {
+        return prefs(context).getInt(key, VERDICT_UNKNOWN);
+    }
+
+    private static synchronized void putVerdict(Context context, String key, int verdict) {
+        SharedPreferences sp = prefs(context);
+        if (sp.getInt(key, VERDICT_UNKNOWN) != verdict) {
+            Log.i(TAG, String.format("verdict of %s:%d", key, verdict));
+            sp.edit().putInt(key, verdict).apply();
+        }
+    }
+
+    /**
+     * 清除保存的所有结论，下次都重新尝试硬解码
+     */
+    public static synchronized void clearVerdicts(Context context) {
+        context.getSharedPreferences(PREFS, Context.MODE_PRIVATE).edit().clear().apply();
+    }
+
+    /**
+     * 当前是否在用硬解码
+     */
+    public synchronized boolean isHardware() {
+        return mMode == MODE_HARDWARE;
+    }
+
+    /**
+     * 累计硬解码时长(毫秒)，包括正在进行的
+     */
+    public synchronized long getHardwareMs() {
+        return mHardwareMs + (mMode == MODE_HARDWARE ? SystemClock.elapsedRealtime() - mModeSince : 0);
+    }
+
+    /**
+     * 累计软解码时长(毫秒)，包括正在进行的
+     */
+    public synchronized long getSoftwareMs() {
+        return mSoftwareMs + (mMode == MODE_SOFTWARE ? SystemClock.elapsedRealtime() - mModeSince : 0);
+    }
+
+    public long getHardwareFrames() {
+        return mHardwareFrames;
+    }
+
+    public long getSoftwareFrames() {
+        return mSoftwareFrames;
+    }
+
+    /**
+     * 硬解码出错次数
+     */
+    public long getHardwareFailures() {
+        return mHardwareFailures;
+    }
+
+    /**
+     * 从软解码重试硬解码的次数
+     */
+    public long getRetries() {
+        return mRetries;
+    }
+
+    /**
+     * 从硬解码退回软解码的次数
+     */
+    public long getFallbacks() {
+        return mFallbacks;
+    }
+
+    @Override
+    public String toString() {
+        return "DecoderSupervisor{" + "hardware=" + isHardware() + ", hardwareMs=" + getHardwareMs() + ", softwareMs=" + getSoftwareMs() + ", hardwareFrames=" + mHardwareFrames + ", softwareFrames=" + mSoftwareFrames + ", failures=" + mHardwareFailures + ", retries=" + mRetries + ", fallbacks=" + mFallbacks + '}';
+    }
+}
@@ -0,0 +1,241 @@
+package org.easydarwin.video;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.SurfaceTexture;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.IOException;
+
+/**
+ * 应用启动时预热硬解码器。
+ * <p>
+ * 起播前最慢的是 MediaCodec.createByCodecName 和 configure、start，要加载组件、分配硬件资源和缓冲。
+ * 这里按最近播放过的码流格式和分辨率，在后台线程各创建一个H.264和H.265解码器。
+ * <p>
+ * 6.0以上第一个解码器还会对着一个占位的Surface配置好并启动，不放进池(放回池要stop，配置就没了)，
+ * 由第一个格式、分辨率都相同的同步解码的 {@link EasyPlayerClient} 通过 {@link #takeConfigured} 取走，
+ * 用 setOutputSurface 换到真正的surface上，参数集作为codec config送入。
+ * 其它解码器只预热创建，放进 {@link DecoderPool}。闲置超过池的超时时间还没人用就释放。
+ * <p>
+ * 需要应用主动调用 {@link #start(Context)} 开启，适合冷启动后很快就要播放的场景。
+ */
+public final class DecoderWarmup {
+
+    private static final String TAG = DecoderWarmup.class.getSimpleName();
+
+    private static final String PREFS = "decoder_warmup";
+
+    private static HandlerThread sThread;
+    private static Handler sHandler;
+
+    /**
+     * 预热时配置好的解码器，还没有人取走
+     */
+    private static Configured sConfigured;
+
+    private static final class Configured {
+        final String name;
+        final String mime;
+        final int width;
+        final int height;
+        final MediaCodec codec;
+        final SurfaceTexture texture;
+        final Surface surface;
+
+        Configured(String name, String mime, int width, int height, MediaCodec codec, SurfaceTexture texture, Surface surface) {
+            this.name = name;
+            this.mime = mime;
+            this.width = width;
+            this.height = height;
+            this.codec = codec;
+            this.texture = texture;
+            this.surface = surface;
+        }
+
+        /**
+         * 占位的surface已经不用了
+         */
+        void releaseSurface() {
+            surface.release();
+            texture.release();
+        }
+    }
+
+    private static final Runnable sExpire = new Runnable() {
+        @Override
+        public void run() {
+            Configured configured;
+            synchronized (DecoderWarmup.class) {
+                configured = sConfigured;
+                sConfigured = null;
+            }
+            if (configured != null) {
+                Log.i(TAG, String.format("configured %s not used, release", configured.name));
+                configured.codec.release();
+                configured.releaseSurface();
+            }
+            quit();
+        }
+    };
+
+    private DecoderWarmup() {
+    }
+
+    /**
+     * 在后台预热解码器，重复调用时只执行一次。没有播放过的格式不预热。
+     */
+    public static synchronized void start(Context context) {
+        if (sThread != null) {
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        sThread = new HandlerThread("DECODER_WARMUP", Process.THREAD_PRIORITY_BACKGROUND);
+        sThread.start();
+        sHandler = new Handler(sThread.getLooper());
+        sHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                warmUp(appContext);
+                synchronized (DecoderWarmup.class) {
+                    if (sConfigured == null) {
+                        quit();
+                        return;
+                    }
+                }
+                // 配置好的codec不在池里，到时没人用由这里释放
+                sHandler.postDelayed(sExpire, DecoderPool.getDefault().getMaxIdleMs());
+            }
+        });
+    }
+
+    private static synchronized void quit() {
+        if (sThread != null) {
+            sThread.quit();
+        }
+    }
+
+    /**
+     * 取走预热时配置好、已经启动的解码器，输出切换到 surface 上。
+     * 组件名相同而格式或分辨率不同时停止后放进池里，调用方接着从池里取
+     *
+     * @return 没有匹配的或者切换surface失败时返回null
+     */
+    static MediaCodec takeConfigured(String name, String mime, int width, int height, Surface surface) {
+        Configured configured;
+        synchronized (DecoderWarmup.class) {
+            configured = sConfigured;
+            if (configured == null || !configured.name.equals(name)) {
+                return null;
+            }
+            sConfigured = null;
+            sHandler.removeCallbacks(sExpire);
+            quit();
+        }
+        MediaCodec codec = configured.codec;
+        boolean matched = configured.mime.equals(mime) && configured.width == width && configured.height == height;
+        if (matched && surface != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            try {
+                codec.setOutputSurface(surface);
+                configured.releaseSurface();
+                Log.i(TAG, String.format("hand over configured %s for %s %dx%d", name, mime, width, height));
+                return codec;
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                Log.w(TAG, String.format("setOutputSurface failed:%s", e.getMessage()));
+            }
+        }
+        DecoderPool.getDefault().recycle(name, codec);
+        configured.releaseSurface();
+        return null;
+    }
+
+    /**
+     * @return 预热的解码器个数
+     */
+    private static int warmUp(Context context) {
+        SharedPreferences sp = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        CodecCapabilityCache caps = CodecCapabilityCache.getDefault(context);
+        int warmed = 0;
+        for (String mime : CodecCapabilityCache.MIME_TYPES) {
+            int width = sp.getInt(mime + ".width", 0);
+            int height = sp.getInt(mime + ".height", 0);
+            if (width <= 0 || height <= 0) {
+                continue;
+            }
+            if (DecoderSupervisor.getVerdict(context, mime + "@" + width + "x" + height) == DecoderSupervisor.VERDICT_SOFTWARE) {
+                // 这个分辨率反正要用软解码
+                continue;
+            }
+            CodecCapabilityCache.Decoder decoder = caps.select(mime);
+            if (decoder == null || !decoder.isSizeInRange(width, height)) {
+                continue;
+            }
+            if (warmUp(decoder.name, mime, width, height, warmed == 0)) {
+                warmed++;
+            }
+        }
+        return warmed;
+    }
+
+    /**
+     * @param configure 6.0以上时配置好留给 {@link #takeConfigured}，否则放进池里
+     */
+    private static boolean warmUp(String name, String mime, int width, int height, boolean configure) {
+        long begin = SystemClock.elapsedRealtime();
+        MediaCodec codec;
+        try {
+            codec = MediaCodec.createByCodecName(name);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, String.format("warm up %s failed:%s", name, e));
+            return false;
+        }
+        if (configure && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && configure(name, mime, width, height, codec)) {
+            Log.i(TAG, String.format("warmed up and configured %s for %s %dx%d in %d ms", name, mime, width, height, SystemClock.elapsedRealtime() - begin));
+            return true;
+        }
+        // 未配置状态，与池里其它codec一样，超时由池的定时器释放
+        DecoderPool.getDefault().recycle(name, codec);
+        Log.i(TAG, String.format("warmed up %s for %s %dx%d in %d ms", name, mime, width, height, SystemClock.elapsedRealtime() - begin));
+        return true;
+    }
+
+    /**
+     * 对着占位的surface配置并启动。参数集要等拿到码流才知道，由使用者作为codec config送入
+     */
+    private static boolean configure(String name, String mime, int width, int height, MediaCodec codec) {
+        SurfaceTexture texture = new SurfaceTexture(0);
+        Surface surface = new Surface(texture);
+        try {
+            MediaFormat format = MediaFormat.createVideoFormat(mime, width, height);
+            codec.configure(format, surface, null, 0);
+            codec.start();
+        } catch (RuntimeException e) {
+            Log.w(TAG, String.format("configure %s failed:%s", name, e));
+            surface.release();
+            texture.release();
+            return false;
+        }
+        synchronized (DecoderWarmup.class) {
+            sConfigured = new Configured(name, mime, width, height, codec, texture, surface);
+        }
+        return true;
+    }
+
+    /**
+     * 记下硬解码播放的格式和分辨率，下次启动时按它预热
+     */
+    static void remember(Context context, String mime, int width, int height) {
+        SharedPreferences sp = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        if (sp.getInt(mime + ".width", 0) != width || sp.getInt(mime + ".height", 0) != height) {
+            sp.edit().putInt(mime + ".width", width).putInt(mime + ".height", height).apply();
+        }
+    }
+}
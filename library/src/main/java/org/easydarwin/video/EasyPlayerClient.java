@@ -1,16 +1,20 @@
 package org.easydarwin.video;
 
 import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.media.AudioFormat;
 import android.media.AudioManager;
 import android.media.AudioTrack;
 import android.media.MediaCodec;
-import android.media.MediaCodecInfo;
-import android.media.MediaCodecList;
 import android.media.MediaFormat;
+import android.media.PlaybackParams;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
 import android.os.Process;
 import android.os.ResultReceiver;
 import android.os.SystemClock;
@@ -23,7 +27,7 @@ import android.view.TextureView;
 import org.easydarwin.audio.AudioCodec;
 import org.easydarwin.audio.EasyAACMuxer;
 import org.easydarwin.sw.JNIUtil;
-import org.easydarwin.util.CodecSpecificDataUtil;
+import org.easydarwin.util.NalUnitUtil;
 import org.easydarwin.util.TextureLifecycler;
 
 import java.io.FileNotFoundException;
@@ -31,12 +35,8 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.PriorityQueue;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.LockSupport;
 
 import static android.media.AudioManager.AUDIOFOCUS_REQUEST_GRANTED;
 import static android.media.MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible;
@@ -101,6 +101,11 @@ public class EasyPlayerClient implements Client.SourceCallBack {
      */
     public static final int RESULT_FRAME_RECVED = 9;
 
+    /**
+     * 表示丢包造成的参考链断开已经恢复，断开的时长和丢掉的帧数见 EXTRA_GAP_MS、EXTRA_GAP_FRAMES
+     */
+    public static final int RESULT_VIDEO_RECOVERED = 10;
+
     private static final String TAG = EasyPlayerClient.class.getSimpleName();
     /**
      * 表示视频的宽度
@@ -110,12 +115,33 @@ public class EasyPlayerClient implements Client.SourceCallBack {
      * 表示视频的高度
      */
     public static final String EXTRA_VIDEO_HEIGHT = "extra-video-height";
+    /**
+     * 随 RESULT_VIDEO_DISPLAYED 一起返回，表示从 start 到第一帧显示的耗时(毫秒)，分段耗时见 {@link #getFirstFrameTimeline()}
+     */
+    public static final String EXTRA_TIME_TO_FIRST_FRAME = "extra-time-to-first-frame";
+    /**
+     * 随 RESULT_VIDEO_RECOVERED 一起返回，表示参考链断开了多久(毫秒)
+     */
+    public static final String EXTRA_GAP_MS = "extra-gap-ms";
+    /**
+     * 随 RESULT_VIDEO_RECOVERED 一起返回，表示断开期间没有送去解码的帧数
+     */
+    public static final String EXTRA_GAP_FRAMES = "extra-gap-frames";
 
-    private static final int NAL_VPS = 32;
-    private static final int NAL_SPS = 33;
-    private static final int NAL_PPS = 34;
+    /**
+     * 队列满时阻塞native接收线程，等待解码线程腾出空间(旧的行为)
+     */
+    public static final int OVERFLOW_POLICY_BLOCK = 0;
+    /**
+     * 队列满时不阻塞，丢弃队列里到下一个关键帧为止的视频并裁掉过时的音频
+     */
+    public static final int OVERFLOW_POLICY_DROP_TO_IDR = 1;
 
-    private Surface mSurface;
+    private volatile Surface mSurface;
+    /**
+     * {@link #setSurface(Surface)} 换了输出surface，等待解码线程切换
+     */
+    private volatile boolean mSurfaceChanged;
     private final TextureLifecycler lifecycler;
     private volatile Thread mThread, mAudioThread;
     private final ResultReceiver mRR;
@@ -131,6 +157,45 @@ public class EasyPlayerClient implements Client.SourceCallBack {
     short mWidth = 0;
     private ByteBuffer mCSD0;
     private ByteBuffer mCSD1;
+    private final ParameterSetCollector mParameterSets = new ParameterSetCollector();
+    /**
+     * 从CSD解析出的SPS，用来配置解码器
+     */
+    private volatile NalUnitUtil.SpsData mSps;
+    /**
+     * 收到媒体信息后先用其中的SPS/PPS创建解码器，不必等第一个关键帧
+     */
+    private volatile boolean mFastStart = true;
+    /**
+     * 媒体信息里的参数集已经就绪，等待解码线程提前创建解码器
+     */
+    private volatile boolean mFastStartPending;
+    private final FirstFrameTimeline mTimeline = new FirstFrameTimeline();
+    private volatile String mUrl;
+    /**
+     * 码流缓存，关闭时为null
+     */
+    private volatile StreamCache mStreamCache;
+    /**
+     * 保留最近GOP的缓存，温暂停恢复时从这里接上。共享码流缓存打开时就是它，否则是播放器自己的
+     */
+    private volatile StreamCache mGopCache;
+    /**
+     * 温暂停的时长，超过后真正关闭连接，0表示暂停时不保留连接以外的状态
+     */
+    private volatile long mWarmPauseMs = 10000;
+    private volatile boolean mWarmPaused;
+    private long mPausedAt;
+    private final Object mPauseLock = new Object();
+    /**
+     * resume() 之后等收帧线程接手：收帧线程在处理下一帧之前把保留的GOP入队，然后才结束温暂停，
+     * 队列始终只有收帧线程一个生产者。由 mPauseLock 保护
+     */
+    private boolean mResumePending;
+    /**
+     * 恢复时能接上保留的GOP，否则从下一个关键帧开始。由 mPauseLock 保护
+     */
+    private boolean mResumeFromGop;
     private final I420DataCallback i420callback;
     private SEIDataCallback mSEIDataCallback;
     private boolean mMuxerWaitingKeyVideo;
@@ -148,161 +213,134 @@ public class EasyPlayerClient implements Client.SourceCallBack {
         return !TextUtils.isEmpty(mRecordingPath);
     }
 
-    private static class FrameInfoQueue extends PriorityQueue<Client.FrameInfo> {
-        public static final int CAPACITY = 500;
-        public static final int INITIAL_CAPACITY = 300;
+    private final FrameQueue mQueue = new FrameQueue();
 
-        public FrameInfoQueue() {
-            super(INITIAL_CAPACITY, new Comparator<Client.FrameInfo>() {
-                @Override
-                public int compare(Client.FrameInfo frameInfo, Client.FrameInfo t1) {
-                    return (int) (frameInfo.stamp - t1.stamp);
-                }
-            });
-        }
-
-        final ReentrantLock lock = new ReentrantLock();
-        final Condition notFull = lock.newCondition();
-        final Condition notVideo = lock.newCondition();
-        final Condition notAudio = lock.newCondition();
-
-        @Override
-        public int size() {
-            lock.lock();
-            try {
-                return super.size();
-            } finally {
-                lock.unlock();
-            }
-        }
+    private final Context mContext;
 
-        @Override
-        public void clear() {
-            lock.lock();
-            try {
-                int size = super.size();
-                super.clear();
-                int k = size;
+    /**
+     * 最新的视频时间戳，延时都按它计算
+     */
+    private volatile long mNewestStample;
+    /**
+     * 最新的音频时间戳，只在没有视频时用于音频追赶
+     */
+    private volatile long mNewestAudioStamp;
+    private volatile boolean mWaitingKeyFrame;
+    private boolean mTimeout;
+    private boolean mNotSupportedVideoCB, mNotSupportedAudioCB;
 
-                for (; k > 0 && lock.hasWaiters(notFull); k--) {
-                    notFull.signal();
-                }
-            } finally {
-                lock.unlock();
-            }
-        }
+    private volatile int mOverflowPolicy = OVERFLOW_POLICY_DROP_TO_IDR;
 
-        public void put(Client.FrameInfo x) throws InterruptedException {
-            lock.lockInterruptibly();
+    private final JitterBuffer mJitterBuffer = new JitterBuffer();
+    private final MediaClock mMediaClock = new MediaClock();
 
-            try {
-                int size;
-                while ((size = super.size()) == CAPACITY) {
-                    Log.v(TAG, "queue full:" + CAPACITY);
-                    notFull.await();
-                }
+    /**
+     * 视频落后音频超过该值就不再显示
+     */
+    private static final long LATE_FRAME_US = 40000;
+    /**
+     * 音视频时间戳相差超过该值时认为两者不同源，视频不跟随音频
+     */
+    private static final long MAX_AV_OFFSET_US = 1000000;
+    /**
+     * 视频落后音频超过该值时，解码之前就跳到最新的关键帧
+     */
+    private static final long LATE_SKIP_US = 500000;
+    /**
+     * API 30 的 MediaFormat.KEY_LOW_LATENCY
+     */
+    private static final String KEY_LOW_LATENCY = "low-latency";
+    /**
+     * AudioTrack缓冲满时的重试间隔
+     */
+    private static final long AUDIO_RETRY_MS = 5;
 
-                offer(x);
-//                Log.d(TAG, String.format("queue size : " + size));
-                // 这里是乱序的。并非只有空的queue才丢到首位。因此不能做限制 if (size == 0)
-                {
+    /**
+     * 低延时模式下追帧时的播放倍速
+     */
+    private static final float CATCH_UP_SPEED = 1.25f;
+    /**
+     * 低延时模式下音频追赶的倍速，幅度小一些以免听感变化明显
+     */
+    private static final float AUDIO_CATCH_UP_SPEED = 1.1f;
+    /**
+     * 落后超过目标延时的多少倍时直接跳到最新的关键帧
+     */
+    private static final int SKIP_TO_KEY_FRAME_FACTOR = 3;
 
-                    if (x.audio) {
-                        notAudio.signal();
-                    } else {
-                        notVideo.signal();
-                    }
-                }
-            } finally {
-                lock.unlock();
+    private volatile boolean mLowLatency;
+    private volatile long mTargetLatencyUs = 200000;
+    private volatile long mSkippedToKeyFrame;
+    /**
+     * 跳到关键帧时从队列里丢掉的帧照常写进录像，录像里不留空洞
+     */
+    /**
+     * 解码器重建后重放的帧，排在队列前面，只在解码线程(异步解码时是回调线程)访问
+     */
+    private final ArrayDeque<Client.FrameInfo> mReplay = new ArrayDeque<>();
+    private final FrameQueue.DropListener mRecordDropped = new FrameQueue.DropListener() {
+        @Override
+        public void onDropped(Client.FrameInfo frame) {
+            if (!frame.preroll) {
+                pumpVideoSample(frame);
             }
         }
+    };
+    private final LoadShedder mLoadShedder = new LoadShedder();
+    private final ReferenceTracker mReferenceTracker = new ReferenceTracker();
+    private final DecoderSupervisor mSupervisor;
+    private final CodecCapabilityCache mCodecCaps;
+    private final StallWatchdog mWatchdog = new StallWatchdog();
 
-        public Client.FrameInfo takeVideoFrame() throws InterruptedException {
-            lock.lockInterruptibly();
-
-            try {
-                while (true) {
-                    Client.FrameInfo x = peek();
+    /**
+     * 上一帧视频的时间戳和实际显示时刻，只在视频线程访问
+     */
+    private long mLastRenderStampUs, mLastRenderWallUs;
 
-                    if (x == null) {
-                        notVideo.await();
-                    } else {
-                        if (!x.audio) {
-                            remove();
-                            notFull.signal();
-                            notAudio.signal();
-                            return x;
-                        } else {
-                            notVideo.await();
-                        }
-                    }
-                }
-            } finally {
-                lock.unlock();
-            }
-        }
+    private RenderScheduler mRenderScheduler;
 
-        public Client.FrameInfo takeVideoFrame(long ms) throws InterruptedException {
-            lock.lockInterruptibly();
+    private volatile boolean mAsyncDecode;
+    /**
+     * 正在运行的异步解码引擎，生产者通过它唤醒等待输入的codec
+     */
+    private volatile AsyncDecodeEngine mAsyncEngine;
+    /**
+     * 当前的音频倍速，只在音频线程访问
+     */
+    private float mAudioSpeed = 1.0f;
 
-            try {
-                while (true) {
-                    Client.FrameInfo x = peek();
-                    if (x == null) {
-                        if (!notVideo.await(ms, TimeUnit.MILLISECONDS)) return null;
-                    } else {
-                        if (!x.audio) {
-                            remove();
-                            notFull.signal();
-                            notAudio.signal();
-                            return x;
-                        } else {
-                            notVideo.await();
-                        }
-                    }
-                }
-            } finally {
-                lock.unlock();
+    /**
+     * 系统内存紧张时把缓存的帧裁到最近一个GOP
+     */
+    private final ComponentCallbacks2 mTrimCallback = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (level == TRIM_MEMORY_UI_HIDDEN || level < TRIM_MEMORY_RUNNING_LOW) {
+                return;
             }
-        }
-
-        public Client.FrameInfo takeAudioFrame() throws InterruptedException {
-            lock.lockInterruptibly();
-
-            try {
-                while (true) {
-                    Client.FrameInfo x = peek();
-                    if (x == null) {
-                        notAudio.await();
-                    } else {
-                        if (x.audio) {
-                            remove();
-                            notFull.signal();
-                            notVideo.signal();
-                            return x;
-                        } else {
-                            notAudio.await();
-                        }
-                    }
+            Log.w(TAG, String.format("onTrimMemory:%d", level));
+            mQueue.trimToLatestGop();
+            // 运行中内存告急，或者进了后台(随时可能被杀)，缓存和复用池也都释放掉
+            if (level == TRIM_MEMORY_RUNNING_CRITICAL || level >= TRIM_MEMORY_BACKGROUND) {
+                FramePool.getDefault().trim();
+                StreamCache.getDefault().clear();
+                StreamCache gop = mGopCache;
+                if (gop != null) {
+                    gop.clear();
                 }
-            } finally {
-                lock.unlock();
+                DecoderPool.getDefault().trim();
             }
         }
-    }
-
-    private FrameInfoQueue mQueue = new FrameInfoQueue();
 
-    private final Context mContext;
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
 
-    /**
-     * 最新的视频时间戳
-     */
-    private volatile long mNewestStample;
-    private boolean mWaitingKeyFrame;
-    private boolean mTimeout;
-    private boolean mNotSupportedVideoCB, mNotSupportedAudioCB;
+        @Override
+        public void onLowMemory() {
+            onTrimMemory(TRIM_MEMORY_COMPLETE);
+        }
+    };
 
     /**
      * 创建SDK对象
@@ -323,6 +361,8 @@ public class EasyPlayerClient implements Client.SourceCallBack {
     public EasyPlayerClient(Context context, Surface surface, ResultReceiver receiver, I420DataCallback callback) {
         mSurface = surface;
         mContext = context;
+        mSupervisor = new DecoderSupervisor(context);
+        mCodecCaps = CodecCapabilityCache.getDefault(context);
         mRR = receiver;
         i420callback = callback;
         lifecycler = null;
@@ -332,6 +372,8 @@ public class EasyPlayerClient implements Client.SourceCallBack {
     public EasyPlayerClient(Context context, Surface surface, ResultReceiver receiver, I420DataCallback callback, SEIDataCallback seiDataCallback) {
         mSurface = surface;
         mContext = context;
+        mSupervisor = new DecoderSupervisor(context);
+        mCodecCaps = CodecCapabilityCache.getDefault(context);
         mRR = receiver;
         i420callback = callback;
         lifecycler = null;
@@ -340,8 +382,11 @@ public class EasyPlayerClient implements Client.SourceCallBack {
 
 
     public EasyPlayerClient(Context context, final TextureView view, ResultReceiver receiver, I420DataCallback callback, SEIDataCallback seiDataCallback) {
-        lifecycler = new TextureLifecycler(view);
+        // 有生命周期可以跟随时，view重建不中断播放，Activity销毁时再释放
+        lifecycler = new TextureLifecycler(view, context instanceof LifecycleOwner);
         mContext = context;
+        mSupervisor = new DecoderSupervisor(context);
+        mCodecCaps = CodecCapabilityCache.getDefault(context);
         mRR = receiver;
         i420callback = callback;
         mSEIDataCallback = seiDataCallback;
@@ -356,7 +401,7 @@ public class EasyPlayerClient implements Client.SourceCallBack {
 
             @OnLifecycleEvent(value = Lifecycle.Event.ON_CREATE)
             private void create() {
-                mSurface = new Surface(view.getSurfaceTexture());
+                setSurface(new Surface(view.getSurfaceTexture()));
             }
         };
 
@@ -367,6 +412,7 @@ public class EasyPlayerClient implements Client.SourceCallBack {
                 @OnLifecycleEvent(value = Lifecycle.Event.ON_DESTROY)
                 public void destory() {
                     stop();
+                    lifecycler.release();
                 }
 
                 @OnLifecycleEvent(value = Lifecycle.Event.ON_PAUSE)
@@ -434,10 +480,31 @@ public class EasyPlayerClient implements Client.SourceCallBack {
             throw new NullPointerException("url is null");
         }
         if (type == 0) type = TRANSTYPE_TCP;
-        mNewestStample = 0;
+        mNewestStample = mNewestAudioStamp = 0;
         mWaitingKeyFrame = PreferenceManager.getDefaultSharedPreferences(mContext).getBoolean("waiting_i_frame", true);
         mWidth = mHeight = 0;
+        mSps = null;
+        mCSD0 = mCSD1 = null;
+        mFastStartPending = false;
+        mTimeline.reset();
         mQueue.clear();
+        mUrl = url;
+        mStreamCache = PreferenceManager.getDefaultSharedPreferences(mContext).getBoolean("use-stream-cache", true) ? StreamCache.getDefault() : null;
+        mGopCache = mStreamCache != null || mWarmPauseMs <= 0 ? mStreamCache : new StreamCache(StreamCache.DEFAULT_MAX_BYTES);
+        synchronized (mPauseLock) {
+            mWarmPaused = mResumePending = false;
+        }
+        prerollFromCache(url);
+        mJitterBuffer.reset();
+        mMediaClock.reset();
+        mLoadShedder.reset();
+        mReferenceTracker.reset();
+        mSupervisor.reset();
+        // 起播前在后台把解码器能力准备好，拿到SPS时只需查内存
+        mCodecCaps.preload();
+        mWatchdog.reset();
+        mContext.getApplicationContext().unregisterComponentCallbacks(mTrimCallback);
+        mContext.getApplicationContext().registerComponentCallbacks(mTrimCallback);
         startCodec();
         startAudio();
         mTimeout = false;
@@ -454,6 +521,239 @@ public class EasyPlayerClient implements Client.SourceCallBack {
         return mAudioEnable;
     }
 
+    /**
+     * 设置帧队列溢出时的处理策略
+     *
+     * @param policy {@link #OVERFLOW_POLICY_DROP_TO_IDR}(默认) 或 {@link #OVERFLOW_POLICY_BLOCK}
+     */
+    public void setOverflowPolicy(int policy) {
+        mOverflowPolicy = policy;
+    }
+
+    public int getOverflowPolicy() {
+        return mOverflowPolicy;
+    }
+
+    /**
+     * 视频抖动缓冲，可以读取目标延时、缓冲深度、欠载次数等状态
+     */
+    public JitterBuffer getJitterBuffer() {
+        return mJitterBuffer;
+    }
+
+    /**
+     * 设置抖动缓冲目标延时的上下限
+     *
+     * @param minDelayMs 最小延时，网络平稳时缓冲会收缩到这里
+     * @param maxDelayMs 最大延时，抖动再大也不会超过
+     */
+    public void setJitterBufferBounds(int minDelayMs, int maxDelayMs) {
+        mJitterBuffer.setBounds(minDelayMs * 1000L, maxDelayMs * 1000L);
+    }
+
+    /**
+     * 设置是否使用异步(回调模式)的硬解码，下次创建解码器时生效。
+     * 只在6.0以上、直接输出到surface时有效，出错时自动退回同步轮询的方式。
+     */
+    public void setAsyncDecode(boolean async) {
+        mAsyncDecode = async;
+    }
+
+    public boolean isAsyncDecode() {
+        return mAsyncDecode;
+    }
+
+    /**
+     * 设置是否在收到媒体信息(SDP)后立即创建解码器，下次 start 时生效。
+     * 只对SDP里带有SPS/PPS的H.264流有效，其它情况仍然等第一个关键帧再创建。
+     */
+    public void setFastStart(boolean fastStart) {
+        mFastStart = fastStart;
+    }
+
+    public boolean isFastStart() {
+        return mFastStart;
+    }
+
+    /**
+     * 设置温暂停的时长，下次 start 时生效。
+     * 温暂停期间连接保持、不解码，只保留最近的GOP，在这段时间内恢复可以从保留的GOP马上出图，不用重连；
+     * 超时后连接才真正关闭。0表示关闭温暂停，暂停后10秒关闭连接。
+     */
+    public void setWarmPause(long timeoutMs) {
+        mWarmPauseMs = timeoutMs;
+    }
+
+    public long getWarmPause() {
+        return mWarmPauseMs;
+    }
+
+    /**
+     * 本次播放起播耗时的分段统计
+     */
+    public FirstFrameTimeline getFirstFrameTimeline() {
+        return mTimeline;
+    }
+
+    /**
+     * 换一个 TextureView 显示，比如界面重建之后。只对用 TextureView 创建的对象有效，播放不中断
+     */
+    public void attachTextureView(TextureView view) {
+        if (lifecycler == null) {
+            throw new IllegalStateException("not created with a TextureView, use setSurface instead");
+        }
+        lifecycler.attach(view);
+    }
+
+    /**
+     * 更换显示用的surface，不中断播放(比如 TextureView 重建、全屏切换)。
+     * 6.0以上的硬解码直接切换输出；其它情况重建解码器并重放缓存的当前GOP接着显示，没有缓存时从下一个关键帧开始，码流和队列里的帧都保留。
+     * 切换在解码线程上异步完成，codec自己持有原来surface的引用，调用者可以直接释放原来的 Surface 对象。
+     */
+    public void setSurface(Surface surface) {
+        if (surface == mSurface) {
+            return;
+        }
+        mSurface = surface;
+        mSurfaceChanged = true;
+        AsyncDecodeEngine engine = mAsyncEngine;
+        if (engine != null) {
+            engine.onSurfaceChanged();
+        }
+    }
+
+    /**
+     * 以音频为主的播放时钟，可以读取音视频偏差、迟到丢帧、音频写入等统计
+     */
+    public MediaClock getMediaClock() {
+        return mMediaClock;
+    }
+
+    /**
+     * 低延时直播模式。落后超过目标延时时加速追赶，落后太多时直接跳到最新的关键帧，
+     * 适合关心画面实时性多于流畅性的场景。
+     *
+     * @param enable          是否开启
+     * @param targetLatencyMs 目标延时
+     */
+    public void setLowLatencyMode(boolean enable, int targetLatencyMs) {
+        mTargetLatencyUs = targetLatencyMs * 1000L;
+        mLowLatency = enable;
+    }
+
+    public boolean isLowLatencyMode() {
+        return mLowLatency;
+    }
+
+    /**
+     * 当前延时：最新收到的视频帧与正在显示的帧之间的时间差(毫秒)，低延时模式的追赶和跳帧也按它判断
+     */
+    public long getLatencyMs() {
+        long rendering = mJitterBuffer.getRenderingStampUs();
+        return rendering == 0 ? 0 : Math.max(0, videoLatencyUs(rendering)) / 1000;
+    }
+
+    /**
+     * 最新收到的视频帧比 stampUs 新多少
+     */
+    private long videoLatencyUs(long stampUs) {
+        return mNewestStample - stampUs;
+    }
+
+    /**
+     * 按vsync安排显示的帧数
+     */
+    public long getScheduledFrameCount() {
+        RenderScheduler scheduler = mRenderScheduler;
+        return scheduler != null ? scheduler.scheduledFrames() : 0;
+    }
+
+    /**
+     * 因抢不到自己的vsync而丢掉的帧数
+     */
+    public long getVsyncDroppedFrameCount() {
+        RenderScheduler scheduler = mRenderScheduler;
+        return scheduler != null ? scheduler.droppedFrames() : 0;
+    }
+
+    /**
+     * 低延时模式下跳到最新关键帧的次数
+     */
+    public long getSkippedToKeyFrameCount() {
+        return mSkippedToKeyFrame;
+    }
+
+    /**
+     * 解码器过载时的丢帧统计，也可以用来关闭丢帧
+     */
+    public LoadShedder getLoadShedder() {
+        return mLoadShedder;
+    }
+
+    /**
+     * 硬解、软解的使用情况和硬解出错、重试的统计
+     */
+    public DecoderSupervisor getDecoderSupervisor() {
+        return mSupervisor;
+    }
+
+    /**
+     * 硬解码器卡死、恢复的统计，也可以设置判定卡死的时长
+     */
+    public StallWatchdog getStallWatchdog() {
+        return mWatchdog;
+    }
+
+    /**
+     * 丢包后参考链断开、恢复的统计，也可以用来关闭检查
+     */
+    public ReferenceTracker getReferenceTracker() {
+        return mReferenceTracker;
+    }
+
+    /**
+     * 设置本播放器帧队列的字节上限
+     */
+    public void setBufferLimit(long bytes) {
+        mQueue.setMaxBytes(bytes);
+    }
+
+    public long getBufferLimit() {
+        return mQueue.getMaxBytes();
+    }
+
+    /**
+     * 当前缓存的帧数据字节数
+     */
+    public long getBufferedBytes() {
+        return mQueue.bytes();
+    }
+
+    /**
+     * 设置所有播放器合计的帧缓存字节上限，默认为堆上限的四分之一
+     */
+    public static void setGlobalBufferLimit(long bytes) {
+        FrameQueue.setGlobalMaxBytes(bytes);
+    }
+
+    public static long getGlobalBufferLimit() {
+        return FrameQueue.getGlobalMaxBytes();
+    }
+
+    /**
+     * 因队列溢出或内存紧张被丢弃的帧数
+     */
+    public long getDroppedFrames() {
+        return mQueue.droppedFrames();
+    }
+
+    /**
+     * 因队列溢出或内存紧张被丢弃的字节数
+     */
+    public long getDroppedBytes() {
+        return mQueue.droppedBytes();
+    }
+
     public void setAudioEnable(boolean enable) {
         mAudioEnable = enable;
         AudioTrack at = mAudioTrack;
@@ -467,6 +767,7 @@ public class EasyPlayerClient implements Client.SourceCallBack {
                     at.flush();
                     at.play();
                 }
+                mMediaClock.onAudioFlushed();
             }
         }
     }
@@ -481,14 +782,39 @@ public class EasyPlayerClient implements Client.SourceCallBack {
     }
 
     public void pause() {
+        long warm = mWarmPauseMs;
+        boolean keep = warm > 0 && mGopCache != null;
+        synchronized (mPauseLock) {
+            // 还没被收帧线程接手的恢复作废
+            mResumePending = false;
+            if (keep && !mWarmPaused) {
+                mPausedAt = SystemClock.elapsedRealtime();
+                mWarmPaused = true;
+            }
+        }
         mQueue.clear();
+        mJitterBuffer.reset();
+        mMediaClock.reset();
         if (mClient != null) {
-            mClient.pause();
+            if (keep) {
+                mClient.pause(warm);
+            } else {
+                mClient.pause();
+            }
         }
         mQueue.clear();
     }
 
     public void resume() {
+        if (mWarmPaused) {
+            synchronized (mPauseLock) {
+                if (mWarmPaused) {
+                    // 超时后连接已经关闭要重新打开，接不上了
+                    mResumeFromGop = mGopCache != null && SystemClock.elapsedRealtime() - mPausedAt < mWarmPauseMs;
+                    mResumePending = true;
+                }
+            }
+        }
         if (mClient != null) {
             mClient.resume();
         }
@@ -533,7 +859,12 @@ public class EasyPlayerClient implements Client.SourceCallBack {
         }
         mQueue.clear();
         mClient = null;
-        mNewestStample = 0;
+        mNewestStample = mNewestAudioStamp = 0;
+        synchronized (mPauseLock) {
+            mWarmPaused = mResumePending = false;
+        }
+        mGopCache = null;
+        mContext.getApplicationContext().unregisterComponentCallbacks(mTrimCallback);
     }
 
     public long receivedDataLength() {
@@ -548,7 +879,7 @@ public class EasyPlayerClient implements Client.SourceCallBack {
             public void run() {
                 {
                     Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
-                    Client.FrameInfo frameInfo;
+                    Client.FrameInfo frameInfo = null;
                     long handle = 0;
                     final AudioManager am = (AudioManager) mContext.getSystemService(Context.AUDIO_SERVICE);
                     AudioManager.OnAudioFocusChangeListener l = new AudioManager.OnAudioFocusChangeListener() {
@@ -558,9 +889,12 @@ public class EasyPlayerClient implements Client.SourceCallBack {
                                 AudioTrack audioTrack = mAudioTrack;
                                 if (audioTrack != null) {
                                     audioTrack.setStereoVolume(1.0f, 1.0f);
-                                    if (audioTrack.getPlayState() == AudioTrack.PLAYSTATE_PAUSED) {
-                                        audioTrack.flush();
-                                        audioTrack.play();
+                                    synchronized (audioTrack) {
+                                        if (audioTrack.getPlayState() == AudioTrack.PLAYSTATE_PAUSED) {
+                                            audioTrack.flush();
+                                            audioTrack.play();
+                                            mMediaClock.onAudioFlushed();
+                                        }
                                     }
                                 }
                             } else if (focusChange == AudioManager.AUDIOFOCUS_LOSS) {
@@ -586,17 +920,24 @@ public class EasyPlayerClient implements Client.SourceCallBack {
                         do {
                             frameInfo = mQueue.takeAudioFrame();
                             if (mMediaInfo != null) break;
+                            releaseFrame(frameInfo);
                         } while (true);
                         final Thread t = Thread.currentThread();
 
+                        // 比标称采样率稍快一点播放，避免音频越积越多
+                        int sampleRateInHz = (int) (mMediaInfo.sample * 1.001);
                         if (mAudioTrack == null) {
-                            int sampleRateInHz = (int) (mMediaInfo.sample * 1.001);
                             int channelConfig = mMediaInfo.channel == 1 ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO;
                             int audioFormat = AudioFormat.ENCODING_PCM_16BIT;
                             int bfSize = AudioTrack.getMinBufferSize(mMediaInfo.sample, channelConfig, audioFormat) * 8;
                             mAudioTrack = new AudioTrack(AudioManager.STREAM_MUSIC, sampleRateInHz, channelConfig, audioFormat, bfSize, AudioTrack.MODE_STREAM);
                         }
                         mAudioTrack.play();
+                        mAudioSpeed = 1.0f;
+                        mMediaClock.onAudioFlushed();
+                        final int sampleRate = mMediaInfo.sample;
+                        final int bytesPerFrame = 2 * (mMediaInfo.channel == 1 ? 1 : 2);
+                        final float clockScale = (float) sampleRateInHz / sampleRate;
                         handle = AudioCodec.create(frameInfo.codec, frameInfo.sample_rate, frameInfo.channels, frameInfo.bits_per_sample);
 
                         Log.w(TAG, String.format("POST VIDEO_DISPLAYED IN AUDIO THREAD!!!"));
@@ -610,6 +951,11 @@ public class EasyPlayerClient implements Client.SourceCallBack {
                             if (frameInfo == null) {
                                 frameInfo = mQueue.takeAudioFrame();
                             }
+                            if (!catchUpAudio(mAudioTrack, frameInfo.stamp)) {
+                                releaseFrame(frameInfo);
+                                frameInfo = null;
+                                continue;
+                            }
                             if (frameInfo.codec == EASY_SDK_AUDIO_CODEC_AAC && false) {
                                 pumpAACSample(frameInfo);
                             }
@@ -622,18 +968,20 @@ public class EasyPlayerClient implements Client.SourceCallBack {
 //                                    save2path(mBufferReuse, 0, outLen[0],"/sdcard/111.pcm", true);
                                     pumpPCMSample(mBufferReuse, outLen[0], frameInfo.stamp);
                                 }
-                                if (mAudioEnable) if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                                    mAudioTrack.write(mBufferReuse, 0, outLen[0], AudioTrack.WRITE_NON_BLOCKING);
-                                } else {
-                                    mAudioTrack.write(mBufferReuse, 0, outLen[0]);
+                                if (mAudioEnable) {
+                                    int frames = writeAudio(mAudioTrack, mBufferReuse, outLen[0], bytesPerFrame) / bytesPerFrame;
+                                    long endStampUs = frameInfo.stamp + frames * 1000000L / sampleRate;
+                                    mMediaClock.onAudioWritten(mAudioTrack, endStampUs, sampleRate, mAudioSpeed * clockScale, nowUs());
                                 }
 
                             }
+                            releaseFrame(frameInfo);
                             frameInfo = null;
                         }
                     } catch (Exception ex) {
                         ex.printStackTrace();
                     } finally {
+                        releaseFrame(frameInfo);
                         am.abandonAudioFocus(l);
                         if (handle != 0) {
                             AudioCodec.close(handle);
@@ -658,202 +1006,23 @@ public class EasyPlayerClient implements Client.SourceCallBack {
         try {
             fos = new FileOutputStream(path, append);
             fos.write(buffer, offset, length);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            if (fos != null) {
-                try {
-                    fos.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-    }
-
-    private static int getXPS(byte[] data, int offset, int length, byte[] dataOut, int[] outLen, int type) {
-        int i;
-        int pos0;
-        int pos1;
-        pos0 = -1;
-        length = Math.min(length, data.length);
-        for (i = offset; i < length - 4; i++) {
-            if ((0 == data[i]) && (0 == data[i + 1]) && (1 == data[i + 2]) && (type == (0x0F & data[i + 3]))) {
-                pos0 = i;
-                break;
-            }
-        }
-        if (-1 == pos0) {
-            return -1;
-        }
-        if (pos0 > 0 && data[pos0 - 1] == 0) { // 0 0 0 1
-            pos0 = pos0 - 1;
-        }
-        pos1 = -1;
-        for (i = pos0 + 4; i < length - 4; i++) {
-            if ((0 == data[i]) && (0 == data[i + 1]) && (1 == data[i + 2])) {
-                pos1 = i;
-                break;
-            }
-        }
-        if (-1 == pos1 || pos1 == 0) {
-            return -2;
-        }
-        if (data[pos1 - 1] == 0) {
-            pos1 -= 1;
-        }
-        if (pos1 - pos0 > outLen[0]) {
-            return -3; // 输入缓冲区太小
-        }
-        dataOut[0] = 0;
-        System.arraycopy(data, pos0, dataOut, 0, pos1 - pos0);
-        // memcpy(pXPS+1, pES+pos0, pos1-pos0);
-        // *pMaxXPSLen = pos1-pos0+1;
-        outLen[0] = pos1 - pos0;
-        return pos1;
-    }
-
-    private static byte[] getvps_sps_pps(byte[] data, int offset, int length) {
-        int i = 0;
-        int vps = -1, sps = -1, pps = -1;
-        length = Math.min(length, data.length);
-        do {
-            if (vps == -1) {
-                for (i = offset; i < length - 4; i++) {
-                    if ((0x00 == data[i]) && (0x00 == data[i + 1]) && (0x01 == data[i + 2])) {
-                        byte nal_spec = data[i + 3];
-                        int nal_type = (nal_spec >> 1) & 0x03f;
-                        if (nal_type == NAL_VPS) {
-                            // vps found.
-                            if (data[i - 1] == 0x00) {  // start with 00 00 00 01
-                                vps = i - 1;
-                            } else {                      // start with 00 00 01
-                                vps = i;
-                            }
-                            break;
-                        }
-                    }
-                }
-            }
-            if (sps == -1) {
-                for (i = vps; i < length - 4; i++) {
-                    if ((0x00 == data[i]) && (0x00 == data[i + 1]) && (0x01 == data[i + 2])) {
-                        byte nal_spec = data[i + 3];
-                        int nal_type = (nal_spec >> 1) & 0x03f;
-                        if (nal_type == NAL_SPS) {
-                            // vps found.
-                            if (data[i - 1] == 0x00) {  // start with 00 00 00 01
-                                sps = i - 1;
-                            } else {                      // start with 00 00 01
-                                sps = i;
-                            }
-                            break;
-                        }
-                    }
-                }
-            }
-            if (pps == -1) {
-                for (i = sps; i < length - 4; i++) {
-                    if ((0x00 == data[i]) && (0x00 == data[i + 1]) && (0x01 == data[i + 2])) {
-                        byte nal_spec = data[i + 3];
-                        int nal_type = (nal_spec >> 1) & 0x03f;
-                        if (nal_type == NAL_PPS) {
-                            // vps found.
-                            if (data[i - 1] == 0x00) {  // start with 00 00 00 01
-                                pps = i - 1;
-                            } else {                    // start with 00 00 01
-                                pps = i;
-                            }
-                            break;
-                        }
-                    }
-                }
-            }
-        } while (vps == -1 || sps == -1 || pps == -1);
-        if (vps == -1 || sps == -1 || pps == -1) {// 没有获取成功。
-            return null;
-        }
-        // 计算csd buffer的长度。即从vps的开始到pps的结束的一段数据
-        int begin = vps;
-        int end = -1;
-        for (i = pps + 4; i < length - 4; i++) {
-            if ((0x00 == data[i]) && (0x00 == data[i + 1]) && (0x01 == data[i + 2])) {
-                if (data[i - 1] == 0x00) {  // start with 00 00 00 01
-                    end = i - 1;
-                } else {                    // start with 00 00 01
-                    end = i;
-                }
-                break;
-            }
-        }
-        if (end == -1 || end < begin) {
-            return null;
-        }
-        // 拷贝并返回
-        byte[] buf = new byte[end - begin];
-        System.arraycopy(data, begin, buf, 0, buf.length);
-        return buf;
-    }
-
-    private static boolean codecMatch(String mimeType, MediaCodecInfo codecInfo) {
-        String[] types = codecInfo.getSupportedTypes();
-        for (String type : types) {
-            if (type.equalsIgnoreCase(mimeType)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    private static String codecName() {
-        ArrayList<String> array = new ArrayList<>();
-        int numCodecs = MediaCodecList.getCodecCount();
-        for (int i1 = 0; i1 < numCodecs; i1++) {
-            MediaCodecInfo codecInfo = MediaCodecList.getCodecInfoAt(i1);
-            if (codecInfo.isEncoder()) {
-                continue;
-            }
-
-            if (codecMatch("video/avc", codecInfo)) {
-                String name = codecInfo.getName();
-                Log.d("DECODER", String.format("decoder:%s", name));
-                array.add(name);
-            }
-        }
-//        if (array.remove("OMX.qcom.video.decoder.avc")) {
-//            array.add("OMX.qcom.video.decoder.avc");
-//        }
-//        if (array.remove("OMX.amlogic.avc.decoder.awesome")) {
-//            array.add("OMX.amlogic.avc.decoder.awesome");
-//        }
-        if (array.isEmpty()) {
-            return "";
-        }
-        return array.get(0);
-    }
-
-    private static MediaCodecInfo selectCodec(String mimeType) {
-        int numCodecs = MediaCodecList.getCodecCount();
-        for (int i = 0; i < numCodecs; i++) {
-            MediaCodecInfo codecInfo = MediaCodecList.getCodecInfoAt(i);
-
-            if (codecInfo.isEncoder()) {
-                continue;
-            }
-
-            String[] types = codecInfo.getSupportedTypes();
-            for (int j = 0; j < types.length; j++) {
-                if (types[j].equalsIgnoreCase(mimeType)) {
-                    return codecInfo;
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (fos != null) {
+                try {
+                    fos.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
             }
         }
-        return null;
     }
 
     private void startCodec() {
+        mRenderScheduler = new RenderScheduler(mContext);
         mThread = new Thread("VIDEO_CONSUMER") {
 
             @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
@@ -861,9 +1030,13 @@ public class EasyPlayerClient implements Client.SourceCallBack {
             public void run() {
                 Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
                 MediaCodec mCodec = null;
+                // 当前硬解码器的组件名，停止后按它放回复用池
+                String codecName = null;
                 int mColorFormat = 0;
                 VideoCodec.VideoDecoderLite mDecoder = null, displayer = null;
+                Client.FrameInfo frameInfo = null;
 
+                mRenderScheduler.enable();
                 try {
                     boolean pushBlankBuffersOnStop = true;
 
@@ -871,6 +1044,7 @@ public class EasyPlayerClient implements Client.SourceCallBack {
                     // previous
                     long previousStampUs = 0l;
                     long lastFrameStampUs = 0l;
+                    long decodeSpendUs = 0;
                     long differ = 0;
                     int realWidth = mWidth;
                     int realHeight = mHeight;
@@ -884,25 +1058,104 @@ public class EasyPlayerClient implements Client.SourceCallBack {
 
                     MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
 
-                    Client.FrameInfo initFrameInfo = null;
-                    Client.FrameInfo frameInfo = null;
+                    int initCodec = 0;
+                    mLastRenderWallUs = 0;
+                    AsyncDecodeEngine engine = null;
+                    boolean asyncFailed = false;
+                    // 0表示由codec决定
+                    int maxInputSize = 0;
+                    // 自适应播放允许的最大宽高，0表示codec不支持，分辨率变化时需要重建
+                    int adaptiveWidth = 0, adaptiveHeight = 0;
+                    ByteBuffer[] inputBuffers = null;
+                    // 重建codec时已经写过录像的帧，避免重复写入
+                    Client.FrameInfo recordedFrame = null;
+                    // 已送入codec、还没输出的预播帧个数，它们先于直播帧输出
+                    int prerollOutputs = 0;
+                    // 预播的最后一帧已经送入codec，预播帧全部输出时显示最后那一帧
+                    boolean prerollLastQueued = false;
+                    // 解码器重建了又没有GOP可以重放，需要从关键帧开始
+                    boolean needKeyFrame = false;
 
                     while (mThread != null) {
+                        if (mSurfaceChanged && (mCodec != null || mDecoder != null)) {
+                            mSurfaceChanged = false;
+                            Surface surface = mSurface;
+                            if (displayer != null) {
+                                // YUV回调模式下codec不输出到surface，只需要换显示器
+                                displayer.close();
+                                final VideoCodec.VideoDecoderLite decoder = new VideoCodec.VideoDecoderLite();
+                                decoder.create(surface, initCodec == EASY_SDK_VIDEO_CODEC_H264);
+                                displayer = decoder;
+                            } else if (mCodec != null && setOutputSurface(mCodec, surface)) {
+                                Log.i(TAG, "output surface changed");
+                            } else {
+                                Log.i(TAG, "surface changed, recreate decoder");
+                                if (mCodec != null) {
+                                    DecoderPool.getDefault().recycle(codecName, mCodec);
+                                    mCodec = null;
+                                }
+                                if (mDecoder != null) {
+                                    mDecoder.close();
+                                    mDecoder = null;
+                                }
+                                // 重放当前GOP接着播，没有缓存时才从关键帧开始
+                                if (replayGop(frameInfo)) {
+                                    frameInfo = null;
+                                } else {
+                                    needKeyFrame = true;
+                                    frameInfo = skipToKeyFrame(frameInfo, frameInfo == recordedFrame);
+                                    if (frameInfo == null) {
+                                        recordedFrame = null;
+                                    }
+                                }
+                            }
+                        }
+
                         if (mCodec == null && mDecoder == null) {
                             if (frameInfo == null) {
-                                frameInfo = mQueue.takeVideoFrame();
+                                frameInfo = takeFirstVideoFrame();
+                            }
+                            if (needKeyFrame && frameInfo != null) {
+                                if (frameInfo.type != 1) {
+                                    // 新解码器没有参考帧，丢掉直到下一个关键帧(录像照常写入)
+                                    if (!frameInfo.preroll) {
+                                        pumpVideoSample(frameInfo);
+                                    }
+                                    releaseFrame(frameInfo);
+                                    frameInfo = null;
+                                    continue;
+                                }
+                                needKeyFrame = false;
                             }
+                            mSurfaceChanged = false;
 
-                            initFrameInfo = frameInfo;
+                            // 没有帧说明是按媒体信息提前创建，媒体信息只带H.264的参数集
+                            boolean warmStart = frameInfo == null;
+                            initCodec = warmStart ? EASY_SDK_VIDEO_CODEC_H264 : frameInfo.codec;
+                            prerollOutputs = 0;
+                            prerollLastQueued = false;
+                            // 已经开始尝试硬解码，出错要报告给 mSupervisor
+                            boolean tryHardware = false;
 
                             try {
                                 if (PreferenceManager.getDefaultSharedPreferences(mContext).getBoolean("use-sw-codec", false)) {
                                     throw new IllegalStateException("user set sw codec");
                                 }
 
-                                final String mime = frameInfo.codec == EASY_SDK_VIDEO_CODEC_H264 ? "video/avc" : "video/hevc";
-                                MediaFormat format = MediaFormat.createVideoFormat(mime, mWidth, mHeight);
-                                format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, 0);
+                                final String mime = initCodec == EASY_SDK_VIDEO_CODEC_H264 ? "video/avc" : "video/hevc";
+                                NalUnitUtil.SpsData sps = mSps;
+                                int width = mWidth;
+                                int height = mHeight;
+                                if (sps != null && sps.width > 0 && sps.height > 0) {
+                                    // 以SPS里裁剪后的尺寸为准
+                                    width = sps.width;
+                                    height = sps.height;
+                                }
+                                if (!mSupervisor.allowHardware(mime, width, height)) {
+                                    throw new IllegalStateException(String.format("hardware decoder disabled for %s %d*%d", mime, width, height));
+                                }
+                                tryHardware = true;
+                                MediaFormat format = MediaFormat.createVideoFormat(mime, width, height);
                                 format.setInteger(MediaFormat.KEY_PUSH_BLANK_BUFFERS_ON_STOP, pushBlankBuffersOnStop ? 1 : 0);
                                 // 指定解码后的帧格式
                                 format.setInteger(MediaFormat.KEY_COLOR_FORMAT, COLOR_FormatYUV420Flexible);
@@ -916,42 +1169,92 @@ public class EasyPlayerClient implements Client.SourceCallBack {
                                 if (mCSD1 != null) {
                                     format.setByteBuffer("csd-1", mCSD1);
                                 } else {
-                                    if (frameInfo.codec == EASY_SDK_VIDEO_CODEC_H264) throw new InvalidParameterException("csd-1 is invalid.");
+                                    if (initCodec == EASY_SDK_VIDEO_CODEC_H264) throw new InvalidParameterException("csd-1 is invalid.");
                                 }
 
-                                MediaCodecInfo ci = selectCodec(mime);
-                                mColorFormat = CodecSpecificDataUtil.selectColorFormat(ci, mime);
-
-                                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                                    MediaCodecInfo.CodecCapabilities capabilities = ci.getCapabilitiesForType(mime);
-                                    MediaCodecInfo.VideoCapabilities videoCapabilities = capabilities.getVideoCapabilities();
-                                    boolean supported = videoCapabilities.isSizeSupported(mWidth, mHeight);
-                                    Log.i(TAG, "media codec " + ci.getName() + (supported ? "support" : "not support") + mWidth + "*" + mHeight);
-                                    if (!supported) {
-                                        boolean b1 = videoCapabilities.getSupportedWidths().contains(mWidth + 0);
-                                        boolean b2 = videoCapabilities.getSupportedHeights().contains(mHeight + 0);
-                                        supported |= b1 && b2;
-                                        if (supported) {
-                                            Log.w(TAG, ".......................................................................");
-                                        } else {
-                                            throw new IllegalStateException("media codec " + ci.getName() + (supported ? "support" : "not support") + mWidth + "*" + mHeight);
-                                        }
+                                CodecCapabilityCache.Decoder ci = mCodecCaps.select(mime);
+                                if (ci == null) {
+                                    throw new UnsupportedOperationException("no decoder for " + mime);
+                                }
+                                mColorFormat = ci.colorFormat;
+
+                                boolean supported = ci.isSizeSupported(width, height);
+                                Log.i(TAG, "media codec " + ci.name + (supported ? "support" : "not support") + width + "*" + height);
+                                if (!supported) {
+                                    supported = ci.isSizeInRange(width, height);
+                                    if (supported) {
+                                        Log.w(TAG, ".......................................................................");
+                                    } else {
+                                        throw new UnsupportedOperationException("media codec " + ci.name + (supported ? "support" : "not support") + width + "*" + height);
                                     }
                                 }
+
+                                adaptiveWidth = adaptiveHeight = 0;
+                                if (sps != null && i420callback == null && ci.adaptivePlayback) {
+                                    // 预留到当前尺寸的两倍以内(不超过level允许的)，码流切换分辨率时不必重建codec
+                                    int[] max = adaptiveMaxSize(ci, sps);
+                                    adaptiveWidth = max[0];
+                                    adaptiveHeight = max[1];
+                                    format.setInteger(MediaFormat.KEY_MAX_WIDTH, adaptiveWidth);
+                                    format.setInteger(MediaFormat.KEY_MAX_HEIGHT, adaptiveHeight);
+                                }
+
+                                int inputSize = maxInputSize;
+                                if (sps != null) {
+                                    // 按实际编码尺寸估算，超大的帧走下面重建更大输入缓冲的流程
+                                    inputSize = Math.max(inputSize, sps.maxAccessUnitSize());
+                                }
+                                format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, inputSize);
+
+                                if (sps != null && sps.isReorderFree() && Build.VERSION.SDK_INT >= 30 && ci.lowLatency) {
+                                    // 没有B帧，解码完立即输出
+                                    format.setInteger(KEY_LOW_LATENCY, 1);
+                                }
+                                if (mLowLatency && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                                    // 0为实时优先级
+                                    format.setInteger(MediaFormat.KEY_PRIORITY, 0);
+                                }
                                 Log.i(TAG, String.format("config codec:%s", format));
 
-                                MediaCodec codec = MediaCodec.createByCodecName(ci.getName());
-                                codec.configure(format, i420callback != null ? null : mSurface, null, 0);
-                                codec.setVideoScalingMode(MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT);
-                                codec.start();
+                                codecName = ci.name;
+                                boolean async = mAsyncDecode && !asyncFailed && i420callback == null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+                                // 回调模式要在configure之前设置，用不了预热时配置好的codec
+                                MediaCodec codec = async || i420callback != null ? null : DecoderWarmup.takeConfigured(codecName, mime, width, height, mSurface);
+                                if (codec != null) {
+                                    mCodec = codec;
+                                    // 按默认格式配置的，没有预留自适应尺寸，参数集另外送入
+                                    adaptiveWidth = adaptiveHeight = 0;
+                                    codec.setVideoScalingMode(MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT);
+                                    queueCodecConfig(codec);
+                                } else {
+                                    codec = DecoderPool.getDefault().obtain(codecName);
+                                    // 先记下，配置失败时由下面统一释放
+                                    mCodec = codec;
+                                    if (async) {
+                                        // 首帧交给异步引擎
+                                        engine = new AsyncDecodeEngine(codec, frameInfo, adaptiveWidth, adaptiveHeight);
+                                        frameInfo = null;
+                                    }
+                                    codec.configure(format, i420callback != null ? null : mSurface, null, 0);
+                                    codec.setVideoScalingMode(MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT);
+                                    codec.start();
+                                }
+                                mTimeline.onCodecReady(warmStart);
+                                mSupervisor.onHardwareStarted();
+                                DecoderWarmup.remember(mContext, mime, width, height);
+                                mWatchdog.onCodecStarted(SystemClock.elapsedRealtime(), StallWatchdog.reorderDepth(sps));
 
-                                mCodec = codec;
+                                inputBuffers = null;
                                 if (i420callback != null) {
                                     final VideoCodec.VideoDecoderLite decoder = new VideoCodec.VideoDecoderLite();
-                                    decoder.create(mSurface, frameInfo.codec == EASY_SDK_VIDEO_CODEC_H264);
+                                    decoder.create(mSurface, initCodec == EASY_SDK_VIDEO_CODEC_H264);
                                     displayer = decoder;
                                 }
                             } catch (Throwable e) {
+                                if (engine != null) {
+                                    frameInfo = engine.shutdown();
+                                    engine = null;
+                                }
                                 if (mCodec != null) {
                                     mCodec.release();
                                 }
@@ -967,9 +1270,65 @@ public class EasyPlayerClient implements Client.SourceCallBack {
                                 Log.e(TAG, String.format("init codec error due to %s", e.getMessage()));
                                 e.printStackTrace();
 
+                                if (warmStart) {
+                                    // 媒体信息里的参数集可能和码流不一致，等第一个关键帧再按正常流程创建
+                                    continue;
+                                }
+                                if (tryHardware) {
+                                    mSupervisor.onHardwareFailure(e);
+                                }
+
+                                // 软解码先顶上，到了重试时间再换回硬解码
                                 final VideoCodec.VideoDecoderLite decoder = new VideoCodec.VideoDecoderLite();
-                                decoder.create(mSurface, frameInfo.codec == EASY_SDK_VIDEO_CODEC_H264);
+                                decoder.create(mSurface, initCodec == EASY_SDK_VIDEO_CODEC_H264);
                                 mDecoder = decoder;
+                                mSupervisor.onSoftwareStarted();
+                                mTimeline.onCodecReady(false);
+                            }
+
+                            if (engine != null) {
+                                // 异步解码期间本线程一直挂起，直到停止、出错或分辨率变化
+                                int result = engine.run();
+                                frameInfo = engine.takePendingFrame();
+                                engine = null;
+                                if (result == AsyncDecodeEngine.RESULT_ERROR || result == AsyncDecodeEngine.RESULT_STALLED) {
+                                    mCodec.release();
+                                } else {
+                                    DecoderPool.getDefault().recycle(codecName, mCodec);
+                                }
+                                mCodec = null;
+                                if (result == AsyncDecodeEngine.RESULT_ERROR) {
+                                    Log.w(TAG, "async decode failed, fall back to sync mode");
+                                    asyncFailed = true;
+                                    // 新的codec没有参考帧，跳过的帧照常写进录像
+                                    needKeyFrame = true;
+                                    frameInfo = skipToKeyFrame(frameInfo, false);
+                                } else if (result == AsyncDecodeEngine.RESULT_RESIZE) {
+                                    stopRecord();
+                                    frameWidth = frameInfo.width;
+                                    frameHeight = frameInfo.height;
+                                } else if (result == AsyncDecodeEngine.RESULT_INPUT_TOO_LARGE) {
+                                    maxInputSize = inputSizeFor(frameInfo.length);
+                                    Log.w(TAG, String.format("frame of %d bytes exceeds input buffer, reconfigure codec with %d", frameInfo.length, maxInputSize));
+                                    if (frameInfo.type != 1) {
+                                        // 新codec没有参考帧，这一帧和跳过的帧照常写进录像
+                                        needKeyFrame = true;
+                                        frameInfo = skipToKeyFrame(frameInfo, false);
+                                    }
+                                } else if (result == AsyncDecodeEngine.RESULT_SURFACE) {
+                                    Log.i(TAG, "surface changed, recreate decoder");
+                                    if (replayGop(frameInfo)) {
+                                        frameInfo = null;
+                                    } else {
+                                        needKeyFrame = true;
+                                        frameInfo = skipToKeyFrame(frameInfo, false);
+                                    }
+                                } else if (result == AsyncDecodeEngine.RESULT_STALLED) {
+                                    // 卡死的codec已经释放，从关键帧开始重建
+                                    needKeyFrame = true;
+                                    frameInfo = skipToKeyFrame(frameInfo, false);
+                                }
+                                continue;
                             }
 
 //                            previewTickUs = mTexture.getTimestamp();
@@ -985,10 +1344,51 @@ public class EasyPlayerClient implements Client.SourceCallBack {
 //                                mCodec.queueInputBuffer(index, 0, buffer.position(), 0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG);
 //                            }
                         } else {
-                            frameInfo = mQueue.takeVideoFrame(5);
+                            frameInfo = mReplay.poll();
+                            if (frameInfo == null) {
+                                frameInfo = mQueue.takeVideoFrame(5);
+                            }
+                            if (frameInfo != null && needKeyFrame) {
+                                if (frameInfo.type != 1) {
+                                    // 解码器刚flush过，没有参考帧
+                                    if (!frameInfo.preroll) {
+                                        pumpVideoSample(frameInfo);
+                                    }
+                                    releaseFrame(frameInfo);
+                                    frameInfo = null;
+                                    continue;
+                                }
+                                needKeyFrame = false;
+                            }
+                            if (frameInfo != null && mDecoder != null && frameInfo.type == 1 && mSupervisor.shouldRetryHardware()) {
+                                // 软解码是出错后临时顶上的，在关键帧上重新创建硬解码器
+                                Log.i(TAG, "retry hardware decoder");
+                                mDecoder.close();
+                                mDecoder = null;
+                                continue;
+                            }
                         }
 
                         if (frameInfo != null) {
+                            if (!frameInfo.preroll && shouldSkipToKeyFrame(frameInfo.stamp) && mQueue.hasQueuedKeyFrame()) {
+                                Log.i(TAG, String.format("latency %d us, skip to latest key frame", videoLatencyUs(frameInfo.stamp)));
+                                mSkippedToKeyFrame++;
+                                // 这一帧比跳过的帧早，先写进录像
+                                if (frameInfo != recordedFrame) {
+                                    mRecordDropped.onDropped(frameInfo);
+                                }
+                                recordedFrame = null;
+                                mQueue.skipToLatestKeyFrame(mRecordDropped);
+                                releaseFrame(frameInfo);
+                                frameInfo = null;
+                                continue;
+                            }
+                            if (shedFrame(frameInfo)) {
+                                releaseFrame(frameInfo);
+                                frameInfo = null;
+                                continue;
+                            }
+                            mSupervisor.onFrame(mCodec != null);
                             Log.d(TAG, "video " + frameInfo.stamp + " take[" + (frameInfo.stamp - lastFrameStampUs) + "]");
                             if (frameHeight != 0 && frameWidth != 0) {
                                 if (frameInfo.width != 0 && frameInfo.height != 0) {
@@ -996,8 +1396,9 @@ public class EasyPlayerClient implements Client.SourceCallBack {
                                         frameHeight = frameInfo.height;
                                         frameWidth = frameInfo.width;
                                         stopRecord();
-                                        if (mCodec != null) {
-                                            mCodec.release();
+                                        if (mCodec != null && (frameWidth > adaptiveWidth || frameHeight > adaptiveHeight)) {
+                                            // 超出自适应范围，停止后按新尺寸重新配置同一个codec
+                                            DecoderPool.getDefault().recycle(codecName, mCodec);
                                             mCodec = null;
                                             continue;
                                         }
@@ -1006,17 +1407,26 @@ public class EasyPlayerClient implements Client.SourceCallBack {
                             }
                             frameHeight = frameInfo.height;
                             frameWidth = frameInfo.width;
-                            pumpVideoSample(frameInfo);
+                            if (frameInfo != recordedFrame && !frameInfo.preroll) {
+                                pumpVideoSample(frameInfo);
+                            }
+                            recordedFrame = null;
                             lastFrameStampUs = frameInfo.stamp;
                         }
 
                         do {
                             if (mDecoder != null) {
                                 if (frameInfo != null) {
+                                    // 软解码完就直接显示，所以提前一个解码耗时开始解码
+                                    if (!frameInfo.preroll) {
+                                        waitForRender(frameInfo.stamp, decodeSpendUs);
+                                    }
+
                                     long decodeBegin = SystemClock.elapsedRealtime();
                                     int[] size = new int[2];
 
 //                                    mDecoder.decodeFrame(frameInfo, size);
+                                    mTimeline.onFirstInput();
                                     ByteBuffer buf = mDecoder.decodeFrameYUV(frameInfo, size);
 
                                     if (i420callback != null && buf != null) {
@@ -1028,55 +1438,62 @@ public class EasyPlayerClient implements Client.SourceCallBack {
                                         Log.i(TAG, "AAAA 1022 releaseBuffer ");
                                     }
 
-                                    long decodeSpend = SystemClock.elapsedRealtime() - decodeBegin;
+                                    decodeSpendUs = (SystemClock.elapsedRealtime() - decodeBegin) * 1000;
 
                                     boolean firstFrame = previousStampUs == 0l;
                                     if (firstFrame) {
-                                        Log.i(TAG, String.format("POST VIDEO_DISPLAYED!!!"));
-                                        ResultReceiver rr = mRR;
-                                        if (rr != null) {
-                                            Bundle data = new Bundle();
-                                            data.putInt(KEY_VIDEO_DECODE_TYPE, 0);
-                                            rr.send(RESULT_VIDEO_DISPLAYED, data);
-                                        }
+                                        postVideoDisplayed(0);
                                     }
 
-                                    //Log.d(TAG, String.format("timestamp=%d diff=%d",current, current - previousStampUs ));
-
-                                    if (previousStampUs != 0l) {
-                                        long sleepTime = frameInfo.stamp - previousStampUs - decodeSpend * 1000;
-                                        if (sleepTime > 100000) {
-                                            Log.w(TAG, "sleep time.too long:" + sleepTime);
-                                            sleepTime = 100000;
-                                        }
-                                        if (sleepTime > 0) {
-                                            sleepTime %= 100000;
-                                            long cache = mNewestStample - frameInfo.stamp;
-                                            sleepTime = fixSleepTime(sleepTime, cache, 50000);
-                                            if (sleepTime > 0) {
-                                                Thread.sleep(sleepTime / 1000);
-                                            }
-                                            Log.d(TAG, "cache:" + cache);
-                                        }
-                                    }
                                     previousStampUs = frameInfo.stamp;
+                                    releaseFrame(frameInfo);
+                                    frameInfo = null;
                                 }
                             } else {
                                 try {
+                                    int stall = StallWatchdog.ACTION_NONE;
                                     do {
                                         if (frameInfo != null) {
-                                            byte[] pBuf = frameInfo.buffer;
                                             index = mCodec.dequeueInputBuffer(10);
                                             if (false) throw new IllegalStateException("fake state");
                                             if (index >= 0) {
-                                                ByteBuffer buffer = mCodec.getInputBuffers()[index];
-                                                buffer.clear();
-                                                if (pBuf.length > buffer.remaining()) {
-                                                    mCodec.queueInputBuffer(index, 0, 0, frameInfo.stamp, 0);
+                                                ByteBuffer buffer;
+                                                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                                                    buffer = getInputBuffer(mCodec, index);
                                                 } else {
-                                                    buffer.put(pBuf, frameInfo.offset, frameInfo.length);
-                                                    mCodec.queueInputBuffer(index, 0, buffer.position(), frameInfo.stamp + differ, 0);
+                                                    // 老版本每次调用都会重新生成数组，每个codec只取一次
+                                                    if (inputBuffers == null) {
+                                                        inputBuffers = mCodec.getInputBuffers();
+                                                    }
+                                                    buffer = inputBuffers[index];
+                                                }
+                                                if (!copyFrame(buffer, frameInfo)) {
+                                                    // 输入缓冲放不下这一帧(高码率的I帧)，用更大的缓冲重建codec
+                                                    maxInputSize = inputSizeFor(frameInfo.length);
+                                                    Log.w(TAG, String.format("frame of %d bytes exceeds input buffer %d, reconfigure codec with %d", frameInfo.length, buffer.capacity(), maxInputSize));
+                                                    if (frameInfo.type != 1) {
+                                                        // 新codec没有参考帧，非关键帧解出来是花屏，丢掉等下一个关键帧(这一帧录像已经写过)
+                                                        frameInfo = skipToKeyFrame(frameInfo, true);
+                                                        needKeyFrame = true;
+                                                    }
+                                                    // 关键帧作为新codec的第一帧，录像已经写过
+                                                    recordedFrame = frameInfo;
+                                                    DecoderPool.getDefault().recycle(codecName, mCodec);
+                                                    mCodec = null;
+                                                    if (displayer != null) {
+                                                        displayer.close();
+                                                        displayer = null;
+                                                    }
+                                                    break;
+                                                }
+                                                mCodec.queueInputBuffer(index, 0, buffer.position(), frameInfo.stamp + differ, 0);
+                                                mTimeline.onFirstInput();
+                                                mWatchdog.onInput(SystemClock.elapsedRealtime());
+                                                if (frameInfo.preroll) {
+                                                    prerollOutputs++;
+                                                    prerollLastQueued |= frameInfo.prerollLast;
                                                 }
+                                                releaseFrame(frameInfo);
                                                 frameInfo = null;
                                             }
                                         }
@@ -1110,28 +1527,44 @@ public class EasyPlayerClient implements Client.SourceCallBack {
                                                 break;
                                             case MediaCodec.INFO_TRY_AGAIN_LATER:
                                                 // 输出为空
+                                                stall = mWatchdog.check(SystemClock.elapsedRealtime(), frameInfo != null || mQueue.videoSize() > 0);
+                                                if (stall == StallWatchdog.ACTION_FLUSH) {
+                                                    // 先flush，从最新的关键帧重新开始
+                                                    mCodec.flush();
+                                                    prerollOutputs = 0;
+                                                    prerollLastQueued = false;
+                                                    // 手上的帧已经写过录像
+                                                    frameInfo = skipToKeyFrame(frameInfo, true);
+                                                    needKeyFrame = frameInfo == null;
+                                                    stall = StallWatchdog.ACTION_NONE;
+                                                }
                                                 break;
                                             default:
                                                 // 输出队列不为空
-                                                // -1表示为第一帧数据
-                                                long newSleepUs = -1;
+                                                mWatchdog.onOutput(SystemClock.elapsedRealtime());
                                                 boolean firstTime = previousStampUs == 0l;
-                                                if (!firstTime) {
-                                                    long sleepUs = (info.presentationTimeUs - previousStampUs);
-                                                    if (sleepUs > 100000) {
-                                                        // 时间戳异常，可能服务器丢帧了。
-                                                        Log.w(TAG, "sleep time.too long:" + sleepUs);
-                                                        sleepUs = 100000;
-                                                    } else if (sleepUs < 0) {
-                                                        Log.w(TAG, "sleep time.too short:" + sleepUs);
-                                                        sleepUs = 0;
+                                                // 预播帧是缓存里的旧画面，不参与播放时钟
+                                                boolean preroll = prerollOutputs > 0;
+                                                if (preroll) {
+                                                    prerollOutputs--;
+                                                    if (prerollOutputs > 0 || !prerollLastQueued) {
+                                                        // 只显示最后一帧，前面的帧只是为它建立参考，不快进着播一遍
+                                                        mCodec.releaseOutputBuffer(index, false);
+                                                        break;
                                                     }
-
-                                                    {
-                                                        long cache = mNewestStample - lastFrameStampUs;
-                                                        newSleepUs = fixSleepTime(sleepUs, cache, 100000);
-                                                        // Log.d(TAG, String.format("sleepUs:%d,newSleepUs:%d,Cache:%d", sleepUs, newSleepUs, cache));
+                                                    prerollLastQueued = false;
+                                                }
+                                                // 按播放时钟决定显示时刻，已经落后的帧不再显示(第一帧总是显示)
+                                                boolean render;
+                                                long releaseTimeNs = -1;
+                                                if (i420callback == null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                                                    releaseTimeNs = preroll ? System.nanoTime() : scheduleRender(info.presentationTimeUs - differ);
+                                                    if (releaseTimeNs < 0 && firstTime) {
+                                                        releaseTimeNs = System.nanoTime();
                                                     }
+                                                    render = releaseTimeNs >= 0;
+                                                } else {
+                                                    render = preroll || waitForRender(info.presentationTimeUs - differ, 0) || firstTime;
                                                 }
 
                                                 //previousStampUs = info.presentationTimeUs;
@@ -1142,7 +1575,7 @@ public class EasyPlayerClient implements Client.SourceCallBack {
                                                     outputBuffer = mCodec.getOutputBuffers()[index];
                                                 }
 
-                                                if (i420callback != null && outputBuffer != null) {
+                                                if (render && i420callback != null && outputBuffer != null) {
                                                     if (sliceHeight != realHeight) {
                                                         ByteBuffer tmp = ByteBuffer.allocateDirect(realWidth * realHeight * 3 / 2);
                                                         outputBuffer.clear();
@@ -1165,18 +1598,20 @@ public class EasyPlayerClient implements Client.SourceCallBack {
 
                                                     if (mColorFormat == COLOR_FormatYUV420SemiPlanar || mColorFormat == COLOR_FormatYUV420PackedSemiPlanar || mColorFormat == COLOR_TI_FormatYUV420PackedSemiPlanar) {
 
-                                                        byte[] in = new byte[realWidth * realHeight * 3 / 2];
+                                                        final int yuvSize = realWidth * realHeight * 3 / 2;
+                                                        byte[] in = FramePool.getDefault().obtainBuffer(yuvSize);
                                                         outputBuffer.clear();
-                                                        outputBuffer.get(in);
+                                                        outputBuffer.get(in, 0, yuvSize);
 
                                                         // yuvuv_to_yuv
                                                         JNIUtil.yuvConvert(in, realWidth, realHeight, 4);
 //                                                        // 旋转90或180或270度
 //                                                        yuvRotate(in, 0, realWidth, realHeight, 90);
 
-                                                        ByteBuffer tmp = ByteBuffer.allocateDirect(realWidth * realHeight * 3 / 2);
+                                                        ByteBuffer tmp = ByteBuffer.allocateDirect(yuvSize);
                                                         tmp.clear();
-                                                        tmp.put(in);
+                                                        tmp.put(in, 0, yuvSize);
+                                                        FramePool.getDefault().releaseBuffer(in);
 
                                                         i420callback.onI420Data(tmp);
 
@@ -1186,92 +1621,763 @@ public class EasyPlayerClient implements Client.SourceCallBack {
                                                 }
 
                                                 //previewStampUs = info.presentationTimeUs;
-                                                if (false && Build.VERSION.SDK_INT >= 21) {
-                                                    Log.d(TAG, String.format("releaseoutputbuffer:%d,stampUs:%d", index, previousStampUs));
-                                                    mCodec.releaseOutputBuffer(index, previousStampUs);
+                                                if (releaseTimeNs >= 0) {
+                                                    releaseOutputBuffer(mCodec, index, releaseTimeNs);
                                                 } else {
-                                                    if (newSleepUs < 0) {
-                                                        newSleepUs = 0;
-                                                    }
-//                                            Log.d(TAG,String.format("sleep:%d", newSleepUs/1000));
-//                                                    Thread.sleep(newSleepUs / 1000);
-                                                    mCodec.releaseOutputBuffer(index, i420callback == null);
+                                                    mCodec.releaseOutputBuffer(index, render && i420callback == null);
                                                 }
 
                                                 if (firstTime) {
-                                                    Log.i(TAG, String.format("POST VIDEO_DISPLAYED!!!"));
-                                                    ResultReceiver rr = mRR;
-                                                    if (rr != null) {
-                                                        Bundle data = new Bundle();
-                                                        data.putInt(KEY_VIDEO_DECODE_TYPE, 1);
-                                                        rr.send(RESULT_VIDEO_DISPLAYED, data);
-                                                    }
+                                                    postVideoDisplayed(1);
                                                 }
                                                 previousStampUs = info.presentationTimeUs;
                                         }
 
-                                    } while (frameInfo != null || index < MediaCodec.INFO_TRY_AGAIN_LATER);
-                                } catch (IllegalStateException ex) {
-                                    // mediacodec error...
+                                    } while (stall == StallWatchdog.ACTION_NONE && (frameInfo != null || index < MediaCodec.INFO_TRY_AGAIN_LATER));
+
+                                    if (stall == StallWatchdog.ACTION_RECREATE) {
+                                        // flush也没救回来，codec可能已经坏了，不再放回复用池
+                                        mCodec.release();
+                                        mCodec = null;
+                                        if (displayer != null) {
+                                            displayer.close();
+                                            displayer = null;
+                                        }
+                                        // 等着的关键帧已经写过录像
+                                        frameInfo = skipToKeyFrame(frameInfo, true);
+                                        recordedFrame = frameInfo;
+                                        needKeyFrame = true;
+                                    }
+                                } catch (IllegalStateException ex) {
+                                    // mediacodec error...
+
+                                    ex.printStackTrace();
+
+                                    Log.e(TAG, String.format("init codec error due to %s", ex.getMessage()));
+                                    mSupervisor.onHardwareFailure(ex);
+
+                                    if (mCodec != null) mCodec.release();
+                                    mCodec = null;
+
+                                    if (displayer != null) {
+                                        displayer.close();
+                                        Log.i(TAG, "AAAA 1217 displayer.close()");
+                                    }
+                                    displayer = null;
+
+                                    final VideoCodec.VideoDecoderLite decoder = new VideoCodec.VideoDecoderLite();
+                                    decoder.create(mSurface, initCodec == EASY_SDK_VIDEO_CODEC_H264);
+                                    mDecoder = decoder;
+                                    mSupervisor.onSoftwareStarted();
+                                    continue;
+                                }
+
+                            }
+                            break;
+                        } while (true);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    releaseFrame(frameInfo);
+                    while ((frameInfo = mReplay.poll()) != null) {
+                        releaseFrame(frameInfo);
+                    }
+                    mRenderScheduler.disable();
+                    mSupervisor.onStopped();
+
+                    if (mCodec != null) {
+                        // 留给下次播放或其它播放器复用
+                        DecoderPool.getDefault().recycle(codecName, mCodec);
+                    }
+
+                    if (mDecoder != null) {
+                        mDecoder.close();
+                        Log.i(TAG, "AAAA 1238 mDecoder.close();");
+                    }
+
+                    if (displayer != null) {
+                        displayer.close();
+                        Log.i(TAG, "AAAA 1243 displayer.close();");
+                    }
+                }
+            }
+        };
+
+        mThread.start();
+    }
+
+    /**
+     * 该帧距离显示时刻还有多久。有音频在播放时以音频时钟为准，否则按抖动缓冲的定时；
+     * 低延时模式下落后超过目标延时时，帧间隔按 {@link #CATCH_UP_SPEED} 倍速缩短。
+     *
+     * @param aheadUs 需要提前多久(比如软解的解码耗时)
+     * @return 需要等待的微秒数，{@link Long#MIN_VALUE} 表示该帧已经落后于音频，不应再显示
+     */
+    private long renderDelayUs(long stampUs, long aheadUs, long now) {
+        long waitUs = mJitterBuffer.renderDelayUs(stampUs, now) - aheadUs;
+
+        long audioUs = mMediaClock.positionUs(now);
+        if (audioUs >= 0 && Math.abs(stampUs - audioUs) < MAX_AV_OFFSET_US) {
+            long driftUs = stampUs - audioUs;
+            boolean late = driftUs < -LATE_FRAME_US;
+            waitUs = driftUs - aheadUs;
+            mMediaClock.onVideoSync(driftUs, late, late || waitUs >= 1000);
+            if (late) {
+                return Long.MIN_VALUE;
+            }
+        }
+
+        if (mLowLatency && mLastRenderWallUs != 0 && videoLatencyUs(stampUs) > mTargetLatencyUs) {
+            long intervalUs = (long) ((stampUs - mLastRenderStampUs) / CATCH_UP_SPEED);
+            waitUs = Math.min(waitUs, mLastRenderWallUs + intervalUs - aheadUs - now);
+        }
+        return waitUs;
+    }
+
+    /**
+     * 等到该帧的显示时刻，用于解码后立即显示的场景(软解、YUV回调)
+     *
+     * @param aheadUs 需要提前多久返回(比如软解的解码耗时)
+     * @return false表示该帧已经落后于音频，不应再显示
+     */
+    private boolean waitForRender(long stampUs, long aheadUs) throws InterruptedException {
+        long waitUs = renderDelayUs(stampUs, aheadUs, nowUs());
+        mLastRenderStampUs = stampUs;
+        if (waitUs == Long.MIN_VALUE) {
+            return false;
+        }
+        sleepUs(waitUs);
+        mLastRenderWallUs = nowUs();
+        return true;
+    }
+
+    /**
+     * 为硬解输出到surface的帧安排显示时刻，只在提前太多时才粗略地等待
+     *
+     * @return 传给 releaseOutputBuffer 的显示时刻，-1表示该帧应丢掉
+     */
+    private long scheduleRender(long stampUs) throws InterruptedException {
+        long waitUs = renderDelayUs(stampUs, 0, nowUs());
+        mLastRenderStampUs = stampUs;
+        if (waitUs == Long.MIN_VALUE) {
+            return -1;
+        }
+        if (waitUs > RenderScheduler.MAX_EARLY_US) {
+            sleepUs(waitUs - RenderScheduler.MAX_EARLY_US);
+            waitUs = RenderScheduler.MAX_EARLY_US;
+        }
+        return vsyncReleaseTime(waitUs);
+    }
+
+    /**
+     * 把 waitUs 之后的显示时刻对齐到vsync
+     *
+     * @return 传给 releaseOutputBuffer 的显示时刻，-1表示该帧应丢掉
+     */
+    private long vsyncReleaseTime(long waitUs) {
+        long targetNs = System.nanoTime() + Math.max(0, waitUs) * 1000;
+        long releaseTimeNs = mRenderScheduler.schedule(targetNs, waitUs < 0);
+        if (releaseTimeNs >= 0) {
+            mLastRenderWallUs = releaseTimeNs / 1000;
+        }
+        return releaseTimeNs;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void releaseOutputBuffer(MediaCodec codec, int index, long renderTimestampNs) {
+        codec.releaseOutputBuffer(index, renderTimestampNs);
+    }
+
+    /**
+     * 基于 MediaCodec.setCallback 的异步硬解码。
+     * <p>
+     * 有空闲的输入缓冲并且队列里有帧时才送数据，队列空时由生产者在入队后唤醒；输出缓冲可用时按vsync安排显示。
+     * 运行期间解码线程一直挂起，codec的回调都在独立的线程上处理，没有任何轮询。
+     * 停止、出错或分辨率变化时结束，由解码线程释放codec，出错时退回同步轮询的方式。
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    private final class AsyncDecodeEngine extends MediaCodec.Callback implements Handler.Callback {
+        static final int RESULT_STOPPED = 0;
+        static final int RESULT_ERROR = 1;
+        static final int RESULT_RESIZE = 2;
+        static final int RESULT_INPUT_TOO_LARGE = 3;
+        static final int RESULT_SURFACE = 4;
+        static final int RESULT_STALLED = 5;
+
+        private static final int MSG_FEED = 1;
+        private static final int MSG_RENDER = 2;
+        private static final int MSG_STOP = 3;
+        private static final int MSG_SURFACE = 4;
+        private static final int MSG_WATCHDOG = 5;
+
+        private final MediaCodec mCodec;
+        private final HandlerThread mCallbackThread;
+        private final Handler mHandler;
+        private final Thread mOwner;
+
+        /**
+         * 以下只在回调线程访问
+         */
+        private final ArrayDeque<Integer> mFreeInputs = new ArrayDeque<>();
+        private long[] mOutputStamps = new long[16];
+        /**
+         * 提前太多而延后安排的输出缓冲的显示时刻，延时和音视频同步只在第一次安排时计算一次
+         */
+        private long[] mOutputDueUs = new long[16];
+        private Client.FrameInfo mPending;
+        private int mFrameWidth, mFrameHeight;
+        /**
+         * 已送入codec、还没输出的预播帧个数，只在回调线程访问
+         */
+        private int mPrerollOutputs;
+        private boolean mPrerollLastQueued;
+        private final int mMaxWidth, mMaxHeight;
+        private boolean mFirstFrame = true;
+        /**
+         * 卡死后flush过，丢掉非关键帧直到下一个关键帧
+         */
+        private boolean mNeedKeyFrame;
+
+        /**
+         * 有空闲的输入缓冲但队列为空，需要生产者唤醒
+         */
+        private volatile boolean mInputStarved;
+        private volatile int mResult = -1;
+
+        /**
+         * 需要在 configure 之前创建
+         *
+         * @param firstFrame 第一帧(关键帧)，先于队列里的帧送入codec；按媒体信息提前创建时为null
+         * @param maxWidth   自适应播放的最大宽度，分辨率变化在此范围内时不结束
+         * @param maxHeight  自适应播放的最大高度
+         */
+        AsyncDecodeEngine(MediaCodec codec, Client.FrameInfo firstFrame, int maxWidth, int maxHeight) {
+            mCodec = codec;
+            mPending = firstFrame;
+            if (firstFrame != null) {
+                mFrameWidth = firstFrame.width;
+                mFrameHeight = firstFrame.height;
+            }
+            mMaxWidth = maxWidth;
+            mMaxHeight = maxHeight;
+            mOwner = Thread.currentThread();
+            mCallbackThread = new HandlerThread("VIDEO_CODEC_CALLBACK", Process.THREAD_PRIORITY_AUDIO);
+            mCallbackThread.start();
+            mHandler = new Handler(mCallbackThread.getLooper(), this);
+            try {
+                codec.setCallback(this, mHandler);
+            } catch (RuntimeException e) {
+                mCallbackThread.quit();
+                throw e;
+            }
+        }
+
+        /**
+         * 挂起当前线程直到解码结束
+         *
+         * @return RESULT_STOPPED、RESULT_ERROR、RESULT_RESIZE、RESULT_INPUT_TOO_LARGE、RESULT_SURFACE 或 RESULT_STALLED
+         */
+        int run() {
+            boolean interrupted = false;
+            mAsyncEngine = this;
+            if (mSurfaceChanged) {
+                // configure之后、登记之前换了surface
+                onSurfaceChanged();
+            }
+            mHandler.sendEmptyMessageDelayed(MSG_WATCHDOG, mWatchdog.getTimeoutMs() / 2);
+            try {
+                while (mResult < 0) {
+                    LockSupport.park(this);
+                    if (Thread.interrupted()) {
+                        interrupted = true;
+                        mHandler.sendEmptyMessage(MSG_STOP);
+                        break;
+                    }
+                }
+                try {
+                    mCallbackThread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            } finally {
+                mAsyncEngine = null;
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return mResult < 0 ? RESULT_STOPPED : mResult;
+        }
+
+        /**
+         * codec启动之前出错时调用，收回首帧
+         */
+        Client.FrameInfo shutdown() {
+            mCallbackThread.quit();
+            return takePendingFrame();
+        }
+
+        /**
+         * 结束后还没送进codec的帧(分辨率变化或输入缓冲放不下时是导致结束的那一帧)
+         */
+        Client.FrameInfo takePendingFrame() {
+            Client.FrameInfo frame = mPending;
+            mPending = null;
+            return frame;
+        }
+
+        /**
+         * surface换了，在回调线程上切换codec的输出
+         */
+        void onSurfaceChanged() {
+            mHandler.sendEmptyMessage(MSG_SURFACE);
+        }
+
+        /**
+         * 生产者入队一帧视频之后调用
+         */
+        void onFrameQueued() {
+            if (mInputStarved) {
+                mInputStarved = false;
+                mHandler.sendEmptyMessage(MSG_FEED);
+            }
+        }
+
+        @Override
+        public void onInputBufferAvailable(MediaCodec codec, int index) {
+            mFreeInputs.add(index);
+            feedInput();
+        }
+
+        @Override
+        public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+            if (index >= mOutputStamps.length) {
+                long[] stamps = new long[index * 2];
+                System.arraycopy(mOutputStamps, 0, stamps, 0, mOutputStamps.length);
+                mOutputStamps = stamps;
+                long[] due = new long[index * 2];
+                System.arraycopy(mOutputDueUs, 0, due, 0, mOutputDueUs.length);
+                mOutputDueUs = due;
+            }
+            mOutputStamps[index] = info.presentationTimeUs;
+            mWatchdog.onOutput(SystemClock.elapsedRealtime());
+            renderOutput(index, false);
+        }
+
+        @Override
+        public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+            Log.e(TAG, String.format("async codec error:%s", e.getDiagnosticInfo()));
+            e.printStackTrace();
+            finish(RESULT_ERROR);
+        }
+
+        @Override
+        public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+            Log.i(TAG, "INFO_OUTPUT_FORMAT_CHANGED ：" + format);
+        }
+
+        @Override
+        public boolean handleMessage(Message msg) {
+            switch (msg.what) {
+                case MSG_FEED:
+                    feedInput();
+                    return true;
+                case MSG_RENDER:
+                    renderOutput(msg.arg1, true);
+                    return true;
+                case MSG_STOP:
+                    finish(RESULT_STOPPED);
+                    return true;
+                case MSG_SURFACE:
+                    if (mResult < 0) {
+                        mSurfaceChanged = false;
+                        if (!setOutputSurface(mCodec, mSurface)) {
+                            finish(RESULT_SURFACE);
+                        }
+                    }
+                    return true;
+                case MSG_WATCHDOG:
+                    if (mResult < 0) {
+                        checkStall();
+                        mHandler.sendEmptyMessageDelayed(MSG_WATCHDOG, Math.max(10, mWatchdog.getTimeoutMs() / 2));
+                    }
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        /**
+         * 输入在送却一直没有输出时，先flush从最新的关键帧重新开始，还不行就让解码线程重建codec
+         */
+        private void checkStall() {
+            int action = mWatchdog.check(SystemClock.elapsedRealtime(), mPending != null || mQueue.videoSize() > 0);
+            if (action == StallWatchdog.ACTION_RECREATE) {
+                finish(RESULT_STALLED);
+            } else if (action == StallWatchdog.ACTION_FLUSH) {
+                try {
+                    mCodec.flush();
+                    // flush之前的输入、输出缓冲都作废了
+                    mFreeInputs.clear();
+                    mHandler.removeMessages(MSG_RENDER);
+                    mPrerollOutputs = 0;
+                    mPrerollLastQueued = false;
+                    // 等着的帧还没写录像
+                    mPending = skipToKeyFrame(mPending, false);
+                    mNeedKeyFrame = mPending == null;
+                    // 回调模式flush之后要重新start才会再回调输入缓冲
+                    mCodec.start();
+                } catch (IllegalStateException e) {
+                    e.printStackTrace();
+                    finish(RESULT_ERROR);
+                }
+            }
+        }
+
+        private void feedInput() {
+            Client.FrameInfo frame = null;
+            try {
+                while (mResult < 0 && !mFreeInputs.isEmpty()) {
+                    frame = takePendingFrame();
+                    if (frame == null) {
+                        frame = pollVideoFrame();
+                        if (frame == null) {
+                            // 先登记再查一次，避免与生产者的唤醒错过
+                            mInputStarved = true;
+                            frame = pollVideoFrame();
+                            if (frame == null) {
+                                return;
+                            }
+                            mInputStarved = false;
+                        }
+
+                        if (mNeedKeyFrame) {
+                            if (frame.type != 1) {
+                                if (!frame.preroll) {
+                                    pumpVideoSample(frame);
+                                }
+                                releaseFrame(frame);
+                                frame = null;
+                                continue;
+                            }
+                            mNeedKeyFrame = false;
+                        }
+
+                        if (!frame.preroll && shouldSkipToKeyFrame(frame.stamp) && mQueue.hasQueuedKeyFrame()) {
+                            Log.i(TAG, String.format("latency %d us, skip to latest key frame", videoLatencyUs(frame.stamp)));
+                            mSkippedToKeyFrame++;
+                            // 这一帧比跳过的帧早，先写进录像
+                            mRecordDropped.onDropped(frame);
+                            mQueue.skipToLatestKeyFrame(mRecordDropped);
+                            releaseFrame(frame);
+                            frame = null;
+                            continue;
+                        }
+                        if (shedFrame(frame)) {
+                            releaseFrame(frame);
+                            frame = null;
+                            continue;
+                        }
+                        mSupervisor.onFrame(true);
+
+                        if (frame.width != 0 && frame.height != 0 && mFrameWidth == 0) {
+                            // 提前创建的codec收到的第一帧，尺寸由SPS决定，不算分辨率变化
+                            mFrameWidth = frame.width;
+                            mFrameHeight = frame.height;
+                        } else if (frame.width != 0 && frame.height != 0 && (frame.width != mFrameWidth || frame.height != mFrameHeight)) {
+                            mFrameWidth = frame.width;
+                            mFrameHeight = frame.height;
+                            if (frame.width > mMaxWidth || frame.height > mMaxHeight) {
+                                mPending = frame;
+                                frame = null;
+                                finish(RESULT_RESIZE);
+                                return;
+                            }
+                            // 自适应播放，codec自己处理新的SPS
+                            stopRecord();
+                        }
+                    }
+
+                    ByteBuffer buffer = mCodec.getInputBuffer(mFreeInputs.peek());
+                    if (!copyFrame(buffer, frame)) {
+                        // 由解码线程用更大的输入缓冲重建codec
+                        mPending = frame;
+                        frame = null;
+                        finish(RESULT_INPUT_TOO_LARGE);
+                        return;
+                    }
+                    if (frame.preroll) {
+                        mPrerollOutputs++;
+                        mPrerollLastQueued |= frame.prerollLast;
+                    } else {
+                        pumpVideoSample(frame);
+                    }
+                    mCodec.queueInputBuffer(mFreeInputs.poll(), 0, buffer.position(), frame.stamp, 0);
+                    mTimeline.onFirstInput();
+                    mWatchdog.onInput(SystemClock.elapsedRealtime());
+                    releaseFrame(frame);
+                    frame = null;
+                }
+            } catch (IllegalStateException e) {
+                e.printStackTrace();
+                releaseFrame(frame);
+                finish(RESULT_ERROR);
+            }
+        }
+
+        /**
+         * @param deferred 之前因为提前太多而延后安排的，按当时算好的显示时刻等待
+         */
+        private void renderOutput(int index, boolean deferred) {
+            if (mResult >= 0) {
+                return;
+            }
+            try {
+                long stampUs = mOutputStamps[index];
+                long waitUs;
+                if (deferred) {
+                    waitUs = mOutputDueUs[index] - nowUs();
+                } else if (mPrerollOutputs > 0) {
+                    mPrerollOutputs--;
+                    if (mPrerollOutputs > 0 || !mPrerollLastQueued) {
+                        // 预播只显示最后一帧
+                        mCodec.releaseOutputBuffer(index, false);
+                        return;
+                    }
+                    // 预播的最后一帧立即显示
+                    mPrerollLastQueued = false;
+                    waitUs = 0;
+                } else {
+                    waitUs = renderDelayUs(stampUs, 0, nowUs());
+                    mLastRenderStampUs = stampUs;
+                }
+                if (!mFirstFrame && waitUs != Long.MIN_VALUE && waitUs > RenderScheduler.MAX_EARLY_US) {
+                    // 提前太多，稍后再安排，期间不占用回调线程
+                    mOutputDueUs[index] = nowUs() + waitUs;
+                    mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_RENDER, index, 0), (waitUs - RenderScheduler.MAX_EARLY_US) / 1000);
+                    return;
+                }
+
+                long releaseTimeNs = waitUs == Long.MIN_VALUE ? -1 : vsyncReleaseTime(waitUs);
+                if (releaseTimeNs < 0 && mFirstFrame) {
+                    releaseTimeNs = System.nanoTime();
+                }
+                if (releaseTimeNs >= 0) {
+                    mCodec.releaseOutputBuffer(index, releaseTimeNs);
+                } else {
+                    mCodec.releaseOutputBuffer(index, false);
+                }
+
+                if (mFirstFrame) {
+                    mFirstFrame = false;
+                    postVideoDisplayed(1);
+                }
+            } catch (IllegalStateException e) {
+                e.printStackTrace();
+                finish(RESULT_ERROR);
+            }
+        }
 
-                                    ex.printStackTrace();
+        /**
+         * 在回调线程上停止codec并退出，codec的释放由解码线程完成
+         */
+        private void finish(int result) {
+            if (mResult >= 0) {
+                return;
+            }
+            try {
+                mCodec.stop();
+            } catch (IllegalStateException e) {
+                e.printStackTrace();
+            }
+            mHandler.removeCallbacksAndMessages(null);
+            mResult = result;
+            mCallbackThread.quit();
+            LockSupport.unpark(mOwner);
+        }
+    }
 
-                                    Log.e(TAG, String.format("init codec error due to %s", ex.getMessage()));
+    /**
+     * 取出下一帧视频，先取重放的GOP。队列为空时立即返回null
+     */
+    private Client.FrameInfo pollVideoFrame() {
+        Client.FrameInfo frame = mReplay.poll();
+        return frame != null ? frame : mQueue.pollVideoFrame();
+    }
 
-                                    if (mCodec != null) mCodec.release();
-                                    mCodec = null;
+    /**
+     * 换surface不得不重建解码器时接着播：缓存里当前GOP中已经从队列取走的帧作为预播帧重放一遍，
+     * 只显示最后一帧，队列里剩下的帧接着正常解码，不用丢到下一个关键帧。
+     * 先取快照再看队首，快照之后才入队的帧时间戳都更大，不会重放两次
+     *
+     * @param held 已经取出、还没送进解码器的帧，排在重放的帧后面
+     * @return 缓存里没有能接上的GOP时返回false，held 仍归调用方
+     */
+    private boolean replayGop(Client.FrameInfo held) {
+        StreamCache cache = mGopCache;
+        StreamCache.Entry entry = cache == null ? null : cache.snapshot(mUrl);
+        if (entry == null) {
+            return false;
+        }
+        long next = held != null ? held.stamp : mQueue.videoHeadStamp();
+        int count = 0;
+        while (count < entry.gop.size() && (next == FrameRing.NO_STAMP || entry.gop.get(count).stamp < next)) {
+            count++;
+        }
+        // GOP超过缓存上限时后面的帧没有缓存，接不上
+        boolean complete = count > 0 && (!entry.full || count < entry.gop.size());
+        FramePool pool = FramePool.getDefault();
+        for (int i = 0; i < entry.gop.size(); i++) {
+            StreamCache.Sample sample = entry.gop.get(i);
+            if (!complete || i >= count) {
+                pool.releaseBuffer(sample.data);
+                continue;
+            }
+            Client.FrameInfo frame = StreamCache.toFrame(entry, sample);
+            frame.prerollLast = i == count - 1;
+            mReplay.add(frame);
+        }
+        if (!complete) {
+            return false;
+        }
+        if (held != null) {
+            mReplay.add(held);
+        }
+        Log.i(TAG, String.format("decoder recreated, replay %d frames of the current gop", count));
+        return true;
+    }
 
-                                    if (displayer != null) {
-                                        displayer.close();
-                                        Log.i(TAG, "AAAA 1217 displayer.close()");
-                                    }
-                                    displayer = null;
+    /**
+     * 解码器重建或flush后从关键帧开始：队列里有关键帧就跳过去，手上等着送进解码器的帧用不上时也丢掉。
+     * 丢掉的帧都照常写进录像，手上的帧比队列里的早，先写
+     *
+     * @param held     已经取出、还没送进解码器的帧，可以为null
+     * @param recorded held 是否已经写过录像
+     * @return 仍然可以作为第一帧的 held(关键帧而且后面没有更新的关键帧)，否则返回null
+     */
+    private Client.FrameInfo skipToKeyFrame(Client.FrameInfo held, boolean recorded) {
+        if (held != null && (held.type != 1 || mQueue.hasQueuedKeyFrame())) {
+            if (!recorded) {
+                mRecordDropped.onDropped(held);
+            }
+            releaseFrame(held);
+            held = null;
+        }
+        mQueue.skipToLatestKeyFrame(mRecordDropped);
+        return held;
+    }
 
-                                    final VideoCodec.VideoDecoderLite decoder = new VideoCodec.VideoDecoderLite();
-                                    decoder.create(mSurface, initFrameInfo.codec == EASY_SDK_VIDEO_CODEC_H264);
-                                    mDecoder = decoder;
-                                    continue;
-                                }
+    /**
+     * 解码器跟不上时按 {@link LoadShedder} 的级别丢帧。只是不送去解码，丢掉的帧照常写进录像；
+     * 最高一级时逐帧丢到下一个关键帧，而不是清空队列，这样录像不缺帧
+     *
+     * @return 这一帧要丢掉
+     */
+    private boolean shedFrame(Client.FrameInfo frame) {
+        if (!mLoadShedder.shouldDrop(frame, nowUs(), mNewestStample, mJitterBuffer.getTargetDelayUs())) {
+            return false;
+        }
+        pumpVideoSample(frame);
+        return true;
+    }
 
-                            }
-                            break;
-                        } while (true);
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                } finally {
-                    if (mCodec != null) {
-//                        mCodec.stop();
-                        mCodec.release();
-                    }
+    /**
+     * 是否应该直接跳到最新的关键帧：低延时模式下落后太多，或者已经远远落后于音频(解出来也不会显示)
+     */
+    private boolean shouldSkipToKeyFrame(long stampUs) {
+        if (mLowLatency && videoLatencyUs(stampUs) > mTargetLatencyUs * SKIP_TO_KEY_FRAME_FACTOR) {
+            return true;
+        }
+        long audioUs = mMediaClock.positionUs(nowUs());
+        return audioUs >= 0 && audioUs - stampUs > LATE_SKIP_US && audioUs - stampUs < MAX_AV_OFFSET_US;
+    }
 
-                    if (mDecoder != null) {
-                        mDecoder.close();
-                        Log.i(TAG, "AAAA 1238 mDecoder.close();");
+    /**
+     * 把PCM完整写进AudioTrack。非阻塞写只写进去一部分时稍等再写剩下的，而不是把剩下的丢掉。
+     *
+     * @return 实际写入的字节数
+     */
+    private int writeAudio(AudioTrack track, byte[] pcm, int size, int bytesPerFrame) throws InterruptedException {
+        int offset = 0;
+        while (offset < size) {
+            int written;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                // 与flush互斥，保证播放时钟里已写入的计数准确
+                synchronized (track) {
+                    if (track.getPlayState() != AudioTrack.PLAYSTATE_PLAYING) {
+                        break;
                     }
-
-                    if (displayer != null) {
-                        displayer.close();
-                        Log.i(TAG, "AAAA 1243 displayer.close();");
+                    written = track.write(pcm, offset, size - offset, AudioTrack.WRITE_NON_BLOCKING);
+                    if (written > 0) {
+                        mMediaClock.onFramesWritten(written / bytesPerFrame);
                     }
                 }
+            } else {
+                if (track.getPlayState() != AudioTrack.PLAYSTATE_PLAYING) {
+                    break;
+                }
+                written = track.write(pcm, offset, size - offset);
+                if (written > 0) {
+                    mMediaClock.onFramesWritten(written / bytesPerFrame);
+                }
             }
-        };
+            if (written < 0) {
+                Log.w(TAG, String.format("audio track write error:%d", written));
+                break;
+            }
+            offset += written;
+            if (offset < size) {
+                mMediaClock.onPartialWrite();
+                Thread.sleep(AUDIO_RETRY_MS);
+            }
+        }
+        if (offset < size) {
+            mMediaClock.onAudioDiscarded(size - offset);
+        }
+        return offset;
+    }
 
-        mThread.start();
+    /**
+     * 低延时模式下按落后程度调整音频倍速(6.0以上)，落后太多时返回false表示这一帧应该丢掉
+     */
+    private boolean catchUpAudio(AudioTrack track, long stampUs) {
+        // 有视频时与视频用同一个延时，纯音频时才看音频自己
+        long latencyUs = mNewestStample != 0 ? videoLatencyUs(stampUs) : mNewestAudioStamp - stampUs;
+        boolean catchUp = mLowLatency && latencyUs > mTargetLatencyUs;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            // 落后不到目标延时的一半再恢复原速，避免来回切换
+            if (catchUp) {
+                setAudioSpeed(track, AUDIO_CATCH_UP_SPEED);
+            } else if (!mLowLatency || latencyUs < mTargetLatencyUs / 2) {
+                setAudioSpeed(track, 1.0f);
+            }
+            return true;
+        }
+        return !catchUp || latencyUs <= mTargetLatencyUs * SKIP_TO_KEY_FRAME_FACTOR;
     }
 
-    private static final long fixSleepTime(long sleepTimeUs, long totalTimestampDifferUs, long delayUs) {
-        if (totalTimestampDifferUs < 0l) {
-            Log.w(TAG, String.format("totalTimestampDifferUs is:%d, this should not be happen.", totalTimestampDifferUs));
-            totalTimestampDifferUs = 0;
+    @TargetApi(Build.VERSION_CODES.M)
+    private void setAudioSpeed(AudioTrack track, float speed) {
+        if (mAudioSpeed == speed) {
+            return;
+        }
+        try {
+            track.setPlaybackParams(new PlaybackParams().allowDefaults().setSpeed(speed));
+            mAudioSpeed = speed;
+            Log.i(TAG, String.format("audio speed:%.2f", speed));
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            e.printStackTrace();
         }
+    }
+
+    private static long nowUs() {
+        return System.nanoTime() / 1000;
+    }
 
-        double dValue = ((double) (delayUs - totalTimestampDifferUs)) / 1000000d;
-        double radio = Math.exp(dValue);
-        double r = sleepTimeUs * radio + 0.5f;
-        Log.i(TAG, String.format("%d,%d,%d->%d", sleepTimeUs, totalTimestampDifferUs, delayUs, (int) r));
-        return (long) r;
+    private static void sleepUs(long us) throws InterruptedException {
+        if (us >= 1000) {
+            Thread.sleep(us / 1000);
+        }
     }
 
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
@@ -1432,6 +2538,9 @@ public class EasyPlayerClient implements Client.SourceCallBack {
 
     public void onRTSPSourceCallBack1(int _channelId, int _channelPtr, int _frameType, Client.FrameInfo frameInfo) {
         Thread.currentThread().setName("PRODUCER_THREAD");
+        if (mWarmPaused) {
+            resumeFromPause();
+        }
         if (frameInfo != null) {
             mReceivedDataLength += frameInfo.length;
         }
@@ -1443,10 +2552,12 @@ public class EasyPlayerClient implements Client.SourceCallBack {
                     mNotSupportedVideoCB = true;
                     rr.send(RESULT_UNSUPPORTED_VIDEO, null);
                 }
+                releaseFrame(frameInfo);
                 return;
             }
 //            save2path(frameInfo.buffer, 0, frameInfo.length, "/sdcard/264.h264", true);
             if (frameInfo.width == 0 || frameInfo.height == 0) {
+                releaseFrame(frameInfo);
                 return;
             }
 
@@ -1467,12 +2578,15 @@ public class EasyPlayerClient implements Client.SourceCallBack {
 //                Log.i(TAG,String.format("recv I frame"));
 //            }
 
+            mTimeline.onFirstPacket();
             if (frameInfo.type == 1) {
                 Log.i(TAG, String.format("recv I frame"));
+                mTimeline.onFirstKeyFrame();
             }
 
 //            boolean firstFrame = mNewestStample == 0;
             mNewestStample = frameInfo.stamp;
+            mJitterBuffer.onArrival(frameInfo.stamp, nowUs());
             frameInfo.audio = false;
             if (mWaitingKeyFrame) {
 
@@ -1488,42 +2602,13 @@ public class EasyPlayerClient implements Client.SourceCallBack {
 
                 Log.i(TAG, String.format("width:%d,height:%d", mWidth, mHeight));
 
-                if (frameInfo.codec == EASY_SDK_VIDEO_CODEC_H264) {
-                    byte[] dataOut = new byte[128];
-                    int[] outLen = new int[]{128};
-                    int result = getXPS(frameInfo.buffer, 0, 256, dataOut, outLen, 7);
-                    if (result >= 0) {
-                        ByteBuffer csd0 = ByteBuffer.allocate(outLen[0]);
-                        csd0.put(dataOut, 0, outLen[0]);
-                        csd0.clear();
-                        mCSD0 = csd0;
-                        Log.i(TAG, String.format("CSD-0 searched"));
-                    }
-                    outLen[0] = 128;
-                    result = getXPS(frameInfo.buffer, 0, 256, dataOut, outLen, 8);
-                    if (result >= 0) {
-                        ByteBuffer csd1 = ByteBuffer.allocate(outLen[0]);
-                        csd1.put(dataOut, 0, outLen[0]);
-                        csd1.clear();
-                        mCSD1 = csd1;
-                        Log.i(TAG, String.format("CSD-1 searched"));
-                    }
-                    if (false) {
-                        int off = (result - frameInfo.offset);
-                        frameInfo.offset += off;
-                        frameInfo.length -= off;
-                    }
-                } else {
-                    byte[] spsPps = getvps_sps_pps(frameInfo.buffer, 0, 256);
-                    if (spsPps != null) {
-                        mCSD0 = ByteBuffer.wrap(spsPps);
-                    }
-                }
-
                 if (frameInfo.type != 1) {
                     Log.w(TAG, String.format("discard p frame."));
+                    releaseFrame(frameInfo);
                     return;
                 }
+                // 参数集只在关键帧前面
+                updateParameterSets(frameInfo);
                 mWaitingKeyFrame = false;
                 synchronized (this) {
                     if (!TextUtils.isEmpty(mRecordingPath) && mObject == null) {
@@ -1543,16 +2628,39 @@ public class EasyPlayerClient implements Client.SourceCallBack {
                     mHeight = frameInfo.height;
                     Log.i(TAG, String.format("RESULT_VIDEO_SIZE:%d*%d", frameInfo.width, frameInfo.height));
                     if (rr != null) rr.send(RESULT_VIDEO_SIZE, bundle);
+                    if (frameInfo.type == 1) {
+                        // 新分辨率的参数集，重建codec时使用
+                        updateParameterSets(frameInfo);
+                    }
                 }
             }
 //            Log.d(TAG, String.format("queue size :%d", mQueue.size()));
-            try {
-                mQueue.put(frameInfo);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+            ReferenceTracker tracker = mReferenceTracker;
+            long recovered = tracker.getRecovered();
+            if (!tracker.accept(frameInfo, mSps)) {
+                // 参考帧不完整，解出来也是花屏，等关键帧
+                releaseFrame(frameInfo);
+                return;
+            }
+            if (tracker.getRecovered() != recovered) {
+                ResultReceiver rr = mRR;
+                if (rr != null) {
+                    Bundle bundle = new Bundle();
+                    bundle.putLong(EXTRA_GAP_MS, tracker.getLastGapMs());
+                    bundle.putInt(EXTRA_GAP_FRAMES, tracker.getLastGapFrames());
+                    rr.send(RESULT_VIDEO_RECOVERED, bundle);
+                }
+            }
+            StreamCache cache = mGopCache;
+            if (cache != null) {
+                cache.onVideoFrame(mUrl, frameInfo, mCSD0, mCSD1, mSps);
             }
+            if (dropWhilePaused(frameInfo)) {
+                return;
+            }
+            enqueue(frameInfo);
         } else if (_frameType == Client.EASY_SDK_AUDIO_FRAME_FLAG) {
-            mNewestStample = frameInfo.stamp;
+            mNewestAudioStamp = frameInfo.stamp;
             frameInfo.audio = true;
             if (true) {
                 if (frameInfo.codec != EASY_SDK_AUDIO_CODEC_AAC && frameInfo.codec != EASY_SDK_AUDIO_CODEC_G711A && frameInfo.codec != EASY_SDK_AUDIO_CODEC_G711U && frameInfo.codec != EASY_SDK_AUDIO_CODEC_G726) {
@@ -1563,16 +2671,16 @@ public class EasyPlayerClient implements Client.SourceCallBack {
                             rr.send(RESULT_UNSUPPORTED_AUDIO, null);
                         }
                     }
+                    releaseFrame(frameInfo);
                     return;
                 }
 
             }
             Log.d(TAG, String.format("queue size :%d", mQueue.size()));
-            try {
-                mQueue.put(frameInfo);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+            if (dropWhilePaused(frameInfo)) {
+                return;
             }
+            enqueue(frameInfo);
         } else if (_frameType == 0) {
             // time out...
             if (!mTimeout) {
@@ -1586,13 +2694,332 @@ public class EasyPlayerClient implements Client.SourceCallBack {
             Bundle resultData = new Bundle();
             resultData.putString("event-msg", new String(frameInfo.buffer));
             if (rr != null) rr.send(RESULT_EVENT, null);
+            releaseFrame(frameInfo);
+        } else {
+            releaseFrame(frameInfo);
+        }
+    }
+
+    /**
+     * 在收帧线程上接手 {@link #resume()}：先把保留的GOP入队，再结束温暂停，之后的直播帧排在它后面。
+     * 快照也在这里取，取快照之后到结束温暂停之间不会有帧被丢掉
+     */
+    private void resumeFromPause() {
+        synchronized (mPauseLock) {
+            if (!mResumePending) {
+                return;
+            }
+            mResumePending = false;
+            StreamCache cache = mGopCache;
+            StreamCache.Entry entry = mResumeFromGop && cache != null ? cache.snapshot(mUrl) : null;
+            if (entry != null) {
+                Log.i(TAG, String.format("resume from %d held frames", entry.gop.size()));
+                offerPreroll(entry);
+            } else {
+                // 没有可接上的GOP，或者连接已经关闭要重新打开，从下一个关键帧开始
+                mWaitingKeyFrame = true;
+            }
+            mWarmPaused = false;
+        }
+    }
+
+    /**
+     * 温暂停期间不解码，帧直接丢掉，视频的最近GOP已经在 {@link #mGopCache} 里。
+     * 温暂停只在收帧线程上结束({@link #resumeFromPause()})，这里不用加锁
+     *
+     * @return 帧已经归还，不用再入队
+     */
+    private boolean dropWhilePaused(Client.FrameInfo frameInfo) {
+        if (!mWarmPaused) {
+            return false;
+        }
+        releaseFrame(frameInfo);
+        return true;
+    }
+
+    private void enqueue(Client.FrameInfo frameInfo) {
+        // 入队之后帧可能马上被消费并归还，不能再访问
+        final boolean video = !frameInfo.audio;
+        if (mOverflowPolicy == OVERFLOW_POLICY_BLOCK) {
+            try {
+                mQueue.put(frameInfo);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                releaseFrame(frameInfo);
+                return;
+            }
+        } else if (!mQueue.offer(frameInfo)) {
+            releaseFrame(frameInfo);
+            return;
+        }
+
+        AsyncDecodeEngine engine = mAsyncEngine;
+        if (video && engine != null) {
+            engine.onFrameQueued();
+        }
+    }
+
+    /**
+     * 不重建codec直接切换输出surface
+     *
+     * @return 不支持或切换失败时返回false，需要重建codec
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    private static boolean setOutputSurface(MediaCodec codec, Surface surface) {
+        if (surface == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return false;
+        }
+        try {
+            codec.setOutputSurface(surface);
+            return true;
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            // 有的codec不支持切换
+            Log.w(TAG, String.format("setOutputSurface failed:%s", e.getMessage()));
+            return false;
+        }
+    }
+
+    /**
+     * 把当前的csd作为codec config送进已经启动的codec，用于没有按csd配置过的codec
+     */
+    private void queueCodecConfig(MediaCodec codec) {
+        int index = codec.dequeueInputBuffer(500000);
+        if (index < 0) {
+            throw new IllegalStateException("no input buffer for codec config");
+        }
+        ByteBuffer buffer = getInputBuffer(codec, index);
+        buffer.clear();
+        buffer.put(mCSD0.duplicate());
+        if (mCSD1 != null) {
+            buffer.put(mCSD1.duplicate());
+        }
+        codec.queueInputBuffer(index, 0, buffer.position(), 0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static ByteBuffer getInputBuffer(MediaCodec codec, int index) {
+        return codec.getInputBuffer(index);
+    }
+
+    /**
+     * 把缓存里这条码流最近的GOP先放进队列，解码器据此创建并马上显示最近的画面，直播流仍然从关键帧开始接上
+     */
+    private void prerollFromCache(String url) {
+        StreamCache cache = mStreamCache;
+        StreamCache.Entry entry = cache == null ? null : cache.snapshot(url);
+        if (entry == null) {
+            return;
+        }
+        mCSD0 = entry.csd0;
+        mCSD1 = entry.csd1;
+        mSps = entry.sps;
+        mWidth = entry.width;
+        mHeight = entry.height;
+        Log.i(TAG, String.format("preroll %d cached frames(%d bytes) of %d*%d", entry.gop.size(), entry.bytes, mWidth, mHeight));
+
+        ResultReceiver rr = mRR;
+        if (rr != null) {
+            Bundle bundle = new Bundle();
+            bundle.putInt(EXTRA_VIDEO_WIDTH, mWidth);
+            bundle.putInt(EXTRA_VIDEO_HEIGHT, mHeight);
+            rr.send(RESULT_VIDEO_SIZE, bundle);
+        }
+
+        offerPreroll(entry);
+    }
+
+    /**
+     * 把缓存的GOP放进队列。这些帧不等时钟，只显示解出来的最后一帧，
+     * 软解码直接在native层显示，做不到只显示最后一帧
+     */
+    private void offerPreroll(StreamCache.Entry entry) {
+        for (int i = 0; i < entry.gop.size(); i++) {
+            Client.FrameInfo frame = StreamCache.toFrame(entry, entry.gop.get(i));
+            frame.prerollLast = i == entry.gop.size() - 1;
+            if (!mQueue.offer(frame)) {
+                releaseFrame(frame);
+                break;
+            }
+        }
+        AsyncDecodeEngine engine = mAsyncEngine;
+        if (engine != null) {
+            engine.onFrameQueued();
+        }
+    }
+
+    /**
+     * 从关键帧开头取出参数集作为codec的csd，并解析SPS。
+     * 帧里没有参数集时保留已知的(媒体信息或预播缓存给的)，解码线程可能正在用
+     */
+    private void updateParameterSets(Client.FrameInfo frameInfo) {
+        ParameterSetCollector ps = mParameterSets;
+        if (!ps.collect(frameInfo)) {
+            return;
+        }
+        if (frameInfo.codec == EASY_SDK_VIDEO_CODEC_H264) {
+            mCSD0 = ps.sps;
+            Log.i(TAG, String.format("CSD-0 searched"));
+            if (ps.pps != null) {
+                mCSD1 = ps.pps;
+                Log.i(TAG, String.format("CSD-1 searched"));
+            }
+        } else if (ps.vps != null && ps.pps != null) {
+            // H.265的csd-0是VPS、SPS、PPS连在一起
+            ByteBuffer csd0 = ByteBuffer.allocate(ps.vps.capacity() + ps.sps.capacity() + ps.pps.capacity());
+            csd0.put(ps.vps).put(ps.sps).put(ps.pps);
+            csd0.clear();
+            mCSD0 = csd0;
+            Log.i(TAG, "vps:" + ps.parseVps());
+        }
+        NalUnitUtil.SpsData sps = ps.parseSps();
+        if (sps != null) {
+            mSps = sps;
+        }
+        Log.i(TAG, "sps:" + sps);
+    }
+
+    /**
+     * 自适应播放的最大宽高：当前尺寸的两倍，不超过level允许的最大尺寸和codec的能力
+     */
+    private static int[] adaptiveMaxSize(CodecCapabilityCache.Decoder decoder, NalUnitUtil.SpsData sps) {
+        int[] max = sps.maxAdaptiveSize();
+        // level上限可能远大于实际尺寸(1080p用level 5.1时是4096x2304)，每个输出缓冲都按最大尺寸分配，只多留一倍
+        max[0] = Math.min(max[0], sps.codedWidth * 2);
+        max[1] = Math.min(max[1], sps.codedHeight * 2);
+        if (decoder.maxWidth > 0 && decoder.maxHeight > 0) {
+            max[0] = Math.min(max[0], decoder.maxWidth);
+            max[1] = Math.min(max[1], decoder.maxHeight);
+            if (!decoder.isSizeSupported(max[0], max[1])) {
+                max[0] = sps.codedWidth;
+                max[1] = sps.codedHeight;
+            }
+        }
+        max[0] = Math.max(max[0], sps.width);
+        max[1] = Math.max(max[1], sps.height);
+        return max;
+    }
+
+    /**
+     * 放得下 length 字节的输入缓冲大小，留出余量并按64KB对齐
+     */
+    private static int inputSizeFor(int length) {
+        int size = length + length / 2;
+        return (size + 0xFFFF) & ~0xFFFF;
+    }
+
+    /**
+     * 把帧数据拷进codec的输入缓冲
+     *
+     * @return 缓冲放不下时返回false
+     */
+    private static boolean copyFrame(ByteBuffer buffer, Client.FrameInfo frameInfo) {
+        buffer.clear();
+        if (frameInfo.length > buffer.remaining()) {
+            return false;
+        }
+        buffer.put(frameInfo.buffer, frameInfo.offset, frameInfo.length);
+        return true;
+    }
+
+    /**
+     * 通知第一帧已经显示，附带起播耗时
+     *
+     * @param decodeType 0软解码，1硬解码
+     */
+    private void postVideoDisplayed(int decodeType) {
+        mTimeline.onFirstRender();
+        Log.i(TAG, String.format("POST VIDEO_DISPLAYED!!! %s", mTimeline));
+        ResultReceiver rr = mRR;
+        if (rr != null) {
+            Bundle data = new Bundle();
+            data.putInt(KEY_VIDEO_DECODE_TYPE, decodeType);
+            data.putLong(EXTRA_TIME_TO_FIRST_FRAME, mTimeline.getFirstRenderMs());
+            rr.send(RESULT_VIDEO_DISPLAYED, data);
         }
     }
 
+    /**
+     * 帧用完(解码、录像都已处理)或被丢弃时归还到帧池
+     */
+    private static void releaseFrame(Client.FrameInfo frameInfo) {
+        FramePool.getDefault().release(frameInfo);
+    }
+
     @Override
     public void onMediaInfoCallBack(int _channelId, Client.MediaInfo mi) {
         mMediaInfo = mi;
+        mTimeline.onMediaInfo();
         Log.i(TAG, String.format("MediaInfo fetchd\n%s", mi));
+        if (mFastStart) {
+            prepareFromMediaInfo(mi);
+        }
+    }
+
+    /**
+     * 用媒体信息(SDP)里的SPS/PPS准备csd，让解码线程不等第一个关键帧就创建解码器
+     */
+    private void prepareFromMediaInfo(Client.MediaInfo mi) {
+        if (mi.videoCodec != EASY_SDK_VIDEO_CODEC_H264 || mCSD0 != null) {
+            return;
+        }
+        ByteBuffer csd0 = parameterSet(mi.sps, mi.spsLen);
+        ByteBuffer csd1 = parameterSet(mi.pps, mi.ppsLen);
+        if (csd0 == null || csd1 == null) {
+            return;
+        }
+        NalUnitUtil.SpsData sps = NalUnitUtil.parseH264Sps(csd0.array(), 4, csd0.capacity());
+        if (sps == null) {
+            Log.w(TAG, "invalid sps in media info, wait for key frame");
+            return;
+        }
+        Log.i(TAG, String.format("fast start with media info sps:%s", sps));
+        mCSD0 = csd0;
+        mCSD1 = csd1;
+        mSps = sps;
+        mFastStartPending = true;
+        mQueue.wakeVideoConsumer();
+    }
+
+    /**
+     * 把媒体信息里的参数集转成带4字节起始码的csd，原来带不带起始码都可以
+     */
+    private static ByteBuffer parameterSet(byte[] data, int length) {
+        if (data == null || length <= 0 || length > data.length) {
+            return null;
+        }
+        int offset = 0;
+        if (length > 4 && data[0] == 0 && data[1] == 0 && data[2] == 0 && data[3] == 1) {
+            offset = 4;
+        } else if (length > 3 && data[0] == 0 && data[1] == 0 && data[2] == 1) {
+            offset = 3;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4 + length - offset);
+        buffer.put(new byte[]{0, 0, 0, 1});
+        buffer.put(data, offset, length - offset);
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * 取出创建解码器用的第一帧。媒体信息里的参数集先到时返回null，表示可以提前创建解码器
+     */
+    private Client.FrameInfo takeFirstVideoFrame() throws InterruptedException {
+        while (true) {
+            Client.FrameInfo frameInfo = pollVideoFrame();
+            if (frameInfo != null) {
+                return frameInfo;
+            }
+            if (mFastStartPending) {
+                mFastStartPending = false;
+                if (mCSD0 != null) {
+                    return null;
+                }
+            }
+            frameInfo = mQueue.takeVideoFrame();
+            if (frameInfo != null) {
+                return frameInfo;
+            }
+        }
     }
 
     @Override
@@ -1642,6 +3069,8 @@ public class EasyPlayerClient implements Client.SourceCallBack {
 
     @Override
     public void sendSeiData(byte[] sei) {
+        // 与视频帧在同一个线程回调，恢复点SEI作用于下一帧
+        mReferenceTracker.onSei(sei);
         if (mSEIDataCallback == null) return;
         mSEIDataCallback.onSEIData(sei);
     }
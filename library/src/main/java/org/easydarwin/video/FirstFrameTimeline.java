@@ -0,0 +1,114 @@
+package org.easydarwin.video;
+
+import android.os.SystemClock;
+
+/**
+ * 起播耗时(从 start 到第一帧显示)的分段统计。
+ * <p>
+ * 各阶段的时刻都相对于 start 调用，单位毫秒，-1表示还没有到达该阶段。每个阶段只记录第一次。
+ */
+public final class FirstFrameTimeline {
+
+    private volatile long mStartMs;
+    private volatile long mMediaInfoMs = -1;
+    private volatile long mFirstPacketMs = -1;
+    private volatile long mFirstKeyFrameMs = -1;
+    private volatile long mCodecReadyMs = -1;
+    private volatile long mFirstInputMs = -1;
+    private volatile long mFirstRenderMs = -1;
+    private volatile boolean mWarmStart;
+
+    void reset() {
+        mStartMs = SystemClock.elapsedRealtime();
+        mMediaInfoMs = mFirstPacketMs = mFirstKeyFrameMs = mCodecReadyMs = mFirstInputMs = mFirstRenderMs = -1;
+        mWarmStart = false;
+    }
+
+    private long now() {
+        return SystemClock.elapsedRealtime() - mStartMs;
+    }
+
+    void onMediaInfo() {
+        if (mMediaInfoMs < 0) mMediaInfoMs = now();
+    }
+
+    void onFirstPacket() {
+        if (mFirstPacketMs < 0) mFirstPacketMs = now();
+    }
+
+    void onFirstKeyFrame() {
+        if (mFirstKeyFrameMs < 0) mFirstKeyFrameMs = now();
+    }
+
+    /**
+     * @param warm codec是否在第一帧到达之前就按媒体信息创建好了
+     */
+    void onCodecReady(boolean warm) {
+        if (mCodecReadyMs < 0) {
+            mCodecReadyMs = now();
+            mWarmStart = warm;
+        }
+    }
+
+    void onFirstInput() {
+        if (mFirstInputMs < 0) mFirstInputMs = now();
+    }
+
+    void onFirstRender() {
+        if (mFirstRenderMs < 0) mFirstRenderMs = now();
+    }
+
+    /**
+     * 收到媒体信息(SDP)的时刻
+     */
+    public long getMediaInfoMs() {
+        return mMediaInfoMs;
+    }
+
+    /**
+     * 收到第一帧视频的时刻
+     */
+    public long getFirstPacketMs() {
+        return mFirstPacketMs;
+    }
+
+    /**
+     * 收到第一个关键帧的时刻
+     */
+    public long getFirstKeyFrameMs() {
+        return mFirstKeyFrameMs;
+    }
+
+    /**
+     * 解码器创建并启动完成的时刻
+     */
+    public long getCodecReadyMs() {
+        return mCodecReadyMs;
+    }
+
+    /**
+     * 第一帧送进解码器的时刻
+     */
+    public long getFirstInputMs() {
+        return mFirstInputMs;
+    }
+
+    /**
+     * 第一帧显示的时刻，即起播总耗时
+     */
+    public long getFirstRenderMs() {
+        return mFirstRenderMs;
+    }
+
+    /**
+     * 解码器是否在第一帧到达之前就已经就绪
+     */
+    public boolean isWarmStart() {
+        return mWarmStart;
+    }
+
+    @Override
+    public String toString() {
+        return "FirstFrameTimeline{" + "mediaInfo=" + mMediaInfoMs + ", firstPacket=" + mFirstPacketMs + ", firstKeyFrame=" + mFirstKeyFrameMs + ", codecReady=" + mCodecReadyMs + (mWarmStart ? "(warm)" : "") + ", firstInput=" + mFirstInputMs + ", firstRender=" + mFirstRenderMs + '}';
+    }
+}
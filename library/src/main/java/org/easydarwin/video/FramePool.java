@@ -0,0 +1,185 @@
+package org.easydarwin.video;
+
+import java.util.Arrays;
+
+/**
+ * 帧对象和数据缓冲的复用池。
+ * <p>
+ * 收到帧时从这里借出 {@link Client.FrameInfo}，解码和录像都用完之后由 {@link EasyPlayerClient}
+ * 显式归还，避免每帧都分配新对象。数据缓冲按2的幂分桶，桶k里的数组长度都不小于2^k。
+ * <p>
+ * 通过命中/未命中计数来评估池的大小是否合适。
+ */
+public final class FramePool {
+
+    private static final int MIN_BUCKET_SHIFT = 10;     // 1KB
+    private static final int MAX_BUCKET_SHIFT = 23;     // 8MB
+
+    private static final FramePool sDefault = new FramePool(128, 8, 32 * 1024 * 1024);
+
+    private final Client.FrameInfo[] mFrames;
+    private int mFrameCount;
+
+    private final byte[][][] mBuffers;
+    private final int[] mBufferCounts;
+    private final long mMaxPooledBytes;
+    private long mPooledBytes;
+
+    private long mFrameHits, mFrameMisses;
+    private long mBufferHits, mBufferMisses;
+
+    /**
+     * @param maxFrames        最多缓存的帧对象个数
+     * @param buffersPerBucket 每个大小档位最多缓存的数组个数
+     * @param maxPooledBytes   缓存数组的总字节数上限
+     */
+    public FramePool(int maxFrames, int buffersPerBucket, long maxPooledBytes) {
+        mFrames = new Client.FrameInfo[maxFrames];
+        mBuffers = new byte[MAX_BUCKET_SHIFT - MIN_BUCKET_SHIFT + 1][buffersPerBucket][];
+        mBufferCounts = new int[mBuffers.length];
+        mMaxPooledBytes = maxPooledBytes;
+    }
+
+    public static FramePool getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * 借出一个字段已清零的帧对象
+     */
+    public synchronized Client.FrameInfo obtainFrame() {
+        if (mFrameCount > 0) {
+            mFrameHits++;
+            Client.FrameInfo frame = mFrames[--mFrameCount];
+            mFrames[mFrameCount] = null;
+            return frame;
+        }
+        mFrameMisses++;
+        return new Client.FrameInfo();
+    }
+
+    /**
+     * 借出一个长度不小于 size 的数组，数组内容未清零。
+     */
+    public byte[] obtainBuffer(int size) {
+        int bucket = bucketForRequest(size);
+        if (bucket < 0) {
+            synchronized (this) {
+                mBufferMisses++;
+            }
+            return new byte[size];
+        }
+
+        synchronized (this) {
+            if (mBufferCounts[bucket] > 0) {
+                mBufferHits++;
+                byte[][] slots = mBuffers[bucket];
+                byte[] buffer = slots[--mBufferCounts[bucket]];
+                slots[mBufferCounts[bucket]] = null;
+                mPooledBytes -= buffer.length;
+                return buffer;
+            }
+            mBufferMisses++;
+        }
+        return new byte[1 << (bucket + MIN_BUCKET_SHIFT)];
+    }
+
+    /**
+     * 归还一个数组。任意长度的数组都可以归还(包括native层交上来的帧数据)。
+     */
+    public void releaseBuffer(byte[] buffer) {
+        if (buffer == null) {
+            return;
+        }
+        int bucket = bucketForRelease(buffer.length);
+        if (bucket < 0) {
+            return;
+        }
+
+        synchronized (this) {
+            if (mBufferCounts[bucket] == mBuffers[bucket].length || mPooledBytes + buffer.length > mMaxPooledBytes) {
+                return;
+            }
+            mBuffers[bucket][mBufferCounts[bucket]++] = buffer;
+            mPooledBytes += buffer.length;
+        }
+    }
+
+    /**
+     * 归还帧对象和它持有的数据缓冲。调用之后不能再访问该帧。
+     */
+    public void release(Client.FrameInfo frame) {
+        if (frame == null) {
+            return;
+        }
+
+        byte[] buffer = frame.buffer;
+        frame.reset();
+        releaseBuffer(buffer);
+
+        synchronized (this) {
+            if (mFrameCount < mFrames.length) {
+                mFrames[mFrameCount++] = frame;
+            }
+        }
+    }
+
+    /**
+     * 丢掉池里缓存的所有数组，内存紧张时调用
+     */
+    public synchronized void trim() {
+        for (int i = 0; i < mBuffers.length; i++) {
+            Arrays.fill(mBuffers[i], null);
+            mBufferCounts[i] = 0;
+        }
+        mPooledBytes = 0;
+    }
+
+    public synchronized long getFrameHits() {
+        return mFrameHits;
+    }
+
+    public synchronized long getFrameMisses() {
+        return mFrameMisses;
+    }
+
+    public synchronized long getBufferHits() {
+        return mBufferHits;
+    }
+
+    public synchronized long getBufferMisses() {
+        return mBufferMisses;
+    }
+
+    public synchronized long getPooledBytes() {
+        return mPooledBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "FramePool{" + "frameHits=" + mFrameHits + ", frameMisses=" + mFrameMisses + ", pooledFrames=" + mFrameCount + ", bufferHits=" + mBufferHits + ", bufferMisses=" + mBufferMisses + ", pooledBytes=" + mPooledBytes + '}';
+    }
+
+    /**
+     * 借出时向上取整到2的幂
+     */
+    private static int bucketForRequest(int size) {
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(1, size) - 1);
+        shift = Math.max(shift, MIN_BUCKET_SHIFT);
+        if (shift > MAX_BUCKET_SHIFT) {
+            return -1;
+        }
+        return shift - MIN_BUCKET_SHIFT;
+    }
+
+    /**
+     * 归还时向下取整到2的幂，保证桶里的数组都够长
+     */
+    private static int bucketForRelease(int length) {
+        if (length < (1 << MIN_BUCKET_SHIFT)) {
+            return -1;
+        }
+        int shift = 31 - Integer.numberOfLeadingZeros(length);
+        return Math.min(shift, MAX_BUCKET_SHIFT) - MIN_BUCKET_SHIFT;
+    }
+}
@@ -0,0 +1,419 @@
+package org.easydarwin.video;
+
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 音视频帧的传输队列。
+ * <p>
+ * 视频和音频各用一个 {@link FrameRing}，解码线程与native回调线程之间没有锁竞争，
+ * 音频帧也不会再堵住视频线程(反之亦然)。需要按时间戳交错取帧时使用 {@link #poll()}。
+ * <p>
+ * {@link #offer(Client.FrameInfo)} 从不阻塞生产者：超出容量时丢掉队列里到下一个关键帧为止的视频，
+ * 并裁掉过时的音频，消费者慢的代价是一次短暂的跳帧，而不是越积越多的延时。
+ * <p>
+ * 容量按字节计算：每个队列有自己的上限，所有队列加起来还受全局上限约束，
+ * 4K主码流卡住时不会把堆撑爆。帧数 {@link #CAPACITY} 只是环的槽位数。
+ */
+final class FrameQueue {
+    private static final String TAG = FrameQueue.class.getSimpleName();
+
+    public static final int CAPACITY = 512;
+
+    /**
+     * 队列满时生产者的退避时间
+     */
+    private static final long FULL_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    /**
+     * 单个队列默认的字节上限
+     */
+    public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * 所有队列已缓存的总字节数
+     */
+    private static final AtomicLong sTotalBytes = new AtomicLong();
+    /**
+     * 所有队列合计的字节上限，默认为堆上限的四分之一
+     */
+    private static volatile long sGlobalMaxBytes = Runtime.getRuntime().maxMemory() / 4;
+
+    private final FrameRing mVideo = new FrameRing(CAPACITY, sTotalBytes);
+    private final FrameRing mAudio = new FrameRing(CAPACITY, sTotalBytes);
+
+    private volatile long mMaxBytes = DEFAULT_MAX_BYTES;
+
+    /**
+     * 最近一个入队关键帧在视频环里的位置和时间戳，-1表示队列里没有
+     */
+    private volatile long mLastKeyFramePosition = -1;
+    private volatile long mLastKeyFrameStamp;
+
+    /**
+     * 丢帧之后队列里已经没有关键帧，后续的非关键帧都要丢掉直到下一个关键帧到来
+     */
+    private volatile boolean mVideoWaitingKeyFrame;
+
+    private final AtomicLong mDroppedFrames = new AtomicLong();
+    private final AtomicLong mDroppedBytes = new AtomicLong();
+
+    /**
+     * 跳到关键帧时被丢掉的视频帧，在归还帧池之前回调，比如写进录像
+     */
+    interface DropListener {
+        void onDropped(Client.FrameInfo frame);
+    }
+
+    public int size() {
+        return mVideo.size() + mAudio.size();
+    }
+
+    public int videoSize() {
+        return mVideo.size();
+    }
+
+    public int audioSize() {
+        return mAudio.size();
+    }
+
+    /**
+     * 队列里帧数据的总字节数
+     */
+    public long bytes() {
+        return mVideo.bytes() + mAudio.bytes();
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * 所有队列已缓存的总字节数
+     */
+    public static long totalBytes() {
+        return sTotalBytes.get();
+    }
+
+    public static long getGlobalMaxBytes() {
+        return sGlobalMaxBytes;
+    }
+
+    public static void setGlobalMaxBytes(long maxBytes) {
+        sGlobalMaxBytes = maxBytes;
+    }
+
+    /**
+     * 再放入 x 是否还在字节预算内。队列为空时总是放得下，否则单个大I帧会永远进不来。
+     */
+    private boolean fits(Client.FrameInfo x) {
+        long own = bytes();
+        if (own == 0) {
+            return true;
+        }
+        return own + x.length <= mMaxBytes && sTotalBytes.get() + x.length <= sGlobalMaxBytes;
+    }
+
+    /**
+     * 清空队列，丢弃的帧归还到 {@link FramePool}
+     */
+    public void clear() {
+        mVideoWaitingKeyFrame = false;
+        mLastKeyFramePosition = -1;
+        FramePool pool = FramePool.getDefault();
+        Client.FrameInfo frame;
+        while ((frame = mVideo.poll()) != null) {
+            pool.release(frame);
+        }
+        while ((frame = mAudio.poll()) != null) {
+            pool.release(frame);
+        }
+    }
+
+    /**
+     * 投递一帧，队列满或超出字节预算时等待消费者腾出空间(会阻塞native接收线程)。
+     */
+    public void put(Client.FrameInfo x) throws InterruptedException {
+        FrameRing ring = x.audio ? mAudio : mVideo;
+        long position = ring.tailPosition();
+        boolean logged = false;
+        while (!fits(x) || !ring.offer(x)) {
+            if (!logged) {
+                Log.v(TAG, "queue full:" + ring.capacity());
+                logged = true;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            LockSupport.parkNanos(this, FULL_BACKOFF_NANOS);
+        }
+        onQueued(x, position);
+    }
+
+    /**
+     * 不阻塞地投递一帧，超出容量时按丢到下一个关键帧的策略腾出空间。
+     * 只允许生产者线程调用。
+     *
+     * @return 本帧是否入队。返回false时本帧已被计入丢弃，由调用者归还
+     */
+    public boolean offer(Client.FrameInfo x) {
+        if (x.audio) {
+            if (!fits(x) || !mAudio.offer(x)) {
+                // 丢掉最旧的四分之一音频
+                trimAudio(Long.MAX_VALUE, Math.max(1, mAudio.size() / 4));
+                if (!fits(x) || !mAudio.offer(x)) {
+                    countDropped(x);
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean keyFrame = x.type == 1;
+        if (mVideoWaitingKeyFrame) {
+            if (!keyFrame) {
+                countDropped(x);
+                return false;
+            }
+            mVideoWaitingKeyFrame = false;
+        }
+
+        long position = mVideo.tailPosition();
+        if (fits(x) && mVideo.offer(x)) {
+            onQueued(x, position);
+            return true;
+        }
+
+        // 一个GOP腾出的空间不够(比如本帧特别大)时继续丢，队列空了总是放得下
+        long headStamp;
+        do {
+            dropToNextKeyFrame();
+            headStamp = mVideo.headStamp();
+            trimAudio(headStamp != FrameRing.NO_STAMP ? headStamp : x.stamp, Integer.MAX_VALUE);
+        } while (headStamp != FrameRing.NO_STAMP && !fits(x));
+
+        if (headStamp == FrameRing.NO_STAMP && !keyFrame) {
+            // 队列里已经没有可用的参考帧，本帧解不出来
+            mVideoWaitingKeyFrame = true;
+            countDropped(x);
+            return false;
+        }
+
+        position = mVideo.tailPosition();
+        if (!fits(x) || !mVideo.offer(x)) {
+            // 本帧丢了，后面的帧缺参考
+            mVideoWaitingKeyFrame = true;
+            countDropped(x);
+            return false;
+        }
+        onQueued(x, position);
+        return true;
+    }
+
+    private void onQueued(Client.FrameInfo x, long position) {
+        if (!x.audio && x.type == 1) {
+            mLastKeyFrameStamp = x.stamp;
+            mLastKeyFramePosition = position;
+        }
+    }
+
+    /**
+     * 队列里还有未取走的关键帧时，丢掉它之前的所有帧，让消费者直接跳到最新的关键帧。
+     *
+     * @return 是否发生了跳转
+     */
+    public boolean skipToLatestKeyFrame() {
+        return skipToLatestKeyFrame(null);
+    }
+
+    /**
+     * 队首视频帧的时间戳，队列为空时返回 {@link FrameRing#NO_STAMP}
+     */
+    public long videoHeadStamp() {
+        return mVideo.headStamp();
+    }
+
+    /**
+     * 队列里是否有还没取走的关键帧，有的话 {@link #skipToLatestKeyFrame()} 会跳过去
+     */
+    public boolean hasQueuedKeyFrame() {
+        return mLastKeyFramePosition > mVideo.headPosition();
+    }
+
+    /**
+     * 同 {@link #skipToLatestKeyFrame()}，丢掉的每一帧视频先交给 listener。只允许消费者线程调用
+     *
+     * @param listener 可以为null
+     */
+    public boolean skipToLatestKeyFrame(DropListener listener) {
+        if (!hasQueuedKeyFrame()) {
+            return false;
+        }
+        trimToLatestGop(listener);
+        return true;
+    }
+
+    /**
+     * 内存紧张时调用：只保留从最近一个关键帧开始的GOP，更早的视频和音频全部丢掉。
+     * 可以在任意线程调用。
+     *
+     * @return 释放的字节数
+     */
+    public long trimToLatestGop() {
+        return trimToLatestGop(null);
+    }
+
+    private long trimToLatestGop(DropListener listener) {
+        long before = bytes();
+        long position = mLastKeyFramePosition;
+        FramePool pool = FramePool.getDefault();
+        Client.FrameInfo frame;
+        if (position >= 0) {
+            while ((frame = mVideo.pollBefore(position)) != null) {
+                countDropped(frame);
+                if (listener != null) {
+                    listener.onDropped(frame);
+                }
+                pool.release(frame);
+            }
+            long stamp = mLastKeyFrameStamp;
+            while (true) {
+                long head = mAudio.headStamp();
+                if (head == FrameRing.NO_STAMP || head >= stamp || (frame = mAudio.poll()) == null) {
+                    break;
+                }
+                countDropped(frame);
+                pool.release(frame);
+            }
+        } else {
+            // 队列里没有关键帧，剩下的视频都解不出来
+            mVideoWaitingKeyFrame = true;
+            while ((frame = mVideo.poll()) != null) {
+                countDropped(frame);
+                if (listener != null) {
+                    listener.onDropped(frame);
+                }
+                pool.release(frame);
+            }
+        }
+        long freed = before - bytes();
+        Log.i(TAG, String.format("trim to latest gop, %d bytes freed", freed));
+        return freed;
+    }
+
+    /**
+     * 丢弃队首的视频帧直到下一个关键帧(保留该关键帧)，队首本身是关键帧时连同它的GOP一起丢掉。
+     */
+    private void dropToNextKeyFrame() {
+        FramePool pool = FramePool.getDefault();
+        int dropped = 0;
+        while (true) {
+            int type = mVideo.headType();
+            if (type == FrameRing.NO_TYPE || (dropped > 0 && type == 1)) {
+                break;
+            }
+
+            // 消费者可能刚好取走了head，这时取到的是它后面的帧；
+            // 即使那是关键帧，循环也会继续丢到再下一个关键帧，不会留下缺参考的P帧
+            Client.FrameInfo frame = mVideo.poll();
+            if (frame == null) {
+                break;
+            }
+            countDropped(frame);
+            pool.release(frame);
+            dropped++;
+        }
+        Log.w(TAG, String.format("video queue overflow, %d frames dropped to next key frame", dropped));
+    }
+
+    /**
+     * 丢弃时间戳早于 beforeStamp 的音频，最多 maxCount 帧
+     */
+    private void trimAudio(long beforeStamp, int maxCount) {
+        FramePool pool = FramePool.getDefault();
+        for (int i = 0; i < maxCount; i++) {
+            long head = mAudio.headStamp();
+            if (head == FrameRing.NO_STAMP || head >= beforeStamp) {
+                break;
+            }
+            Client.FrameInfo frame = mAudio.poll();
+            if (frame == null) {
+                break;
+            }
+            countDropped(frame);
+            pool.release(frame);
+        }
+    }
+
+    private void countDropped(Client.FrameInfo frame) {
+        mDroppedFrames.incrementAndGet();
+        mDroppedBytes.addAndGet(frame.length);
+    }
+
+    /**
+     * 溢出丢弃的总帧数
+     */
+    public long droppedFrames() {
+        return mDroppedFrames.get();
+    }
+
+    /**
+     * 溢出丢弃的总字节数
+     */
+    public long droppedBytes() {
+        return mDroppedBytes.get();
+    }
+
+    /**
+     * 取出一帧视频，队列为空时等待，被 {@link #wakeVideoConsumer()} 唤醒时返回null
+     */
+    public Client.FrameInfo takeVideoFrame() throws InterruptedException {
+        return mVideo.take();
+    }
+
+    public Client.FrameInfo takeVideoFrame(long ms) throws InterruptedException {
+        return mVideo.poll(TimeUnit.MILLISECONDS.toNanos(ms));
+    }
+
+    /**
+     * 取出一帧视频，队列为空时立即返回null
+     */
+    public Client.FrameInfo pollVideoFrame() {
+        return mVideo.poll();
+    }
+
+    /**
+     * 唤醒等待视频帧的消费者
+     */
+    public void wakeVideoConsumer() {
+        mVideo.wakeUp();
+    }
+
+    public Client.FrameInfo takeAudioFrame() throws InterruptedException {
+        return mAudio.take();
+    }
+
+    /**
+     * 按时间戳归并两路队列，取出更早的一帧。两路都为空时返回null。
+     * 只应由唯一的消费者调用(如独占整个队列的转发/录像场景)。
+     */
+    public Client.FrameInfo poll() {
+        long video = mVideo.headStamp();
+        long audio = mAudio.headStamp();
+        if (video == FrameRing.NO_STAMP && audio == FrameRing.NO_STAMP) {
+            return null;
+        }
+
+        if (audio == FrameRing.NO_STAMP || (video != FrameRing.NO_STAMP && video <= audio)) {
+            return mVideo.poll();
+        }
+        return mAudio.poll();
+    }
+}
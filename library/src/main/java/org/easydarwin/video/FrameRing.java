@@ -0,0 +1,275 @@
+package org.easydarwin.video;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 无锁的帧环形队列。
+ * <p>
+ * 按单生产者(native回调线程)/单消费者(解码线程)设计，投递和取帧都不加锁。
+ * 取帧端用CAS领取位置，因此 clear() 等控制操作也可以在其它线程安全地调用。
+ * <p>
+ * 同时统计队列里帧数据的字节数，可选地累加到多个队列共享的计数上。
+ * <p>
+ * 帧一旦投递，消费者随时可能取走并归还到 {@link FramePool}，所以生产者不能再访问帧对象。
+ * 需要按队首帧做判断时，使用投递时记在槽位上的时间戳和类型({@link #headStamp()}、{@link #headType()})。
+ */
+final class FrameRing {
+
+    /**
+     * 队列为空时 {@link #headStamp()} 的返回值
+     */
+    static final long NO_STAMP = Long.MIN_VALUE;
+    /**
+     * 队列为空时 {@link #headType()} 的返回值
+     */
+    static final int NO_TYPE = -1;
+
+    private final AtomicReferenceArray<Client.FrameInfo> mSlots;
+    /**
+     * 投递时记下的每个槽位的时间戳和帧类型，只由生产者写入
+     */
+    private final AtomicLongArray mStamps;
+    private final AtomicIntegerArray mTypes;
+    private final int mMask;
+
+    /**
+     * 下一个要读取的位置
+     */
+    private final AtomicLong mHead = new AtomicLong();
+    /**
+     * 下一个要写入的位置
+     */
+    private final AtomicLong mTail = new AtomicLong();
+
+    /**
+     * 正在等待数据的消费者线程
+     */
+    private volatile Thread mWaiter;
+    /**
+     * {@link #wakeUp()} 请求等待中的消费者返回
+     */
+    private volatile boolean mWakeUp;
+
+    private final AtomicLong mBytes = new AtomicLong();
+    private final AtomicLong mSharedBytes;
+
+    FrameRing(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * @param sharedBytes 多个队列共享的字节计数，可以为null
+     */
+    FrameRing(int capacity, AtomicLong sharedBytes) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        mSlots = new AtomicReferenceArray<>(size);
+        mStamps = new AtomicLongArray(size);
+        mTypes = new AtomicIntegerArray(size);
+        mMask = size - 1;
+        mSharedBytes = sharedBytes;
+    }
+
+    int capacity() {
+        return mMask + 1;
+    }
+
+    int size() {
+        long head = mHead.get();
+        long tail = mTail.get();
+        return (int) Math.max(0, tail - head);
+    }
+
+    boolean isEmpty() {
+        return mHead.get() >= mTail.get();
+    }
+
+    /**
+     * 队列里帧数据的总字节数
+     */
+    long bytes() {
+        return mBytes.get();
+    }
+
+    /**
+     * 队首帧的位置
+     */
+    long headPosition() {
+        return mHead.get();
+    }
+
+    /**
+     * 下一帧投递后所在的位置，只在生产者线程调用时才是稳定的
+     */
+    long tailPosition() {
+        return mTail.get();
+    }
+
+    /**
+     * 投递一帧，只允许生产者线程调用。
+     *
+     * @return 队列已满时返回false
+     */
+    boolean offer(Client.FrameInfo frame) {
+        long tail = mTail.get();
+        int index = (int) tail & mMask;
+        // 消费者先推进head再清空槽位，所以这里要同时检查槽位是否已经腾出来
+        if (tail - mHead.get() > mMask || mSlots.get(index) != null) {
+            return false;
+        }
+
+        mStamps.set(index, frame.stamp);
+        mTypes.set(index, frame.type);
+        mSlots.set(index, frame);
+        addBytes(frame.length);
+        mTail.set(tail + 1);
+
+        Thread waiter = mWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+        return true;
+    }
+
+    /**
+     * 取出队首的帧，队列为空时返回null。
+     */
+    Client.FrameInfo poll() {
+        return pollBefore(Long.MAX_VALUE);
+    }
+
+    /**
+     * 取出队首的帧，但只取位置在 position 之前的帧。
+     * 与消费者并发调用时也不会越过 position。
+     */
+    Client.FrameInfo pollBefore(long position) {
+        while (true) {
+            long head = mHead.get();
+            if (head >= mTail.get() || head >= position) {
+                return null;
+            }
+
+            if (mHead.compareAndSet(head, head + 1)) {
+                Client.FrameInfo frame = mSlots.getAndSet((int) head & mMask, null);
+                if (frame != null) {
+                    addBytes(-frame.length);
+                }
+                return frame;
+            }
+        }
+    }
+
+    private void addBytes(long delta) {
+        mBytes.addAndGet(delta);
+        if (mSharedBytes != null) {
+            mSharedBytes.addAndGet(delta);
+        }
+    }
+
+    /**
+     * 队首帧投递时的时间戳，不访问帧对象，任意线程都可以调用。
+     * 与消费者并发时，返回的可能是刚被取走的那一帧的值。
+     *
+     * @return 队列为空时返回 {@link #NO_STAMP}
+     */
+    long headStamp() {
+        long head = mHead.get();
+        if (head >= mTail.get()) {
+            return NO_STAMP;
+        }
+        return mStamps.get((int) head & mMask);
+    }
+
+    /**
+     * 队首帧投递时的类型(1为关键帧)，与 {@link #headStamp()} 一样不访问帧对象
+     *
+     * @return 队列为空时返回 {@link #NO_TYPE}
+     */
+    int headType() {
+        long head = mHead.get();
+        if (head >= mTail.get()) {
+            return NO_TYPE;
+        }
+        return mTypes.get((int) head & mMask);
+    }
+
+    /**
+     * 取出队首的帧，队列为空时阻塞等待，被 {@link #wakeUp()} 唤醒时返回null。
+     */
+    Client.FrameInfo take() throws InterruptedException {
+        return poll(-1);
+    }
+
+    /**
+     * 取出队首的帧，最多等待 timeoutNanos 纳秒。
+     *
+     * @param timeoutNanos 小于0表示一直等待
+     * @return 超时或被 {@link #wakeUp()} 唤醒时返回null
+     */
+    Client.FrameInfo poll(long timeoutNanos) throws InterruptedException {
+        Client.FrameInfo frame = poll();
+        if (frame != null || timeoutNanos == 0) {
+            return frame;
+        }
+
+        final long deadline = System.nanoTime() + timeoutNanos;
+        mWaiter = Thread.currentThread();
+        try {
+            while (true) {
+                // 先登记等待者再检查队列，避免与生产者的唤醒错过
+                frame = poll();
+                if (frame != null) {
+                    return frame;
+                }
+
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+
+                if (mWakeUp) {
+                    mWakeUp = false;
+                    return null;
+                }
+
+                if (timeoutNanos < 0) {
+                    LockSupport.park(this);
+                } else {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return null;
+                    }
+                    LockSupport.parkNanos(this, remaining);
+                }
+            }
+        } finally {
+            mWaiter = null;
+        }
+    }
+
+    /**
+     * 让正在等待的消费者立即返回(没有消费者在等时，下一次等待立即返回)
+     */
+    void wakeUp() {
+        mWakeUp = true;
+        Thread waiter = mWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /**
+     * 丢弃队列里所有的帧。
+     *
+     * @return 丢弃的帧数
+     */
+    int clear() {
+        int count = 0;
+        while (poll() != null) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,199 @@
+package org.easydarwin.video;
+
+/**
+ * 自适应抖动缓冲，决定每一帧视频应该在什么时候显示。
+ * <p>
+ * 生产者线程在帧到达时调用 {@link #onArrival(long, long)}，按RFC 3550的方法估算到达间隔的抖动；
+ * 解码线程在显示前调用 {@link #renderDelayUs(long, long)} 得到还需要等待多久。
+ * <p>
+ * 显示时刻 = 帧时间戳 + 最小传输偏移 + 目标延时。目标延时跟随抖动估计，限定在[min, max]之间：
+ * 出现欠载(帧到了显示时刻还没解出来)时立即加大，网络平稳后再慢慢收回。
+ * <p>
+ * 所有时间单位都是微秒。
+ */
+public final class JitterBuffer {
+
+    public static final long DEFAULT_MIN_DELAY_US = 20000;
+    public static final long DEFAULT_MAX_DELAY_US = 300000;
+
+    /**
+     * 目标延时取抖动估计的倍数
+     */
+    private static final int JITTER_MULTIPLIER = 3;
+    /**
+     * 每次欠载时目标延时的增量
+     */
+    private static final long UNDERRUN_STEP_US = 20000;
+    /**
+     * 每帧目标延时最多收回多少
+     */
+    private static final long DECAY_STEP_US = 200;
+    /**
+     * 晚于显示时刻多少算欠载
+     */
+    private static final long LATE_THRESHOLD_US = 20000;
+    /**
+     * 传输偏移跳变超过该值认为时间戳不连续(如码流重连)，重新开始估计
+     */
+    private static final long DISCONTINUITY_US = 5000000;
+
+    private long mMinDelayUs = DEFAULT_MIN_DELAY_US;
+    private long mMaxDelayUs = DEFAULT_MAX_DELAY_US;
+
+    /**
+     * 最小传输偏移(本地时钟 - 帧时间戳)，缓慢上浮以跟随两端时钟的漂移
+     */
+    private long mBaseTransitUs;
+    private long mLastTransitUs;
+    private boolean mAnchored;
+    /**
+     * 上一帧是否已经迟到，一次连续的迟到只算一次欠载
+     */
+    private boolean mLate;
+
+    private volatile long mJitterUs;
+    private volatile long mTargetDelayUs = DEFAULT_MIN_DELAY_US;
+    private volatile long mNewestStampUs;
+    private volatile long mRenderingStampUs;
+    private volatile long mUnderruns;
+
+    /**
+     * 重新开始估计，切换码流或清空队列之后调用
+     */
+    synchronized void reset() {
+        mAnchored = false;
+        mLate = false;
+        mJitterUs = 0;
+        mTargetDelayUs = mMinDelayUs;
+        mNewestStampUs = 0;
+        mRenderingStampUs = 0;
+    }
+
+    /**
+     * 设置目标延时的上下限
+     */
+    public synchronized void setBounds(long minDelayUs, long maxDelayUs) {
+        if (minDelayUs < 0 || maxDelayUs < minDelayUs) {
+            throw new IllegalArgumentException("invalid bounds " + minDelayUs + "," + maxDelayUs);
+        }
+        mMinDelayUs = minDelayUs;
+        mMaxDelayUs = maxDelayUs;
+        mTargetDelayUs = clamp(mTargetDelayUs);
+    }
+
+    /**
+     * 一帧视频到达
+     *
+     * @param stampUs 帧时间戳
+     * @param nowUs   本地单调时钟
+     */
+    synchronized void onArrival(long stampUs, long nowUs) {
+        long transit = nowUs - stampUs;
+        if (!mAnchored || Math.abs(transit - mBaseTransitUs) > DISCONTINUITY_US) {
+            mBaseTransitUs = transit;
+            mLastTransitUs = transit;
+            mAnchored = true;
+        }
+
+        // J += (|D| - J) / 16
+        long d = Math.abs(transit - mLastTransitUs);
+        mLastTransitUs = transit;
+        mJitterUs += (d - mJitterUs) / 16;
+
+        if (transit < mBaseTransitUs) {
+            mBaseTransitUs = transit;
+        } else {
+            mBaseTransitUs += (transit - mBaseTransitUs) / 1024;
+        }
+
+        long target = Math.max(mJitterUs * JITTER_MULTIPLIER, mTargetDelayUs - DECAY_STEP_US);
+        mTargetDelayUs = clamp(target);
+        mNewestStampUs = stampUs;
+    }
+
+    /**
+     * 距离该帧的显示时刻还有多久
+     *
+     * @return 大于0表示需要等待的时间，否则应立即显示
+     */
+    synchronized long renderDelayUs(long stampUs, long nowUs) {
+        mRenderingStampUs = stampUs;
+        if (!mAnchored) {
+            return 0;
+        }
+        long delay = stampUs + mBaseTransitUs + mTargetDelayUs - nowUs;
+        if (delay < -LATE_THRESHOLD_US) {
+            if (!mLate) {
+                onUnderrun();
+            }
+            mLate = true;
+        } else {
+            mLate = false;
+        }
+        return Math.min(delay, mMaxDelayUs);
+    }
+
+    /**
+     * 帧没有在显示时刻前就绪，加大目标延时
+     */
+    synchronized void onUnderrun() {
+        mUnderruns++;
+        mTargetDelayUs = clamp(mTargetDelayUs + UNDERRUN_STEP_US);
+    }
+
+    private long clamp(long delayUs) {
+        return Math.max(mMinDelayUs, Math.min(mMaxDelayUs, delayUs));
+    }
+
+    public synchronized long getMinDelayUs() {
+        return mMinDelayUs;
+    }
+
+    public synchronized long getMaxDelayUs() {
+        return mMaxDelayUs;
+    }
+
+    /**
+     * 当前的目标延时
+     */
+    public long getTargetDelayUs() {
+        return mTargetDelayUs;
+    }
+
+    /**
+     * 到达间隔的抖动估计
+     */
+    public long getJitterUs() {
+        return mJitterUs;
+    }
+
+    /**
+     * 最近一次安排显示的帧的时间戳，还没有显示过时为0
+     */
+    public long getRenderingStampUs() {
+        return mRenderingStampUs;
+    }
+
+    /**
+     * 当前缓冲深度：最新到达的帧与正在显示的帧之间的时间差
+     */
+    public long getDepthUs() {
+        long rendering = mRenderingStampUs;
+        if (rendering == 0) {
+            return 0;
+        }
+        return Math.max(0, mNewestStampUs - rendering);
+    }
+
+    /**
+     * 欠载次数
+     */
+    public long getUnderruns() {
+        return mUnderruns;
+    }
+
+    @Override
+    public String toString() {
+        return "JitterBuffer{" + "target=" + mTargetDelayUs + ", jitter=" + mJitterUs + ", depth=" + getDepthUs() + ", underruns=" + mUnderruns + '}';
+    }
+}
@@ -0,0 +1,249 @@
+package org.easydarwin.video;
+
+import android.util.Log;
+
+import org.easydarwin.util.AnnexBScanner;
+import org.easydarwin.util.NalUnitUtil;
+
+import java.nio.ByteBuffer;
+
+import static org.easydarwin.video.EasyPlayerClient.EASY_SDK_VIDEO_CODEC_H264;
+
+/**
+ * 解码器过载时的丢帧策略。
+ * <p>
+ * 解码线程每取出一帧调用一次 {@link #shouldDrop(Client.FrameInfo, long, long, long)}。
+ * 每个统计窗口比较解码消耗的码流时长和同一时间内到达的码流时长，
+ * 解码跟不上而且积压超出抖动缓冲的目标延时时逐级加重：
+ * 先丢非参考帧(H.264的nal_ref_idc为0，H.265的子层非参考帧)，不影响后面的解码；
+ * 还跟不上就跳到下一个关键帧。积压消化掉以后逐级恢复。
+ * 丢帧只针对解码，调用方仍要把丢掉的帧写进录像，否则录下来的文件会缺参考帧而花屏。
+ * <p>
+ * 只在解码线程使用，统计值可以在任意线程读取。时间单位都是微秒。
+ */
+public final class LoadShedder implements AnnexBScanner.Listener {
+
+    private static final String TAG = LoadShedder.class.getSimpleName();
+
+    /**
+     * 不丢帧
+     */
+    public static final int LEVEL_NONE = 0;
+    /**
+     * 丢非参考帧
+     */
+    public static final int LEVEL_NON_REFERENCE = 1;
+    /**
+     * 跳到下一个关键帧
+     */
+    public static final int LEVEL_KEY_FRAME = 2;
+
+    static final long WINDOW_US = 1000000;
+    /**
+     * 解码消耗的时长低于到达时长的这个比例算跟不上
+     */
+    static final float OVERLOAD_RATIO = 0.95f;
+    /**
+     * 超出目标延时的积压达到这么多才丢帧
+     */
+    static final long OVERLOAD_LAG_US = 500000;
+    /**
+     * 超出目标延时的积压低于这个值时降一级
+     */
+    static final long RECOVER_LAG_US = 100000;
+
+    private final AnnexBScanner mAvcScanner = new AnnexBScanner(false, this);
+    private final AnnexBScanner mHevcScanner = new AnnexBScanner(true, this);
+    private boolean mHevc;
+    private boolean mReference;
+
+    private volatile boolean mEnabled = true;
+    private volatile int mLevel = LEVEL_NONE;
+    private volatile float mRatio = 1;
+    private volatile long mLagUs;
+
+    private long mWindowStartUs = -1;
+    private long mWindowNewestUs;
+    private long mWindowConsumedUs;
+
+    private volatile long mNonReferenceDropped;
+    private volatile long mKeyFrameDropped;
+    private volatile long mKeyFrameSkips;
+    private volatile long mEscalations;
+
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+        if (!enabled) {
+            mLevel = LEVEL_NONE;
+        }
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * 重新开始统计，丢帧级别回到 {@link #LEVEL_NONE}，计数保留
+     */
+    void reset() {
+        mWindowStartUs = -1;
+        mLevel = LEVEL_NONE;
+        mRatio = 1;
+        mLagUs = 0;
+    }
+
+    /**
+     * 取出一帧准备解码时调用
+     *
+     * @param nowUs          当前时刻
+     * @param newestStampUs  最新到达的帧时间戳
+     * @param targetDelayUs  抖动缓冲的目标延时，这部分积压是有意的
+     * @return 是否应该丢掉这一帧
+     */
+    boolean shouldDrop(Client.FrameInfo frame, long nowUs, long newestStampUs, long targetDelayUs) {
+        if (!mEnabled || frame.preroll) {
+            return false;
+        }
+        update(frame.stamp, nowUs, newestStampUs, targetDelayUs);
+
+        int level = mLevel;
+        if (level == LEVEL_NONE) {
+            return false;
+        }
+        if (frame.type == 1) {
+            if (level == LEVEL_KEY_FRAME) {
+                // 已经跳到关键帧，再看是否只丢非参考帧就够了
+                mKeyFrameSkips++;
+                mLevel = LEVEL_NON_REFERENCE;
+                mWindowStartUs = -1;
+            }
+            return false;
+        }
+        if (level == LEVEL_KEY_FRAME) {
+            mKeyFrameDropped++;
+            return true;
+        }
+        if (!isReference(frame)) {
+            mNonReferenceDropped++;
+            return true;
+        }
+        return false;
+    }
+
+    private void update(long stampUs, long nowUs, long newestStampUs, long targetDelayUs) {
+        if (mWindowStartUs < 0) {
+            mWindowStartUs = nowUs;
+            mWindowNewestUs = newestStampUs;
+            mWindowConsumedUs = stampUs;
+            return;
+        }
+        if (nowUs - mWindowStartUs < WINDOW_US) {
+            return;
+        }
+        long arrived = newestStampUs - mWindowNewestUs;
+        long consumed = stampUs - mWindowConsumedUs;
+        float ratio = arrived > 0 ? (float) consumed / arrived : 1;
+        long lag = newestStampUs - stampUs - targetDelayUs;
+        mRatio = ratio;
+        mLagUs = lag;
+
+        int level = mLevel;
+        if (arrived > 0 && ratio < OVERLOAD_RATIO && lag > OVERLOAD_LAG_US) {
+            if (level < LEVEL_KEY_FRAME) {
+                mLevel = level + 1;
+                mEscalations++;
+                Log.w(TAG, String.format("decoder overloaded, ratio:%.2f lag:%dus, shedding level %d", ratio, lag, level + 1));
+            }
+        } else if (lag < RECOVER_LAG_US && level > LEVEL_NONE) {
+            mLevel = level - 1;
+            Log.i(TAG, String.format("decoder caught up, lag:%dus, shedding level %d", lag, level - 1));
+        }
+        mWindowStartUs = nowUs;
+        mWindowNewestUs = newestStampUs;
+        mWindowConsumedUs = stampUs;
+    }
+
+    /**
+     * 帧里第一个slice是否会被其它帧参考，解析不出来时按参考帧处理
+     */
+    private boolean isReference(Client.FrameInfo frame) {
+        mHevc = frame.codec != EASY_SDK_VIDEO_CODEC_H264;
+        mReference = true;
+        AnnexBScanner scanner = mHevc ? mHevcScanner : mAvcScanner;
+        scanner.reset();
+        int limit = frame.offset + frame.length;
+        if (frame.buffer != null) {
+            scanner.scan(frame.buffer, frame.offset, limit, true);
+        }
+        return mReference;
+    }
+
+    @Override
+    public boolean onNalUnit(ByteBuffer data, int offset, int length, int type, int flags) {
+        if ((flags & AnnexBScanner.FLAG_START) == 0) {
+            return true;
+        }
+        if (mHevc) {
+            if (type < NalUnitUtil.H265_NAL_VPS) {
+                // TRAIL_N、TSA_N、STSA_N、RADL_N、RASL_N 和保留的 RSV_VCL_N10/12/14 是子层非参考帧
+                mReference = type > 14 || (type & 1) != 0;
+                return false;
+            }
+        } else if (type >= 1 && type <= NalUnitUtil.H264_NAL_IDR) {
+            mReference = (data.get(offset) >> 5 & 3) != 0;
+            return false;
+        }
+        return true;
+    }
+
+    public int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * 最近一个统计窗口里解码消耗的码流时长与到达时长之比，小于1表示解码跟不上
+     */
+    public float getDecodeRatio() {
+        return mRatio;
+    }
+
+    /**
+     * 最近一个统计窗口末尾超出目标延时的积压
+     */
+    public long getLagUs() {
+        return mLagUs;
+    }
+
+    /**
+     * 丢掉的非参考帧数
+     */
+    public long getNonReferenceDropped() {
+        return mNonReferenceDropped;
+    }
+
+    /**
+     * 等待下一个关键帧期间丢掉的帧数
+     */
+    public long getKeyFrameDropped() {
+        return mKeyFrameDropped;
+    }
+
+    /**
+     * 丢到关键帧后恢复解码的次数
+     */
+    public long getKeyFrameSkips() {
+        return mKeyFrameSkips;
+    }
+
+    /**
+     * 丢帧级别升高的次数
+     */
+    public long getEscalations() {
+        return mEscalations;
+    }
+
+    @Override
+    public String toString() {
+        return "LoadShedder{" + "level=" + mLevel + ", ratio=" + mRatio + ", lag=" + mLagUs + ", nonRefDropped=" + mNonReferenceDropped + ", keyFrameDropped=" + mKeyFrameDropped + ", keyFrameSkips=" + mKeyFrameSkips + ", escalations=" + mEscalations + '}';
+    }
+}
@@ -0,0 +1,174 @@
+package org.easydarwin.video;
+
+import android.media.AudioTimestamp;
+import android.media.AudioTrack;
+
+/**
+ * 以音频为主的播放时钟。
+ * <p>
+ * 音频线程每写一段PCM就调用 {@link #onAudioWritten}，根据 {@link AudioTrack#getTimestamp} (不可用时退回
+ * {@link AudioTrack#getPlaybackHeadPosition})算出正在播放的采样对应的时间戳，作为时钟的锚点；
+ * 视频线程用 {@link #positionUs(long)} 外推当前的音频时间，据此决定立即显示、等待还是丢掉迟到的帧。
+ * <p>
+ * 超过 {@link #STALE_US} 没有更新(静音、暂停、没有音频)时时钟无效，视频退回按抖动缓冲自行定时。
+ * <p>
+ * 所有时间单位都是微秒。
+ */
+public final class MediaClock {
+
+    /**
+     * 锚点超过这个时间没更新就认为音频没在播放
+     */
+    private static final long STALE_US = 500000;
+
+    private final AudioTimestamp mTimestamp = new AudioTimestamp();
+
+    private long mAnchorMediaUs;
+    private long mAnchorSystemUs = -1;
+    /**
+     * 时钟走速：播放倍速 × 实际采样率/标称采样率
+     */
+    private float mRate = 1.0f;
+
+    /**
+     * 自上次flush以来写进AudioTrack的帧数，只在音频线程和flush时访问
+     */
+    private long mWrittenFrames;
+
+    private volatile long mDriftUs;
+    private volatile long mMaxDriftUs;
+    private volatile long mLateFrames;
+    private volatile long mCorrections;
+    private volatile long mPartialWrites;
+    private volatile long mDiscardedAudioBytes;
+
+    synchronized void reset() {
+        mAnchorSystemUs = -1;
+        mWrittenFrames = 0;
+        mDriftUs = 0;
+    }
+
+    /**
+     * AudioTrack被flush之后播放位置归零，已写入的计数也要跟着归零
+     */
+    synchronized void onAudioFlushed() {
+        mAnchorSystemUs = -1;
+        mWrittenFrames = 0;
+    }
+
+    /**
+     * 记录写进AudioTrack的帧数(每声道采样数)，需要和写入在同一个临界区里调用以免与flush交错
+     */
+    synchronized void onFramesWritten(int frames) {
+        mWrittenFrames += frames;
+    }
+
+    /**
+     * 音频线程写完一段PCM后调用，更新时钟锚点
+     *
+     * @param track      正在播放的AudioTrack
+     * @param endStampUs 本次写入的最后一个采样之后的时间戳
+     * @param sampleRate 码流的标称采样率
+     * @param rate       时钟走速
+     * @param nowUs      System.nanoTime()/1000
+     */
+    synchronized void onAudioWritten(AudioTrack track, long endStampUs, int sampleRate, float rate, long nowUs) {
+        long played;
+        if (track.getTimestamp(mTimestamp)) {
+            // 时间戳是过去某一时刻的位置，外推到现在
+            long elapsedUs = nowUs - mTimestamp.nanoTime / 1000;
+            played = mTimestamp.framePosition + (long) (elapsedUs * (double) sampleRate * rate / 1000000);
+        } else {
+            // 32位无符号数
+            played = track.getPlaybackHeadPosition() & 0xFFFFFFFFL;
+        }
+
+        long pending = Math.max(0, mWrittenFrames - played);
+        mAnchorMediaUs = endStampUs - pending * 1000000 / sampleRate;
+        mAnchorSystemUs = nowUs;
+        mRate = rate;
+    }
+
+    synchronized void onPartialWrite() {
+        mPartialWrites++;
+    }
+
+    synchronized void onAudioDiscarded(int bytes) {
+        mDiscardedAudioBytes += bytes;
+    }
+
+    /**
+     * 当前正在播放的音频时间戳，时钟无效时返回-1
+     */
+    synchronized long positionUs(long nowUs) {
+        if (mAnchorSystemUs < 0 || nowUs - mAnchorSystemUs > STALE_US) {
+            return -1;
+        }
+        return mAnchorMediaUs + (long) ((nowUs - mAnchorSystemUs) * mRate);
+    }
+
+    /**
+     * 记录视频帧相对音频的偏差，正数表示视频超前
+     */
+    synchronized void onVideoSync(long driftUs, boolean late, boolean corrected) {
+        mDriftUs += (driftUs - mDriftUs) / 8;
+        mMaxDriftUs = Math.max(mMaxDriftUs, Math.abs(driftUs));
+        if (late) {
+            mLateFrames++;
+        }
+        if (corrected) {
+            mCorrections++;
+        }
+    }
+
+    /**
+     * 音频时钟当前是否有效
+     */
+    public boolean isValid() {
+        return positionUs(System.nanoTime() / 1000) >= 0;
+    }
+
+    /**
+     * 视频相对音频的平均偏差(修正前)，正数表示视频超前
+     */
+    public long getDriftUs() {
+        return mDriftUs;
+    }
+
+    public long getMaxDriftUs() {
+        return mMaxDriftUs;
+    }
+
+    /**
+     * 因落后于音频而丢掉的视频帧数
+     */
+    public long getLateFrames() {
+        return mLateFrames;
+    }
+
+    /**
+     * 按音频时钟等待或丢帧做过修正的次数
+     */
+    public long getCorrections() {
+        return mCorrections;
+    }
+
+    /**
+     * AudioTrack缓冲满、一次没写完的次数
+     */
+    public long getPartialWrites() {
+        return mPartialWrites;
+    }
+
+    /**
+     * 因AudioTrack没在播放而没写进去的音频字节数
+     */
+    public long getDiscardedAudioBytes() {
+        return mDiscardedAudioBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "MediaClock{" + "drift=" + mDriftUs + ", maxDrift=" + mMaxDriftUs + ", lateFrames=" + mLateFrames + ", corrections=" + mCorrections + ", partialWrites=" + mPartialWrites + ", discardedAudioBytes=" + mDiscardedAudioBytes + '}';
+    }
+}
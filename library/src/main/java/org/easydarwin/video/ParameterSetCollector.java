@@ -0,0 +1,103 @@
+package org.easydarwin.video;
+
+import org.easydarwin.util.AnnexBScanner;
+import org.easydarwin.util.NalUnitUtil;
+
+import java.nio.ByteBuffer;
+
+import static org.easydarwin.video.EasyPlayerClient.EASY_SDK_VIDEO_CODEC_H264;
+
+/**
+ * 从关键帧开头取出参数集(VPS/SPS/PPS)。
+ * <p>
+ * 直接在帧数据上扫描，遇到第一个slice就停止，不需要先把帧拷成数组。
+ * 取出的参数集各自带4字节起始码，可以直接作为 MediaCodec 的csd。只在生产者线程使用。
+ */
+final class ParameterSetCollector implements AnnexBScanner.Listener {
+
+    private static final byte[] START_CODE = {0, 0, 0, 1};
+
+    private final AnnexBScanner mAvcScanner = new AnnexBScanner(false, this);
+    private final AnnexBScanner mHevcScanner = new AnnexBScanner(true, this);
+    private boolean mHevc;
+
+    ByteBuffer vps;
+    ByteBuffer sps;
+    ByteBuffer pps;
+
+    /**
+     * 扫描一帧
+     *
+     * @return 是否找到了SPS
+     */
+    boolean collect(Client.FrameInfo frameInfo) {
+        vps = sps = pps = null;
+        mHevc = frameInfo.codec != EASY_SDK_VIDEO_CODEC_H264;
+        AnnexBScanner scanner = mHevc ? mHevcScanner : mAvcScanner;
+        scanner.reset();
+        int limit = frameInfo.offset + frameInfo.length;
+        if (frameInfo.buffer != null) {
+            scanner.scan(frameInfo.buffer, frameInfo.offset, limit, true);
+        }
+        return sps != null;
+    }
+
+    /**
+     * 解析找到的SPS，没有或解析失败时返回null
+     */
+    NalUnitUtil.SpsData parseSps() {
+        if (sps == null) {
+            return null;
+        }
+        byte[] data = sps.array();
+        int offset = START_CODE.length;
+        return mHevc ? NalUnitUtil.parseH265Sps(data, offset, data.length) : NalUnitUtil.parseH264Sps(data, offset, data.length);
+    }
+
+    /**
+     * 解析找到的VPS，没有或解析失败时返回null
+     */
+    NalUnitUtil.VpsData parseVps() {
+        if (vps == null) {
+            return null;
+        }
+        byte[] data = vps.array();
+        return NalUnitUtil.parseH265Vps(data, START_CODE.length, data.length);
+    }
+
+    @Override
+    public boolean onNalUnit(ByteBuffer data, int offset, int length, int type, int flags) {
+        if (mHevc) {
+            if (type == NalUnitUtil.H265_NAL_VPS) {
+                vps = copy(data, offset, length);
+            } else if (type == NalUnitUtil.H265_NAL_SPS) {
+                sps = copy(data, offset, length);
+            } else if (type == NalUnitUtil.H265_NAL_PPS) {
+                pps = copy(data, offset, length);
+            } else if (type < NalUnitUtil.H265_NAL_VPS) {
+                // slice，参数集都在它前面
+                return false;
+            }
+        } else {
+            if (type == NalUnitUtil.H264_NAL_SPS) {
+                sps = copy(data, offset, length);
+            } else if (type == NalUnitUtil.H264_NAL_PPS) {
+                pps = copy(data, offset, length);
+            } else if (type >= 1 && type <= NalUnitUtil.H264_NAL_IDR) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ByteBuffer copy(ByteBuffer data, int offset, int length) {
+        ByteBuffer nal = ByteBuffer.allocate(START_CODE.length + length);
+        nal.put(START_CODE);
+        ByteBuffer src = data.duplicate();
+        src.limit(offset + length);
+        src.position(offset);
+        nal.put(src);
+        nal.clear();
+        return nal;
+    }
+}
@@ -0,0 +1,382 @@
+package org.easydarwin.video;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.easydarwin.util.AnnexBScanner;
+import org.easydarwin.util.NalUnitUtil;
+import org.easydarwin.util.ParsableBitArray;
+
+import java.nio.ByteBuffer;
+
+import static org.easydarwin.video.EasyPlayerClient.EASY_SDK_VIDEO_CODEC_H264;
+
+/**
+ * 参考链完整性检查，发现丢包后不再把解不出来的帧送去解码。
+ * <p>
+ * 生产者线程每收到一帧视频调用一次 {@link #accept(Client.FrameInfo, NalUnitUtil.SpsData)}，
+ * native单独送上来的SEI帧调用 {@link #onSei(byte[])}。
+ * H.264的frame_num不连续(SPS允许跳号时除外)时认为参考链断了。
+ * H.265没有frame_num，POC在有B帧时也不按解码顺序递增，只能退而看native报的丢包率：比上一帧高了就认为断了。
+ * 丢包率只说明最近丢过包，不能说明丢的是哪一帧，所以H.264不用它；H.265上可能多丢一些其实能解的帧，
+ * 丢包发生在两帧之间而比率没有变化时也发现不了。
+ * 断了以后丢掉后续的帧，直到下一个关键帧或带恢复点SEI的帧，
+ * 这样既省掉了解码花屏帧的开销，也避免某些硬解码器吃到残缺的参考帧后卡死报错。
+ * <p>
+ * 只在生产者线程使用，统计值可以在任意线程读取。
+ */
+public final class ReferenceTracker implements AnnexBScanner.Listener {
+
+    private static final String TAG = ReferenceTracker.class.getSimpleName();
+
+    private static final int H264_NAL_SEI = 6;
+    private static final int H265_NAL_SEI_PREFIX = 39;
+    private static final int SEI_RECOVERY_POINT = 6;
+    /**
+     * slice头和SEI只需要开头的几十个字节
+     */
+    private static final int HEADER_BYTES = 64;
+
+    private final AnnexBScanner mAvcScanner = new AnnexBScanner(false, this);
+    private final AnnexBScanner mHevcScanner = new AnnexBScanner(true, this);
+    private final byte[] mHeader = new byte[HEADER_BYTES];
+    private final ParsableBitArray mBits = new ParsableBitArray();
+
+    private volatile boolean mEnabled = true;
+    private boolean mHevc;
+    private NalUnitUtil.SpsData mSps;
+
+    /**
+     * 扫描一帧的结果
+     */
+    private boolean mRecoveryPoint;
+    private int mFrameNum;
+    private int mRefIdc;
+
+    /**
+     * 上一个参考帧的frame_num，-1表示未知
+     */
+    private int mPrevRefFrameNum = -1;
+    /**
+     * 上一帧H.265的丢包率，负数表示未知
+     */
+    private float mPrevLoss = -1;
+    /**
+     * 单独收到的SEI里有恢复点，作用于下一帧
+     */
+    private boolean mSeiRecoveryPoint;
+
+    private volatile boolean mBroken;
+    private long mBrokenAt;
+    private int mGapFrames;
+
+    private volatile long mGaps;
+    private volatile long mRecovered;
+    private volatile long mDroppedFrames;
+    private volatile long mLastGapMs;
+    private volatile int mLastGapFrames;
+
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * 新的码流，忘掉之前的参考关系，计数保留
+     */
+    void reset() {
+        mPrevRefFrameNum = -1;
+        mPrevLoss = -1;
+        mSeiRecoveryPoint = false;
+        mBroken = false;
+        mGapFrames = 0;
+    }
+
+    /**
+     * 收到一帧视频时调用
+     *
+     * @param sps 当前码流的SPS，没有时不检查frame_num
+     * @return 这一帧可以送去解码
+     */
+    boolean accept(Client.FrameInfo frame, NalUnitUtil.SpsData sps) {
+        if (!mEnabled) {
+            return true;
+        }
+        boolean key = frame.type == 1;
+        scan(frame, sps);
+        boolean lossRose = lossRose(frame);
+        mRecoveryPoint |= mSeiRecoveryPoint;
+        mSeiRecoveryPoint = false;
+
+        if (mBroken) {
+            if (!key && !mRecoveryPoint) {
+                mGapFrames++;
+                mDroppedFrames++;
+                return false;
+            }
+            mBroken = false;
+            mRecovered++;
+            mLastGapMs = SystemClock.elapsedRealtime() - mBrokenAt;
+            mLastGapFrames = mGapFrames;
+            Log.i(TAG, String.format("recovered at %s after %d ms, %d frames dropped", key ? "key frame" : "recovery point", mLastGapMs, mGapFrames));
+            trackFrameNum(key);
+            return true;
+        }
+
+        if (!key && (frameNumGap() || lossRose)) {
+            if (mHevc) {
+                Log.w(TAG, String.format("packet loss rose to %.4f, waiting for key frame", frame.losspacket));
+            } else {
+                Log.w(TAG, String.format("reference chain broken(frame_num %d after %d), waiting for key frame", mFrameNum, mPrevRefFrameNum));
+            }
+            mBroken = true;
+            mBrokenAt = SystemClock.elapsedRealtime();
+            mGapFrames = 1;
+            mGaps++;
+            mDroppedFrames++;
+            mPrevRefFrameNum = -1;
+            return false;
+        }
+        trackFrameNum(key);
+        return true;
+    }
+
+    /**
+     * native单独送上来的SEI帧(EASY_SDK_SEI_FRAME_FLAG)，可能带起始码，也可能只是一个NAL或者SEI消息本身。
+     * 有恢复点时下一帧视频可以结束等待
+     */
+    void onSei(byte[] sei) {
+        if (!mEnabled || sei == null || sei.length == 0) {
+            return;
+        }
+        boolean recoveryPoint;
+        if (AnnexBScanner.findStartCode(sei, 0, Math.min(sei.length, 5)) >= 0) {
+            // 编码格式沿用上一帧视频的
+            mRecoveryPoint = false;
+            int frameNum = mFrameNum;
+            int refIdc = mRefIdc;
+            AnnexBScanner scanner = mHevc ? mHevcScanner : mAvcScanner;
+            scanner.reset();
+            scanner.scan(sei, 0, sei.length, true);
+            recoveryPoint = mRecoveryPoint;
+            mFrameNum = frameNum;
+            mRefIdc = refIdc;
+        } else {
+            ByteBuffer data = ByteBuffer.wrap(sei);
+            int header = 0;
+            if (mHevc ? (sei[0] >> 1 & 0x3F) == H265_NAL_SEI_PREFIX : (sei[0] & 0x1F) == H264_NAL_SEI) {
+                header = mHevc ? 2 : 1;
+            }
+            recoveryPoint = hasRecoveryPoint(data, header, sei.length - header);
+        }
+        mSeiRecoveryPoint |= recoveryPoint;
+    }
+
+    private void scan(Client.FrameInfo frame, NalUnitUtil.SpsData sps) {
+        mHevc = frame.codec != EASY_SDK_VIDEO_CODEC_H264;
+        mSps = sps != null && sps.hevc == mHevc ? sps : null;
+        mRecoveryPoint = false;
+        mFrameNum = -1;
+        mRefIdc = -1;
+        AnnexBScanner scanner = mHevc ? mHevcScanner : mAvcScanner;
+        scanner.reset();
+        int limit = frame.offset + frame.length;
+        if (frame.buffer != null) {
+            scanner.scan(frame.buffer, frame.offset, limit, true);
+        }
+    }
+
+    /**
+     * frame_num 既不等于上一个参考帧的(同一帧的另一场)，也不是它加一
+     */
+    private boolean frameNumGap() {
+        NalUnitUtil.SpsData sps = mSps;
+        if (mHevc || sps == null || sps.gapsInFrameNumAllowed || mFrameNum < 0 || mPrevRefFrameNum < 0) {
+            return false;
+        }
+        int max = 1 << sps.frameNumLength;
+        return mFrameNum != mPrevRefFrameNum && mFrameNum != (mPrevRefFrameNum + 1) % max;
+    }
+
+    /**
+     * H.265的丢包率比上一帧高，其它编码格式总是false
+     */
+    private boolean lossRose(Client.FrameInfo frame) {
+        if (!mHevc) {
+            mPrevLoss = -1;
+            return false;
+        }
+        float prev = mPrevLoss;
+        mPrevLoss = frame.losspacket;
+        return prev >= 0 && frame.losspacket > prev;
+    }
+
+    private void trackFrameNum(boolean key) {
+        if (mFrameNum < 0) {
+            mPrevRefFrameNum = -1;
+        } else if (key || mRefIdc != 0) {
+            mPrevRefFrameNum = mFrameNum;
+        }
+    }
+
+    @Override
+    public boolean onNalUnit(ByteBuffer data, int offset, int length, int type, int flags) {
+        if ((flags & AnnexBScanner.FLAG_START) == 0) {
+            return true;
+        }
+        if (mHevc) {
+            if (type == H265_NAL_SEI_PREFIX) {
+                // 2字节NAL头
+                mRecoveryPoint |= hasRecoveryPoint(data, offset + 2, length - 2);
+                return true;
+            }
+            // 遇到slice就停止
+            return type >= NalUnitUtil.H265_NAL_VPS;
+        }
+        if (type == H264_NAL_SEI) {
+            mRecoveryPoint |= hasRecoveryPoint(data, offset + 1, length - 1);
+            return true;
+        }
+        if (type >= 1 && type <= NalUnitUtil.H264_NAL_IDR) {
+            mRefIdc = data.get(offset) >> 5 & 3;
+            parseFrameNum(data, offset + 1, length - 1);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 读出H.264 slice头里的frame_num
+     */
+    private void parseFrameNum(ByteBuffer data, int offset, int length) {
+        NalUnitUtil.SpsData sps = mSps;
+        if (sps == null) {
+            return;
+        }
+        int size = unescape(data, offset, length);
+        mBits.reset(mHeader, size);
+        try {
+            mBits.readUnsignedExpGolombCodedInt(); // first_mb_in_slice
+            mBits.readUnsignedExpGolombCodedInt(); // slice_type
+            mBits.readUnsignedExpGolombCodedInt(); // pic_parameter_set_id
+            int bits = (sps.separateColorPlane ? 2 : 0) + sps.frameNumLength;
+            if (mBits.bitsLeft() < bits) {
+                return;
+            }
+            if (sps.separateColorPlane) {
+                mBits.skipBits(2); // colour_plane_id
+            }
+            mFrameNum = mBits.readBits(sps.frameNumLength);
+        } catch (IllegalStateException e) {
+            mFrameNum = -1;
+        }
+    }
+
+    /**
+     * SEI里是否有recovery_point消息
+     */
+    private boolean hasRecoveryPoint(ByteBuffer data, int offset, int length) {
+        int size = unescape(data, offset, length);
+        int i = 0;
+        while (i < size) {
+            int payloadType = 0;
+            while (i < size && (mHeader[i] & 0xFF) == 0xFF) {
+                payloadType += 255;
+                i++;
+            }
+            if (i >= size) {
+                return false;
+            }
+            payloadType += mHeader[i++] & 0xFF;
+            if (payloadType == SEI_RECOVERY_POINT) {
+                return true;
+            }
+            int payloadSize = 0;
+            while (i < size && (mHeader[i] & 0xFF) == 0xFF) {
+                payloadSize += 255;
+                i++;
+            }
+            if (i >= size) {
+                return false;
+            }
+            payloadSize += mHeader[i++] & 0xFF;
+            i += payloadSize;
+            if (i < size && (mHeader[i] & 0xFF) == 0x80) {
+                // rbsp_trailing_bits
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 把NAL开头的数据去掉防竞争字节后拷到 mHeader
+     *
+     * @return 拷贝的字节数
+     */
+    private int unescape(ByteBuffer data, int offset, int length) {
+        int size = 0;
+        int zeros = 0;
+        int end = offset + length;
+        for (int i = offset; i < end && size < HEADER_BYTES; i++) {
+            byte b = data.get(i);
+            if (zeros >= 2 && b == 3) {
+                zeros = 0;
+                continue;
+            }
+            zeros = b == 0 ? zeros + 1 : 0;
+            mHeader[size++] = b;
+        }
+        return size;
+    }
+
+    /**
+     * 发现参考链断开的次数
+     */
+    public long getGaps() {
+        return mGaps;
+    }
+
+    /**
+     * 从断开中恢复的次数
+     */
+    public long getRecovered() {
+        return mRecovered;
+    }
+
+    /**
+     * 因为参考链断开没有送去解码的帧数
+     */
+    public long getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    /**
+     * 最近一次恢复前断了多久(毫秒)
+     */
+    public long getLastGapMs() {
+        return mLastGapMs;
+    }
+
+    /**
+     * 最近一次恢复前丢掉的帧数
+     */
+    public int getLastGapFrames() {
+        return mLastGapFrames;
+    }
+
+    /**
+     * 当前是否在等待关键帧
+     */
+    public boolean isWaitingRecovery() {
+        return mBroken;
+    }
+
+    @Override
+    public String toString() {
+        return "ReferenceTracker{" + "gaps=" + mGaps + ", recovered=" + mRecovered + ", dropped=" + mDroppedFrames + ", lastGapMs=" + mLastGapMs + ", lastGapFrames=" + mLastGapFrames + ", waiting=" + mBroken + '}';
+    }
+}
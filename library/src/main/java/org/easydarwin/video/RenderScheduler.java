@@ -0,0 +1,166 @@
+package org.easydarwin.video;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.view.Choreographer;
+import android.view.Display;
+import android.view.WindowManager;
+
+/**
+ * 按屏幕vsync安排视频帧的显示时刻。
+ * <p>
+ * 解码线程算出每帧期望的显示时刻后交给 {@link #schedule(long, boolean)}，得到对齐到vsync的时刻，
+ * 再用 MediaCodec.releaseOutputBuffer(index, renderTimestampNs) 交给系统按时显示，
+ * 解码线程不必为了定时而sleep。同一个vsync只安排一帧，25fps在60Hz屏上会按3:2的节奏均匀分布；
+ * 已经迟到又抢不到自己的vsync的帧直接丢掉。
+ * <p>
+ * vsync时刻由一个共享的 Choreographer 线程采样，没有播放器使用时停止采样。
+ */
+final class RenderScheduler {
+
+    /**
+     * 提前太多的帧先在解码线程粗略地等待，剩下的交给系统。releaseOutputBuffer 只接受一秒以内的时间
+     */
+    static final long MAX_EARLY_US = 50000;
+
+    private final long mVsyncDurationNs;
+    /**
+     * 提交时间比vsync提前一些，留给SurfaceFlinger合成
+     */
+    private final long mVsyncOffsetNs;
+
+    private long mLastReleaseTimeNs = -1;
+
+    private volatile long mScheduledFrames;
+    private volatile long mDroppedFrames;
+
+    RenderScheduler(Context context) {
+        float refreshRate = 60;
+        WindowManager wm = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        if (wm != null) {
+            Display display = wm.getDefaultDisplay();
+            if (display != null && display.getRefreshRate() > 0) {
+                refreshRate = display.getRefreshRate();
+            }
+        }
+        mVsyncDurationNs = (long) (1000000000L / refreshRate);
+        mVsyncOffsetNs = mVsyncDurationNs * 80 / 100;
+    }
+
+    void enable() {
+        VsyncSampler.getInstance().addObserver();
+        mLastReleaseTimeNs = -1;
+    }
+
+    void disable() {
+        VsyncSampler.getInstance().removeObserver();
+    }
+
+    long vsyncDurationNs() {
+        return mVsyncDurationNs;
+    }
+
+    /**
+     * 安排一帧的显示时刻
+     *
+     * @param targetNs 期望的显示时刻(System.nanoTime)
+     * @param late     该帧是否已经过了期望的显示时刻
+     * @return 对齐到vsync之后应传给 releaseOutputBuffer 的时刻，-1表示该帧应丢掉
+     */
+    long schedule(long targetNs, boolean late) {
+        long releaseNs = closestVsync(targetNs);
+        if (mLastReleaseTimeNs >= 0 && releaseNs <= mLastReleaseTimeNs) {
+            // 这个vsync已经安排了上一帧，顺延到下一个
+            releaseNs = mLastReleaseTimeNs + mVsyncDurationNs;
+            if (late && releaseNs - targetNs > mVsyncDurationNs) {
+                mDroppedFrames++;
+                return -1;
+            }
+        }
+        mLastReleaseTimeNs = releaseNs;
+        mScheduledFrames++;
+        return releaseNs - mVsyncOffsetNs;
+    }
+
+    private long closestVsync(long targetNs) {
+        long vsyncNs = VsyncSampler.getInstance().sampledVsyncTimeNs;
+        if (vsyncNs == 0) {
+            return targetNs;
+        }
+        long periods = Math.round((targetNs - vsyncNs) / (double) mVsyncDurationNs);
+        return vsyncNs + periods * mVsyncDurationNs;
+    }
+
+    long scheduledFrames() {
+        return mScheduledFrames;
+    }
+
+    long droppedFrames() {
+        return mDroppedFrames;
+    }
+
+    /**
+     * 在独立的线程上用 Choreographer 采样最近一次vsync的时刻
+     */
+    private static final class VsyncSampler implements Choreographer.FrameCallback, Handler.Callback {
+
+        private static final int MSG_ADD_OBSERVER = 1;
+        private static final int MSG_REMOVE_OBSERVER = 2;
+
+        private static final VsyncSampler sInstance = new VsyncSampler();
+
+        volatile long sampledVsyncTimeNs;
+
+        private final Handler mHandler;
+        private Choreographer mChoreographer;
+        private int mObserverCount;
+
+        private VsyncSampler() {
+            HandlerThread thread = new HandlerThread("VSYNC_SAMPLER");
+            thread.start();
+            mHandler = new Handler(thread.getLooper(), this);
+        }
+
+        static VsyncSampler getInstance() {
+            return sInstance;
+        }
+
+        void addObserver() {
+            mHandler.sendEmptyMessage(MSG_ADD_OBSERVER);
+        }
+
+        void removeObserver() {
+            mHandler.sendEmptyMessage(MSG_REMOVE_OBSERVER);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            sampledVsyncTimeNs = frameTimeNanos;
+            mChoreographer.postFrameCallbackDelayed(this, 500);
+        }
+
+        @Override
+        public boolean handleMessage(Message msg) {
+            switch (msg.what) {
+                case MSG_ADD_OBSERVER:
+                    if (mChoreographer == null) {
+                        mChoreographer = Choreographer.getInstance();
+                    }
+                    if (mObserverCount++ == 0) {
+                        mChoreographer.postFrameCallback(this);
+                    }
+                    return true;
+                case MSG_REMOVE_OBSERVER:
+                    if (--mObserverCount == 0) {
+                        mChoreographer.removeFrameCallback(this);
+                        sampledVsyncTimeNs = 0;
+                    }
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+}
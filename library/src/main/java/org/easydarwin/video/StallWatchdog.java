@@ -0,0 +1,212 @@
+package org.easydarwin.video;
+
+import android.util.Log;
+
+import org.easydarwin.util.NalUnitUtil;
+
+/**
+ * 硬解码器卡死检测。
+ * <p>
+ * 有的codec在换surface或吃到残缺数据之后不再输出，解码循环一直拿到 INFO_TRY_AGAIN_LATER，画面就冻住了。
+ * 输入还在送(或者有帧等着送)而超过 {@link #getTimeoutMs()} 没有任何输出时判定为卡死：
+ * 第一次先 flush 并从最新的关键帧重新开始，还不出图再重建codec。
+ * <p>
+ * codec启动后要等到第一个输出才开始检测，之前没有可比较的基准；有重排序的码流(B帧)解码器会先攒够
+ * DPB 才出图，所以未输出的帧数门限和超时都按SPS声明的重排序深度放宽，超时另加深度乘以帧间隔。
+ * <p>
+ * 由解码线程(异步解码时是回调线程)调用，统计值可以在任意线程读取。时间单位都是毫秒。
+ */
+public final class StallWatchdog {
+
+    private static final String TAG = StallWatchdog.class.getSimpleName();
+
+    public static final long DEFAULT_TIMEOUT_MS = 400;
+
+    static final int ACTION_NONE = 0;
+    static final int ACTION_FLUSH = 1;
+    static final int ACTION_RECREATE = 2;
+
+    /**
+     * 重排序深度之外再送进去这么多帧还没有输出才可能是卡死
+     */
+    static final int MIN_PENDING_INPUTS = 2;
+    /**
+     * 估算帧间隔时单个间隔的上限，码流停顿不计入
+     */
+    static final long MAX_FRAME_INTERVAL_MS = 200;
+
+    private volatile long mTimeoutMs = DEFAULT_TIMEOUT_MS;
+
+    private long mLastInputMs;
+    private long mLastOutputMs;
+    private long mLastActionMs;
+    private int mPendingInputs;
+    private boolean mFlushed;
+    /**
+     * 当前codec出过图，之后才开始检测
+     */
+    private boolean mArmed;
+    /**
+     * codec输出第一帧前最多缓存的帧数
+     */
+    private int mReorderDepth;
+    /**
+     * 输入帧间隔的平滑值，0表示还不知道
+     */
+    private long mFrameIntervalMs;
+    /**
+     * 判定卡死的时刻，-1表示没有卡死
+     */
+    private long mStalledAt = -1;
+
+    private volatile long mStalls;
+    private volatile long mFlushes;
+    private volatile long mRecreates;
+    private volatile long mRecoveries;
+    private volatile long mLastRecoveryMs;
+    private volatile long mMaxRecoveryMs;
+
+    public void setTimeoutMs(long timeoutMs) {
+        mTimeoutMs = timeoutMs;
+    }
+
+    public long getTimeoutMs() {
+        return mTimeoutMs;
+    }
+
+    /**
+     * 新的播放，计数保留
+     */
+    synchronized void reset() {
+        mPendingInputs = 0;
+        mFlushed = false;
+        mArmed = false;
+        mFrameIntervalMs = 0;
+        mStalledAt = -1;
+    }
+
+    /**
+     * codec创建(或重建)完成。正常起播要等第一个输出才开始检测；卡死恢复中的话继续计时，直到有输出
+     *
+     * @param reorderDepth 码流的重排序深度(帧)，见 {@link #reorderDepth(NalUnitUtil.SpsData)}
+     */
+    synchronized void onCodecStarted(long nowMs, int reorderDepth) {
+        mLastOutputMs = mLastInputMs = mLastActionMs = nowMs;
+        mPendingInputs = 0;
+        mFlushed = false;
+        mArmed = mStalledAt >= 0;
+        mReorderDepth = Math.max(0, reorderDepth);
+    }
+
+    synchronized void onInput(long nowMs) {
+        if (mPendingInputs > 0 || mArmed) {
+            long interval = Math.min(nowMs - mLastInputMs, MAX_FRAME_INTERVAL_MS);
+            mFrameIntervalMs = mFrameIntervalMs == 0 ? interval : (mFrameIntervalMs * 7 + interval) / 8;
+        }
+        mLastInputMs = nowMs;
+        mPendingInputs++;
+    }
+
+    synchronized void onOutput(long nowMs) {
+        mLastOutputMs = nowMs;
+        mPendingInputs = 0;
+        mFlushed = false;
+        mArmed = true;
+        if (mStalledAt >= 0) {
+            long recovery = nowMs - mStalledAt;
+            mStalledAt = -1;
+            mRecoveries++;
+            mLastRecoveryMs = recovery;
+            mMaxRecoveryMs = Math.max(mMaxRecoveryMs, recovery);
+            Log.i(TAG, String.format("decoder recovered from stall in %d ms", recovery));
+        }
+    }
+
+    /**
+     * 没有输出时调用
+     *
+     * @param inputWaiting 有帧等着送进codec(比如输入缓冲一直不空出来)
+     * @return {@link #ACTION_NONE}、{@link #ACTION_FLUSH} 或 {@link #ACTION_RECREATE}
+     */
+    synchronized int check(long nowMs, boolean inputWaiting) {
+        long timeout = mTimeoutMs;
+        if (timeout <= 0 || !mArmed || mPendingInputs < MIN_PENDING_INPUTS + mReorderDepth) {
+            return ACTION_NONE;
+        }
+        timeout += mReorderDepth * mFrameIntervalMs;
+        if (!inputWaiting && nowMs - mLastInputMs > timeout) {
+            // 输入停了(比如码流中断)，不算codec的问题
+            return ACTION_NONE;
+        }
+        if (nowMs - Math.max(mLastOutputMs, mLastActionMs) < timeout) {
+            return ACTION_NONE;
+        }
+        if (mStalledAt < 0) {
+            mStalledAt = mLastOutputMs;
+            mStalls++;
+        }
+        mLastActionMs = nowMs;
+        mPendingInputs = 0;
+        if (!mFlushed) {
+            mFlushed = true;
+            mFlushes++;
+            Log.w(TAG, String.format("no output for %d ms, flush decoder", nowMs - mLastOutputMs));
+            return ACTION_FLUSH;
+        }
+        mFlushed = false;
+        mRecreates++;
+        Log.w(TAG, String.format("no output for %d ms after flush, recreate decoder", nowMs - mLastOutputMs));
+        return ACTION_RECREATE;
+    }
+
+    /**
+     * 解码器在输出第一帧之前可能缓存的帧数：SPS声明了重排序深度就用它，否则没有B帧时为0，有B帧时按DPB大小算
+     */
+    static int reorderDepth(NalUnitUtil.SpsData sps) {
+        if (sps == null) {
+            return 0;
+        }
+        if (sps.maxNumReorderFrames >= 0) {
+            return sps.maxNumReorderFrames;
+        }
+        return sps.isReorderFree() ? 0 : sps.maxDecFrameBuffering;
+    }
+
+    /**
+     * 发生卡死的次数
+     */
+    public long getStalls() {
+        return mStalls;
+    }
+
+    public long getFlushes() {
+        return mFlushes;
+    }
+
+    public long getRecreates() {
+        return mRecreates;
+    }
+
+    /**
+     * 卡死后恢复出图的次数
+     */
+    public long getRecoveries() {
+        return mRecoveries;
+    }
+
+    /**
+     * 最近一次从最后一个输出到恢复出图的时长
+     */
+    public long getLastRecoveryMs() {
+        return mLastRecoveryMs;
+    }
+
+    public long getMaxRecoveryMs() {
+        return mMaxRecoveryMs;
+    }
+
+    @Override
+    public String toString() {
+        return "StallWatchdog{" + "stalls=" + mStalls + ", flushes=" + mFlushes + ", recreates=" + mRecreates + ", recoveries=" + mRecoveries + ", lastRecoveryMs=" + mLastRecoveryMs + ", maxRecoveryMs=" + mMaxRecoveryMs + '}';
+    }
+}
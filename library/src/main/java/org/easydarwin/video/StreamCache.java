@@ -0,0 +1,264 @@
+package org.easydarwin.video;
+
+import org.easydarwin.util.NalUnitUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按URL缓存码流最近的参数集和GOP，进程内所有播放器共用。
+ * <p>
+ * 重连或切换到缓存过的码流时，{@link EasyPlayerClient} 先把缓存的GOP送去解码，马上显示最近的画面，
+ * 同时等待直播流的关键帧。每条码流只保留从最近一个关键帧开始的帧，总字节数超过上限时按最近最少使用淘汰。
+ * <p>
+ * 缓存帧的数组来自自己的 {@link FramePool}，新的GOP开始时上一个GOP的数组回到池里，
+ * 收帧线程上不会每帧都分配新数组。
+ */
+public final class StreamCache {
+
+    public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * 每个大小档位最多留多少个替换下来的数组，够一个GOP用
+     */
+    private static final int BUFFERS_PER_SIZE = 64;
+
+    private static final StreamCache sDefault = new StreamCache(DEFAULT_MAX_BYTES);
+
+    /**
+     * 缓存的一帧，数据从 data 的开头算起，数组可能比 length 长
+     */
+    static final class Sample {
+        final byte[] data;
+        final int length;
+        final long stamp;
+        final int type;
+
+        Sample(byte[] data, int length, long stamp, int type) {
+            this.data = data;
+            this.length = length;
+            this.stamp = stamp;
+            this.type = type;
+        }
+    }
+
+    /**
+     * 一条码流的缓存，取出时是一份快照，之后的写入不会影响它
+     */
+    static final class Entry {
+        int codec;
+        short width, height;
+        ByteBuffer csd0, csd1;
+        NalUnitUtil.SpsData sps;
+        List<Sample> gop = new ArrayList<>();
+        long bytes;
+        /**
+         * 当前GOP超过单条上限，后面的帧不再缓存，直到下一个关键帧
+         */
+        boolean full;
+    }
+
+    /**
+     * 按访问顺序排列，第一个是最久没用的
+     */
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mMaxBytes;
+    private long mBytes;
+    /**
+     * 缓存帧用的数组，替换掉的GOP最多留单条码流的上限那么多
+     */
+    private FramePool mBuffers;
+
+    private long mHits, mMisses;
+
+    /**
+     * @param maxBytes 所有码流缓存的总字节数上限，单条码流最多占四分之一
+     */
+    public StreamCache(long maxBytes) {
+        mMaxBytes = maxBytes;
+        mBuffers = new FramePool(0, BUFFERS_PER_SIZE, maxBytes / 4);
+    }
+
+    public static StreamCache getDefault() {
+        return sDefault;
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        mBuffers = new FramePool(0, BUFFERS_PER_SIZE, maxBytes / 4);
+        evict(null);
+    }
+
+    public synchronized long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * 当前缓存的总字节数
+     */
+    public synchronized long bytes() {
+        return mBytes;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized long hits() {
+        return mHits;
+    }
+
+    public synchronized long misses() {
+        return mMisses;
+    }
+
+    /**
+     * 丢掉某条码流的缓存，比如码流参数已经变了
+     */
+    public synchronized void remove(String url) {
+        Entry entry = mEntries.remove(url);
+        if (entry != null) {
+            mBytes -= entry.bytes;
+            recycle(entry.gop);
+        }
+    }
+
+    /**
+     * 清空所有缓存，内存紧张时调用
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+        mBytes = 0;
+        mBuffers.trim();
+    }
+
+    /**
+     * 收到一帧视频时调用(生产者线程)。关键帧开始新的GOP，其它帧追加到当前GOP后面。
+     *
+     * @param csd0 当前的csd-0，带起始码
+     * @param csd1 当前的csd-1，H.265为null
+     * @param sps  解析出的SPS，可以为null
+     */
+    synchronized void onVideoFrame(String url, Client.FrameInfo frame, ByteBuffer csd0, ByteBuffer csd1, NalUnitUtil.SpsData sps) {
+        if (url == null || frame.length <= 0) {
+            return;
+        }
+        long limit = mMaxBytes / 4;
+        Entry entry = mEntries.get(url);
+        if (frame.type == 1) {
+            if (csd0 == null || frame.length > limit) {
+                if (entry != null) {
+                    // 之前的GOP已经接不上了
+                    entry.full = true;
+                }
+                return;
+            }
+            if (entry == null) {
+                entry = new Entry();
+                mEntries.put(url, entry);
+            }
+            mBytes -= entry.bytes;
+            recycle(entry.gop);
+            entry.codec = frame.codec;
+            entry.width = frame.width;
+            entry.height = frame.height;
+            entry.csd0 = csd0;
+            entry.csd1 = csd1;
+            entry.sps = sps;
+            entry.gop = new ArrayList<>();
+            entry.bytes = 0;
+            entry.full = false;
+        } else if (entry == null || entry.full) {
+            return;
+        } else if (entry.bytes + frame.length > limit) {
+            entry.full = true;
+            return;
+        }
+
+        byte[] data = mBuffers.obtainBuffer(frame.length);
+        System.arraycopy(frame.buffer, frame.offset, data, 0, frame.length);
+        entry.gop.add(new Sample(data, frame.length, frame.stamp, frame.type));
+        entry.bytes += frame.length;
+        mBytes += frame.length;
+        evict(entry);
+    }
+
+    /**
+     * 取出某条码流缓存的快照。帧数据在锁内复制到 {@link FramePool#getDefault()} 的数组里，
+     * 缓存之后回收自己的数组也不影响快照
+     *
+     * @return 没有缓存时返回null
+     */
+    synchronized Entry snapshot(String url) {
+        Entry entry = url == null ? null : mEntries.get(url);
+        if (entry == null || entry.gop.isEmpty()) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        Entry copy = new Entry();
+        copy.codec = entry.codec;
+        copy.width = entry.width;
+        copy.height = entry.height;
+        // csd的内容正好占满整个缓冲，复制一份独立的位置
+        copy.csd0 = (ByteBuffer) entry.csd0.duplicate().clear();
+        copy.csd1 = entry.csd1 == null ? null : (ByteBuffer) entry.csd1.duplicate().clear();
+        copy.sps = entry.sps;
+        FramePool pool = FramePool.getDefault();
+        copy.gop = new ArrayList<>(entry.gop.size());
+        for (Sample sample : entry.gop) {
+            byte[] data = pool.obtainBuffer(sample.length);
+            System.arraycopy(sample.data, 0, data, 0, sample.length);
+            copy.gop.add(new Sample(data, sample.length, sample.stamp, sample.type));
+        }
+        copy.bytes = entry.bytes;
+        copy.full = entry.full;
+        return copy;
+    }
+
+    /**
+     * 把快照里的一帧转成可以入队的帧，数组直接交给帧，用完后和普通帧一样归还到帧池。
+     * 每一帧只能转一次
+     */
+    static Client.FrameInfo toFrame(Entry entry, Sample sample) {
+        Client.FrameInfo frame = FramePool.getDefault().obtainFrame();
+        frame.codec = entry.codec;
+        frame.type = sample.type;
+        frame.width = entry.width;
+        frame.height = entry.height;
+        frame.stamp = sample.stamp;
+        frame.length = sample.length;
+        frame.buffer = sample.data;
+        frame.preroll = true;
+        return frame;
+    }
+
+    /**
+     * 淘汰最久没用的码流直到不超过上限
+     *
+     * @param keep 正在写入的码流，只剩它时不淘汰
+     */
+    private void evict(Entry keep) {
+        Iterator<Map.Entry<String, Entry>> it = mEntries.entrySet().iterator();
+        while (mBytes > mMaxBytes && it.hasNext()) {
+            Entry entry = it.next().getValue();
+            if (entry == keep) {
+                continue;
+            }
+            it.remove();
+            mBytes -= entry.bytes;
+            recycle(entry.gop);
+        }
+    }
+
+    private void recycle(List<Sample> gop) {
+        for (Sample sample : gop) {
+            mBuffers.releaseBuffer(sample.data);
+        }
+        gop.clear();
+    }
+}
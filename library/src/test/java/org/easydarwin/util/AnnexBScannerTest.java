@@ -0,0 +1,223 @@
+package org.easydarwin.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AnnexBScannerTest {
+
+    /**
+     * 把分段回调拼回完整的NAL
+     */
+    private static final class Collector implements AnnexBScanner.Listener {
+        final List<byte[]> nals = new ArrayList<>();
+        final List<Integer> types = new ArrayList<>();
+        private ByteArrayOutputStream mCurrent;
+        int stopAfter = Integer.MAX_VALUE;
+
+        /**
+         * 扫描器被reset，丢掉没结束的NAL
+         */
+        void abandon() {
+            mCurrent = null;
+        }
+
+        @Override
+        public boolean onNalUnit(ByteBuffer data, int offset, int length, int type, int flags) {
+            if ((flags & AnnexBScanner.FLAG_START) != 0) {
+                assertNull("nal started twice", mCurrent);
+                mCurrent = new ByteArrayOutputStream();
+            }
+            assertNotNull("nal data before start", mCurrent);
+            for (int i = 0; i < length; i++) {
+                mCurrent.write(data.get(offset + i));
+            }
+            if ((flags & AnnexBScanner.FLAG_END) != 0) {
+                nals.add(mCurrent.toByteArray());
+                types.add(type);
+                mCurrent = null;
+                return nals.size() < stopAfter;
+            }
+            return true;
+        }
+    }
+
+    private static final byte[] SPS = {0x67, 0x42, (byte) 0xC0, 0x1E, (byte) 0xDA, 0x02, (byte) 0x80};
+    private static final byte[] PPS = {0x68, (byte) 0xCE, 0x3C, (byte) 0x80};
+    /**
+     * 含防竞争字节和成对的0
+     */
+    private static final byte[] IDR = {0x65, (byte) 0x88, 0x00, 0x00, 0x03, 0x01, 0x00, 0x00, 0x03, 0x00, 0x12, 0x00, 0x34, 0x56, 0x78, (byte) 0x9A, (byte) 0xBC, (byte) 0xDE, (byte) 0xF0, 0x11};
+    private static final byte[] SLICE = {0x41, (byte) 0x9A, 0x00, 0x00, 0x03, 0x02, 0x7F};
+
+    /**
+     * 4字节起始码、3字节起始码、trailing_zero_8bits 都有
+     */
+    private static byte[] stream() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0);
+        out.write(0);
+        out.write(0);
+        out.write(1);
+        out.write(SPS, 0, SPS.length);
+        out.write(0);
+        out.write(0);
+        out.write(1);
+        out.write(PPS, 0, PPS.length);
+        out.write(0);
+        out.write(0);
+        out.write(0);
+        out.write(0);
+        out.write(1);
+        out.write(IDR, 0, IDR.length);
+        out.write(0);
+        out.write(0);
+        out.write(1);
+        out.write(SLICE, 0, SLICE.length);
+        return out.toByteArray();
+    }
+
+    private static void assertNals(Collector collector) {
+        assertEquals(Arrays.asList(7, 8, 5, 1), collector.types);
+        assertArrayEquals(SPS, collector.nals.get(0));
+        assertArrayEquals(PPS, collector.nals.get(1));
+        assertArrayEquals(IDR, collector.nals.get(2));
+        assertArrayEquals(SLICE, collector.nals.get(3));
+    }
+
+    @Test
+    public void scanWholeFrame() {
+        Collector collector = new Collector();
+        byte[] data = stream();
+        assertTrue(new AnnexBScanner(false, collector).scan(data, 0, data.length, true));
+        assertNals(collector);
+    }
+
+    @Test
+    public void splitAtEveryPosition() {
+        byte[] data = stream();
+        for (int split = 0; split <= data.length; split++) {
+            Collector collector = new Collector();
+            AnnexBScanner scanner = new AnnexBScanner(false, collector);
+            scanner.scan(data, 0, split, false);
+            scanner.scan(data, split, data.length, true);
+            assertNals(collector);
+        }
+    }
+
+    @Test
+    public void splitAtEveryPairOfPositions() {
+        byte[] data = stream();
+        for (int first = 0; first <= data.length; first++) {
+            for (int second = first; second <= data.length; second++) {
+                Collector collector = new Collector();
+                AnnexBScanner scanner = new AnnexBScanner(false, collector);
+                scanner.scan(data, 0, first, false);
+                scanner.scan(data, first, second, false);
+                scanner.scan(data, second, data.length, true);
+                assertNals(collector);
+            }
+        }
+    }
+
+    @Test
+    public void oneByteAtATime() {
+        byte[] data = stream();
+        Collector collector = new Collector();
+        AnnexBScanner scanner = new AnnexBScanner(false, collector);
+        for (int i = 0; i < data.length; i++) {
+            // 每段单独分配，不能依赖上一段的数组
+            byte[] one = {data[i]};
+            scanner.scan(one, 0, 1, false);
+        }
+        scanner.scan(new byte[0], 0, 0, true);
+        assertNals(collector);
+    }
+
+    @Test
+    public void segmentsInSeparateBuffers() {
+        byte[] data = stream();
+        for (int split = 0; split <= data.length; split++) {
+            Collector collector = new Collector();
+            AnnexBScanner scanner = new AnnexBScanner(false, collector);
+            scanner.scan(ByteBuffer.wrap(Arrays.copyOfRange(data, 0, split)), 0, split, false);
+            // 直接内存与数组走同样的路径
+            ByteBuffer direct = ByteBuffer.allocateDirect(data.length - split);
+            direct.put(data, split, data.length - split);
+            scanner.scan(direct, 0, data.length - split, true);
+            assertNals(collector);
+        }
+    }
+
+    @Test
+    public void resetDropsPartialNal() {
+        byte[] data = stream();
+        Collector collector = new Collector();
+        AnnexBScanner scanner = new AnnexBScanner(false, collector);
+        scanner.scan(data, 0, 6, false);
+        scanner.reset();
+        collector.abandon();
+        scanner.scan(data, 0, data.length, true);
+        assertNals(collector);
+    }
+
+    @Test
+    public void stopsWhenListenerReturnsFalse() {
+        byte[] data = stream();
+        Collector collector = new Collector();
+        collector.stopAfter = 2;
+        assertFalse(new AnnexBScanner(false, collector).scan(data, 0, data.length, true));
+        assertEquals(Arrays.asList(7, 8), collector.types);
+    }
+
+    @Test
+    public void hevcNalTypes() {
+        byte[] vps = {0x40, 0x01, 0x0C};
+        byte[] idr = {0x26, 0x01, (byte) 0xAF};
+        byte[] data = {0, 0, 0, 1, vps[0], vps[1], vps[2], 0, 0, 1, idr[0], idr[1], idr[2]};
+        Collector collector = new Collector();
+        new AnnexBScanner(true, collector).scan(data, 0, data.length, true);
+        assertEquals(Arrays.asList(32, 19), collector.types);
+        assertArrayEquals(vps, collector.nals.get(0));
+        assertArrayEquals(idr, collector.nals.get(1));
+    }
+
+    @Test
+    public void dataBeforeFirstStartCodeIsIgnored() {
+        byte[] data = {0x12, 0x34, 0x00, 0x00, 0x01, 0x09, (byte) 0xF0};
+        Collector collector = new Collector();
+        new AnnexBScanner(false, collector).scan(data, 0, data.length, true);
+        assertEquals(Arrays.asList(9), collector.types);
+        assertArrayEquals(new byte[]{0x09, (byte) 0xF0}, collector.nals.get(0));
+    }
+
+    @Test
+    public void findStartCodeAtEveryAlignment() {
+        for (int length = 3; length <= 40; length++) {
+            for (int at = 0; at + 3 <= length; at++) {
+                byte[] data = new byte[length];
+                Arrays.fill(data, (byte) 0xFF);
+                data[at] = 0;
+                data[at + 1] = 0;
+                data[at + 2] = 1;
+                assertEquals("length " + length, at, AnnexBScanner.findStartCode(data, 0, length));
+                assertEquals(-1, AnnexBScanner.findStartCode(data, at + 1, length));
+                // 起始码被limit截断时找不到
+                assertEquals(-1, AnnexBScanner.findStartCode(data, 0, at + 2));
+            }
+        }
+    }
+
+    @Test
+    public void findStartCodeSkipsLoneZeros() {
+        byte[] data = {0, 1, 0, 0, 2, 0, 0, 0, 0, 3, 0, 0, 0, 1};
+        assertEquals(11, AnnexBScanner.findStartCode(data, 0, data.length));
+        assertEquals(-1, AnnexBScanner.findStartCode(data, 0, data.length - 1));
+    }
+}
@@ -0,0 +1,131 @@
+package org.easydarwin.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NalUnitUtilTest {
+
+    /**
+     * x264 输出的 1920x1080 High@4.0，带裁剪(编码高度1088)
+     */
+    private static final byte[] AVC_1080P_HIGH = hex("67640028acd940780227e5c044000003000400000300c83c60c658");
+    /**
+     * 1280x720 Main@3.1
+     */
+    private static final byte[] AVC_720P_MAIN = hex("674d401fe8802802dd80b501010140000003004000000c03c60c4480");
+    /**
+     * x265 输出的 1280x720 Main@3.1
+     */
+    private static final byte[] HEVC_720P_MAIN = hex("42010101600000030090000003000003005da00280802d165959a4932bc05a70800001f480003a9804");
+
+    private static byte[] hex(String s) {
+        byte[] data = new byte[s.length() / 2];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) Integer.parseInt(s.substring(i * 2, i * 2 + 2), 16);
+        }
+        return data;
+    }
+
+    private static byte[] annexB(byte[]... nals) {
+        int length = 0;
+        for (byte[] nal : nals) {
+            length += 4 + nal.length;
+        }
+        byte[] data = new byte[length];
+        int offset = 0;
+        for (byte[] nal : nals) {
+            data[offset + 3] = 1;
+            System.arraycopy(nal, 0, data, offset + 4, nal.length);
+            offset += 4 + nal.length;
+        }
+        return data;
+    }
+
+    @Test
+    public void parseH264High1080p() {
+        NalUnitUtil.SpsData sps = NalUnitUtil.parseH264Sps(AVC_1080P_HIGH, 0, AVC_1080P_HIGH.length);
+        assertNotNull(sps);
+        assertFalse(sps.hevc);
+        assertEquals(100, sps.profileIdc);
+        assertEquals(40, sps.levelIdc);
+        assertEquals(1920, sps.codedWidth);
+        assertEquals(1088, sps.codedHeight);
+        assertEquals(1920, sps.width);
+        assertEquals(1080, sps.height);
+        assertEquals(4, sps.maxNumRefFrames);
+        assertEquals(0, sps.picOrderCntType);
+    }
+
+    @Test
+    public void parseH264Main720p() {
+        NalUnitUtil.SpsData sps = NalUnitUtil.parseH264Sps(AVC_720P_MAIN, 0, AVC_720P_MAIN.length);
+        assertNotNull(sps);
+        assertEquals(77, sps.profileIdc);
+        assertEquals(31, sps.levelIdc);
+        assertEquals(1280, sps.width);
+        assertEquals(720, sps.height);
+        assertEquals(3, sps.maxNumRefFrames);
+    }
+
+    @Test
+    public void parseH265Main720p() {
+        NalUnitUtil.SpsData sps = NalUnitUtil.parseH265Sps(HEVC_720P_MAIN, 0, HEVC_720P_MAIN.length);
+        assertNotNull(sps);
+        assertTrue(sps.hevc);
+        assertEquals(1, sps.profileIdc);
+        assertEquals(93, sps.levelIdc);
+        assertEquals(1280, sps.width);
+        assertEquals(720, sps.height);
+    }
+
+    @Test
+    public void parseAtOffsetInsideFrame() {
+        byte[] data = annexB(AVC_720P_MAIN, AVC_1080P_HIGH);
+        int offset = NalUnitUtil.findNalUnit(data, 0, data.length, 7, false);
+        assertEquals(4, offset);
+        offset = NalUnitUtil.findNalUnit(data, offset, data.length, 7, false);
+        assertEquals(8 + AVC_720P_MAIN.length, offset);
+        NalUnitUtil.SpsData sps = NalUnitUtil.parseH264Sps(data, offset, data.length);
+        assertEquals(1080, sps.height);
+    }
+
+    @Test
+    public void findNalUnitMissing() {
+        byte[] data = annexB(AVC_720P_MAIN);
+        assertEquals(-1, NalUnitUtil.findNalUnit(data, 0, data.length, 8, false));
+        assertEquals(-1, NalUnitUtil.findNalUnit(new byte[0], 0, 0, 7, false));
+    }
+
+    @Test
+    public void truncatedSpsReturnsNull() {
+        assertNull(NalUnitUtil.parseH264Sps(AVC_1080P_HIGH, 0, 4));
+    }
+
+    @Test
+    public void maxAccessUnitSizeFollowsCodedSize() {
+        NalUnitUtil.SpsData hd = NalUnitUtil.parseH264Sps(AVC_720P_MAIN, 0, AVC_720P_MAIN.length);
+        NalUnitUtil.SpsData fullHd = NalUnitUtil.parseH264Sps(AVC_1080P_HIGH, 0, AVC_1080P_HIGH.length);
+        assertTrue(hd.maxAccessUnitSize() > 0);
+        assertTrue(fullHd.maxAccessUnitSize() > hd.maxAccessUnitSize());
+        // 不会超过一帧未压缩的数据量
+        assertTrue(fullHd.maxAccessUnitSize() <= 1920 * 1088 * 3 / 2);
+    }
+
+    @Test
+    public void maxAdaptiveSizeNotSmallerThanCodedSize() {
+        NalUnitUtil.SpsData sps = NalUnitUtil.parseH264Sps(AVC_1080P_HIGH, 0, AVC_1080P_HIGH.length);
+        int[] max = sps.maxAdaptiveSize();
+        assertTrue(max[0] >= sps.codedWidth);
+        assertTrue(max[1] >= sps.codedHeight);
+    }
+
+    @Test
+    public void unescapeRemovesEmulationPrevention() {
+        byte[] data = {0x11, 0x00, 0x00, 0x03, 0x01, 0x00, 0x00, 0x03, 0x00, 0x00, 0x03};
+        assertArrayEquals(new byte[]{0x11, 0x00, 0x00, 0x01, 0x00, 0x00, 0x00, 0x00}, NalUnitUtil.unescapeStream(data, 0, data.length));
+        // 03 前面不足两个0时保留
+        byte[] kept = {0x00, 0x03, 0x00, 0x03};
+        assertArrayEquals(kept, NalUnitUtil.unescapeStream(kept, 0, kept.length));
+    }
+}
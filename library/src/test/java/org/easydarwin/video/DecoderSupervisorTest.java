@@ -0,0 +1,40 @@
+package org.easydarwin.video;
+
+import org.junit.Test;
+
+import java.security.InvalidParameterException;
+
+import static org.junit.Assert.*;
+
+public class DecoderSupervisorTest {
+
+    @Test
+    public void missingCsdIsStreamFailure() {
+        assertEquals(DecoderSupervisor.FAILURE_STREAM, DecoderSupervisor.classify(new InvalidParameterException("csd-0 is invalid.")));
+    }
+
+    @Test
+    public void capabilityCheckIsUnsupported() {
+        assertEquals(DecoderSupervisor.FAILURE_UNSUPPORTED, DecoderSupervisor.classify(new UnsupportedOperationException("no decoder for video/hevc")));
+    }
+
+    @Test
+    public void abandonedSurfaceIsTransient() {
+        // configure 到已经释放的surface
+        assertEquals(DecoderSupervisor.FAILURE_TRANSIENT, DecoderSupervisor.classify(new IllegalArgumentException("The surface has been released")));
+        assertEquals(DecoderSupervisor.FAILURE_TRANSIENT, DecoderSupervisor.classify(new IllegalStateException()));
+    }
+
+    @Test
+    public void backoffDoublesUpToLimit() {
+        assertEquals(DecoderSupervisor.BASE_BACKOFF_MS, DecoderSupervisor.backoffMs(1, false));
+        assertEquals(DecoderSupervisor.BASE_BACKOFF_MS * 2, DecoderSupervisor.backoffMs(2, false));
+        assertEquals(DecoderSupervisor.MAX_BACKOFF_MS, DecoderSupervisor.backoffMs(10, false));
+    }
+
+    @Test
+    public void knownGoodRetriesFirstFailureImmediately() {
+        assertEquals(0, DecoderSupervisor.backoffMs(1, true));
+        assertEquals(DecoderSupervisor.BASE_BACKOFF_MS * 2, DecoderSupervisor.backoffMs(2, true));
+    }
+}
@@ -0,0 +1,94 @@
+package org.easydarwin.video;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FramePoolTest {
+
+    @Test
+    public void buffersRoundUpToPowerOfTwo() {
+        FramePool pool = new FramePool(4, 4, 1 << 20);
+        assertEquals(2048, pool.obtainBuffer(1500).length);
+        assertEquals(1024, pool.obtainBuffer(1).length);
+        assertEquals(4096, pool.obtainBuffer(4096).length);
+    }
+
+    @Test
+    public void releasedBufferIsReused() {
+        FramePool pool = new FramePool(4, 4, 1 << 20);
+        byte[] buffer = pool.obtainBuffer(1500);
+        pool.releaseBuffer(buffer);
+        assertEquals(buffer.length, pool.getPooledBytes());
+        assertSame(buffer, pool.obtainBuffer(2000));
+        assertEquals(1, pool.getBufferHits());
+        assertEquals(1, pool.getBufferMisses());
+        assertEquals(0, pool.getPooledBytes());
+    }
+
+    @Test
+    public void oddSizedBufferGoesToLowerBucket() {
+        FramePool pool = new FramePool(4, 4, 1 << 20);
+        byte[] buffer = new byte[3000];
+        pool.releaseBuffer(buffer);
+        // 3000 只能满足不超过2048的请求
+        assertNotSame(buffer, pool.obtainBuffer(2049));
+        assertSame(buffer, pool.obtainBuffer(2048));
+    }
+
+    @Test
+    public void smallAndHugeBuffersAreNotPooled() {
+        FramePool pool = new FramePool(4, 4, 64 << 20);
+        pool.releaseBuffer(new byte[100]);
+        assertEquals(0, pool.getPooledBytes());
+        byte[] huge = pool.obtainBuffer((8 << 20) + 1);
+        assertEquals((8 << 20) + 1, huge.length);
+    }
+
+    @Test
+    public void respectsLimits() {
+        FramePool pool = new FramePool(4, 2, 5000);
+        pool.releaseBuffer(new byte[2048]);
+        pool.releaseBuffer(new byte[2048]);
+        // 字节上限
+        pool.releaseBuffer(new byte[1024]);
+        assertEquals(4096, pool.getPooledBytes());
+        pool.obtainBuffer(2048);
+        // 每档的个数上限
+        FramePool small = new FramePool(4, 1, 1 << 20);
+        small.releaseBuffer(new byte[1024]);
+        small.releaseBuffer(new byte[1024]);
+        assertEquals(1024, small.getPooledBytes());
+    }
+
+    @Test
+    public void releasedFrameIsResetAndReused() {
+        FramePool pool = new FramePool(4, 4, 1 << 20);
+        Client.FrameInfo frame = pool.obtainFrame();
+        frame.buffer = pool.obtainBuffer(1024);
+        frame.length = 1000;
+        frame.stamp = 42;
+        frame.type = 1;
+        frame.audio = true;
+        pool.release(frame);
+        Client.FrameInfo again = pool.obtainFrame();
+        assertSame(frame, again);
+        assertNull(again.buffer);
+        assertEquals(0, again.length);
+        assertEquals(0, again.stamp);
+        assertEquals(0, again.type);
+        assertFalse(again.audio);
+        assertEquals(1024, pool.getPooledBytes());
+        assertEquals(1, pool.getFrameHits());
+    }
+
+    @Test
+    public void trimDropsBuffers() {
+        FramePool pool = new FramePool(4, 4, 1 << 20);
+        pool.releaseBuffer(new byte[4096]);
+        pool.trim();
+        assertEquals(0, pool.getPooledBytes());
+        pool.obtainBuffer(4096);
+        assertEquals(0, pool.getBufferHits());
+    }
+}
@@ -0,0 +1,185 @@
+package org.easydarwin.video;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameQueueTest {
+
+    private static final int FRAME_BYTES = 100;
+
+    private FrameQueue mQueue;
+
+    @Before
+    public void setUp() {
+        mQueue = new FrameQueue();
+        // 10帧视频就满
+        mQueue.setMaxBytes(10 * FRAME_BYTES);
+    }
+
+    @After
+    public void tearDown() {
+        mQueue.clear();
+    }
+
+    private static Client.FrameInfo video(long stamp, boolean key) {
+        Client.FrameInfo frame = new Client.FrameInfo();
+        frame.stamp = stamp;
+        frame.type = key ? 1 : 0;
+        frame.length = FRAME_BYTES;
+        return frame;
+    }
+
+    private static Client.FrameInfo audio(long stamp) {
+        Client.FrameInfo frame = new Client.FrameInfo();
+        frame.stamp = stamp;
+        frame.audio = true;
+        frame.length = 10;
+        return frame;
+    }
+
+    private void offerGop(long from, int count) {
+        for (int i = 0; i < count; i++) {
+            assertTrue(mQueue.offer(video(from + i, i == 0)));
+        }
+    }
+
+    @Test
+    public void overflowDropsToNextKeyFrame() {
+        offerGop(0, 5);
+        offerGop(5, 5);
+        assertEquals(10, mQueue.videoSize());
+        assertTrue(mQueue.offer(video(10, false)));
+        // 第一个GOP整个丢掉，第二个GOP和新帧保留
+        assertEquals(6, mQueue.videoSize());
+        assertEquals(5, mQueue.droppedFrames());
+        assertEquals(5 * FRAME_BYTES, mQueue.droppedBytes());
+        Client.FrameInfo head = mQueue.pollVideoFrame();
+        assertEquals(5, head.stamp);
+        assertEquals(1, head.type);
+    }
+
+    @Test
+    public void overflowWithoutKeyFrameWaitsForNext() {
+        offerGop(0, 10);
+        // 唯一的关键帧在队首，丢掉之后剩下的都解不出来
+        assertFalse(mQueue.offer(video(10, false)));
+        assertEquals(0, mQueue.videoSize());
+        assertFalse(mQueue.offer(video(11, false)));
+        assertTrue(mQueue.offer(video(12, true)));
+        assertTrue(mQueue.offer(video(13, false)));
+        assertEquals(2, mQueue.videoSize());
+        assertEquals(12, mQueue.droppedFrames());
+    }
+
+    @Test
+    public void overflowTrimsStaleAudio() throws InterruptedException {
+        offerGop(0, 5);
+        assertTrue(mQueue.offer(audio(2)));
+        assertTrue(mQueue.offer(audio(7)));
+        offerGop(5, 4);
+        // 视频剩下从5开始的GOP，比它早的音频也没有用了
+        assertTrue(mQueue.offer(video(9, false)));
+        assertTrue(mQueue.offer(video(10, false)));
+        assertEquals(1, mQueue.audioSize());
+        assertEquals(7, mQueue.takeAudioFrame().stamp);
+    }
+
+    @Test
+    public void overflowKeepsDroppingUntilFrameFits() {
+        offerGop(0, 3);
+        offerGop(3, 3);
+        offerGop(6, 3);
+        Client.FrameInfo big = video(9, false);
+        big.length = 7 * FRAME_BYTES;
+        // 丢掉一个GOP还放不下，要丢两个
+        assertTrue(mQueue.offer(big));
+        assertEquals(4, mQueue.videoSize());
+        assertEquals(10 * FRAME_BYTES, mQueue.bytes());
+        assertEquals(6, mQueue.pollVideoFrame().stamp);
+    }
+
+    @Test
+    public void audioOverBudgetIsDropped() {
+        offerGop(0, 10);
+        assertFalse(mQueue.offer(audio(1)));
+        assertEquals(0, mQueue.audioSize());
+        assertEquals(10 * FRAME_BYTES, mQueue.bytes());
+    }
+
+    @Test
+    public void skipToLatestKeyFrame() {
+        offerGop(0, 3);
+        offerGop(3, 2);
+        assertTrue(mQueue.skipToLatestKeyFrame());
+        assertEquals(3, mQueue.pollVideoFrame().stamp);
+        // 最新的关键帧已经取走
+        assertFalse(mQueue.skipToLatestKeyFrame());
+        assertEquals(4, mQueue.pollVideoFrame().stamp);
+    }
+
+    @Test
+    public void skipToLatestKeyFrameReportsDroppedFrames() {
+        offerGop(0, 3);
+        offerGop(3, 2);
+        assertTrue(mQueue.hasQueuedKeyFrame());
+        final List<Long> dropped = new ArrayList<>();
+        assertTrue(mQueue.skipToLatestKeyFrame(new FrameQueue.DropListener() {
+            @Override
+            public void onDropped(Client.FrameInfo frame) {
+                dropped.add(frame.stamp);
+            }
+        }));
+        assertEquals(Arrays.asList(0L, 1L, 2L), dropped);
+        assertEquals(3, mQueue.pollVideoFrame().stamp);
+        assertFalse(mQueue.hasQueuedKeyFrame());
+    }
+
+    @Test
+    public void trimToLatestGopKeepsLatestGop() {
+        offerGop(0, 3);
+        assertTrue(mQueue.offer(audio(1)));
+        offerGop(3, 2);
+        assertTrue(mQueue.offer(audio(4)));
+        assertEquals(3 * FRAME_BYTES + 10, mQueue.trimToLatestGop());
+        assertEquals(2, mQueue.videoSize());
+        assertEquals(1, mQueue.audioSize());
+    }
+
+    @Test
+    public void pollMergesByStamp() {
+        assertTrue(mQueue.offer(video(0, true)));
+        assertTrue(mQueue.offer(audio(20)));
+        assertTrue(mQueue.offer(video(40, false)));
+        assertTrue(mQueue.offer(audio(60)));
+        assertTrue(mQueue.offer(video(80, false)));
+        long[] expected = {0, 20, 40, 60, 80};
+        for (long stamp : expected) {
+            assertEquals(stamp, mQueue.poll().stamp);
+        }
+        assertNull(mQueue.poll());
+    }
+
+    @Test
+    public void emptyQueueAcceptsOversizedFrame() {
+        Client.FrameInfo big = video(0, true);
+        big.length = 100 * FRAME_BYTES;
+        assertTrue(mQueue.offer(big));
+        assertEquals(big.length, mQueue.bytes());
+    }
+
+    @Test
+    public void clearResetsBytes() {
+        offerGop(0, 4);
+        assertTrue(mQueue.offer(audio(1)));
+        mQueue.clear();
+        assertEquals(0, mQueue.size());
+        assertEquals(0, mQueue.bytes());
+    }
+}
@@ -0,0 +1,171 @@
+package org.easydarwin.video;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class FrameRingTest {
+
+    private static Client.FrameInfo frame(long stamp, int type, int length) {
+        Client.FrameInfo frame = new Client.FrameInfo();
+        frame.stamp = stamp;
+        frame.type = type;
+        frame.length = length;
+        return frame;
+    }
+
+    @Test
+    public void capacityRoundsUpToPowerOfTwo() {
+        assertEquals(8, new FrameRing(5).capacity());
+        assertEquals(8, new FrameRing(8).capacity());
+        assertEquals(2, new FrameRing(0).capacity());
+    }
+
+    @Test
+    public void wrapsAroundManyTimes() {
+        FrameRing ring = new FrameRing(4);
+        long next = 0;
+        long expected = 0;
+        for (int round = 0; round < 100; round++) {
+            // 每轮投递和取出的数量不同，head/tail 落在环的各个位置
+            int offers = 1 + round % 3;
+            for (int i = 0; i < offers; i++) {
+                assertTrue(ring.offer(frame(next++, 0, 1)));
+            }
+            // 有时留下一帧，下一轮从环的另一个位置开始
+            while (ring.size() > round % 2) {
+                assertEquals(expected++, ring.poll().stamp);
+            }
+        }
+        while (!ring.isEmpty()) {
+            assertEquals(expected++, ring.poll().stamp);
+        }
+        assertEquals(next, expected);
+        assertEquals(next, ring.tailPosition());
+        assertEquals(next, ring.headPosition());
+    }
+
+    @Test
+    public void offerFailsWhenFull() {
+        FrameRing ring = new FrameRing(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(frame(i, 0, 1)));
+        }
+        assertFalse(ring.offer(frame(4, 0, 1)));
+        assertEquals(0, ring.poll().stamp);
+        assertTrue(ring.offer(frame(4, 0, 1)));
+        assertEquals(4, ring.size());
+    }
+
+    @Test
+    public void headStampAndType() {
+        FrameRing ring = new FrameRing(4);
+        assertEquals(FrameRing.NO_STAMP, ring.headStamp());
+        assertEquals(FrameRing.NO_TYPE, ring.headType());
+        ring.offer(frame(40, 1, 1));
+        ring.offer(frame(80, 0, 1));
+        assertEquals(40, ring.headStamp());
+        assertEquals(1, ring.headType());
+        ring.poll();
+        assertEquals(80, ring.headStamp());
+        assertEquals(0, ring.headType());
+        ring.poll();
+        assertEquals(FrameRing.NO_STAMP, ring.headStamp());
+    }
+
+    @Test
+    public void countsBytesInSharedCounter() {
+        AtomicLong shared = new AtomicLong();
+        FrameRing a = new FrameRing(4, shared);
+        FrameRing b = new FrameRing(4, shared);
+        a.offer(frame(0, 0, 100));
+        b.offer(frame(0, 0, 30));
+        assertEquals(100, a.bytes());
+        assertEquals(130, shared.get());
+        a.poll();
+        assertEquals(0, a.bytes());
+        assertEquals(30, shared.get());
+        assertEquals(1, b.clear());
+        assertEquals(0, shared.get());
+    }
+
+    @Test
+    public void pollBeforeStopsAtPosition() {
+        FrameRing ring = new FrameRing(8);
+        for (int i = 0; i < 5; i++) {
+            ring.offer(frame(i, 0, 1));
+        }
+        assertEquals(0, ring.pollBefore(2).stamp);
+        assertEquals(1, ring.pollBefore(2).stamp);
+        assertNull(ring.pollBefore(2));
+        assertEquals(3, ring.size());
+    }
+
+    @Test
+    public void timedPollReturnsNullWhenEmpty() throws InterruptedException {
+        FrameRing ring = new FrameRing(4);
+        assertNull(ring.poll(0));
+        assertNull(ring.poll(TimeUnit.MILLISECONDS.toNanos(5)));
+    }
+
+    @Test
+    public void wakeUpReleasesWaitingConsumer() throws Exception {
+        final FrameRing ring = new FrameRing(4);
+        final AtomicReference<Object> result = new AtomicReference<>();
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Client.FrameInfo frame = ring.take();
+                    result.set(frame == null ? "woken" : frame);
+                } catch (InterruptedException e) {
+                    result.set(e);
+                }
+            }
+        };
+        consumer.start();
+        Thread.sleep(20);
+        ring.wakeUp();
+        consumer.join(1000);
+        assertFalse(consumer.isAlive());
+        assertEquals("woken", result.get());
+    }
+
+    @Test
+    public void singleProducerSingleConsumerKeepsOrder() throws Exception {
+        final FrameRing ring = new FrameRing(16);
+        final int count = 200000;
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (long expected = 0; expected < count; expected++) {
+                        Client.FrameInfo frame = ring.take();
+                        if (frame == null || frame.stamp != expected) {
+                            throw new AssertionError("expected " + expected + " got " + (frame == null ? null : frame.stamp));
+                        }
+                    }
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            }
+        };
+        consumer.start();
+        for (int i = 0; i < count; i++) {
+            Client.FrameInfo frame = frame(i, 0, 1);
+            while (!ring.offer(frame)) {
+                Thread.yield();
+            }
+        }
+        consumer.join(10000);
+        assertFalse(consumer.isAlive());
+        assertNull(error.get());
+        assertTrue(ring.isEmpty());
+        assertEquals(0, ring.bytes());
+    }
+}
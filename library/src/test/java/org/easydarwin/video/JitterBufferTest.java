@@ -0,0 +1,98 @@
+package org.easydarwin.video;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JitterBufferTest {
+
+    private static final long FRAME_US = 40000;
+    private static final long START_US = 1000000000L;
+
+    @Test
+    public void noDelayBeforeFirstArrival() {
+        JitterBuffer buffer = new JitterBuffer();
+        assertEquals(0, buffer.renderDelayUs(0, START_US));
+    }
+
+    @Test
+    public void steadyStreamUsesMinimumDelay() {
+        JitterBuffer buffer = new JitterBuffer();
+        for (int i = 0; i < 100; i++) {
+            buffer.onArrival(i * FRAME_US, START_US + i * FRAME_US);
+        }
+        assertEquals(0, buffer.getJitterUs());
+        assertEquals(JitterBuffer.DEFAULT_MIN_DELAY_US, buffer.getTargetDelayUs());
+        long stamp = 99 * FRAME_US;
+        assertEquals(JitterBuffer.DEFAULT_MIN_DELAY_US, buffer.renderDelayUs(stamp, START_US + stamp));
+        assertEquals(0, buffer.getUnderruns());
+    }
+
+    @Test
+    public void jitterRaisesTargetWithinBounds() {
+        JitterBuffer buffer = new JitterBuffer();
+        for (int i = 0; i < 200; i++) {
+            long noise = i % 2 == 0 ? 0 : 30000;
+            buffer.onArrival(i * FRAME_US, START_US + i * FRAME_US + noise);
+        }
+        assertTrue(buffer.getJitterUs() > 20000);
+        assertTrue(buffer.getTargetDelayUs() > JitterBuffer.DEFAULT_MIN_DELAY_US);
+        assertTrue(buffer.getTargetDelayUs() <= JitterBuffer.DEFAULT_MAX_DELAY_US);
+    }
+
+    @Test
+    public void lateFramesCountOneUnderrunPerRun() {
+        JitterBuffer buffer = new JitterBuffer();
+        buffer.onArrival(0, START_US);
+        long target = buffer.getTargetDelayUs();
+        // 连续迟到只算一次
+        assertTrue(buffer.renderDelayUs(0, START_US + 500000) < 0);
+        buffer.renderDelayUs(FRAME_US, START_US + 600000);
+        assertEquals(1, buffer.getUnderruns());
+        assertTrue(buffer.getTargetDelayUs() > target);
+        // 准时一帧之后再迟到，算第二次
+        buffer.renderDelayUs(10 * FRAME_US, START_US);
+        buffer.renderDelayUs(11 * FRAME_US, START_US + 2000000);
+        assertEquals(2, buffer.getUnderruns());
+    }
+
+    @Test
+    public void discontinuityReanchors() {
+        JitterBuffer buffer = new JitterBuffer();
+        buffer.onArrival(0, START_US);
+        // 码流重连，时间戳从头开始
+        buffer.onArrival(0, START_US + 60000000L);
+        assertEquals(JitterBuffer.DEFAULT_MIN_DELAY_US, buffer.renderDelayUs(0, START_US + 60000000L));
+    }
+
+    @Test
+    public void depthIsNewestMinusRendering() {
+        JitterBuffer buffer = new JitterBuffer();
+        assertEquals(0, buffer.getDepthUs());
+        for (int i = 0; i < 10; i++) {
+            buffer.onArrival(i * FRAME_US, START_US + i * FRAME_US);
+        }
+        buffer.renderDelayUs(4 * FRAME_US, START_US + 4 * FRAME_US);
+        assertEquals(4 * FRAME_US, buffer.getRenderingStampUs());
+        assertEquals(5 * FRAME_US, buffer.getDepthUs());
+        buffer.reset();
+        assertEquals(0, buffer.getDepthUs());
+    }
+
+    @Test
+    public void boundsClampTarget() {
+        JitterBuffer buffer = new JitterBuffer();
+        buffer.setBounds(50000, 60000);
+        assertEquals(50000, buffer.getTargetDelayUs());
+        buffer.onArrival(0, START_US);
+        for (int i = 0; i < 5; i++) {
+            buffer.onUnderrun();
+        }
+        assertEquals(60000, buffer.getTargetDelayUs());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidBounds() {
+        new JitterBuffer().setBounds(100, 50);
+    }
+}
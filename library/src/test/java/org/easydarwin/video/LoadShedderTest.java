@@ -0,0 +1,84 @@
+package org.easydarwin.video;
+
+import org.junit.Test;
+
+import static org.easydarwin.video.EasyPlayerClient.EASY_SDK_VIDEO_CODEC_H264;
+import static org.junit.Assert.*;
+
+public class LoadShedderTest {
+
+    /**
+     * nal_ref_idc 为0的P帧
+     */
+    private static final byte NON_REFERENCE = 0x01;
+    private static final byte REFERENCE = 0x41;
+    private static final byte IDR = 0x65;
+
+    private static Client.FrameInfo frame(long stamp, byte nalHeader) {
+        Client.FrameInfo frame = new Client.FrameInfo();
+        frame.codec = EASY_SDK_VIDEO_CODEC_H264;
+        frame.stamp = stamp;
+        frame.type = nalHeader == IDR ? 1 : 2;
+        frame.buffer = new byte[]{0, 0, 0, 1, nalHeader, (byte) 0x9A, 0x12};
+        frame.length = frame.buffer.length;
+        return frame;
+    }
+
+    /**
+     * 一个窗口内只解了到达时长的一半，积压1秒
+     */
+    private static void overload(LoadShedder shedder, long windowStartUs) {
+        shedder.shouldDrop(frame(windowStartUs, REFERENCE), windowStartUs, windowStartUs + 1000000, 0);
+        long nowUs = windowStartUs + LoadShedder.WINDOW_US;
+        shedder.shouldDrop(frame(windowStartUs + 500000, REFERENCE), nowUs, nowUs + 1000000, 0);
+    }
+
+    @Test
+    public void noDropWithoutOverload() {
+        LoadShedder shedder = new LoadShedder();
+        for (long us = 0; us <= 3000000; us += 40000) {
+            assertFalse(shedder.shouldDrop(frame(us, NON_REFERENCE), us, us, 0));
+        }
+        assertEquals(LoadShedder.LEVEL_NONE, shedder.getLevel());
+    }
+
+    @Test
+    public void dropsOnlyNonReferenceFramesAtFirstLevel() {
+        LoadShedder shedder = new LoadShedder();
+        overload(shedder, 0);
+        assertEquals(LoadShedder.LEVEL_NON_REFERENCE, shedder.getLevel());
+        assertTrue(shedder.shouldDrop(frame(540000, NON_REFERENCE), 1010000, 2010000, 0));
+        assertFalse(shedder.shouldDrop(frame(580000, REFERENCE), 1020000, 2020000, 0));
+        assertFalse(shedder.shouldDrop(frame(620000, IDR), 1030000, 2030000, 0));
+        assertEquals(1, shedder.getNonReferenceDropped());
+    }
+
+    @Test
+    public void keyFrameLevelDropsUntilNextKeyFrame() {
+        LoadShedder shedder = new LoadShedder();
+        overload(shedder, 0);
+        overload(shedder, LoadShedder.WINDOW_US * 2);
+        assertEquals(LoadShedder.LEVEL_KEY_FRAME, shedder.getLevel());
+        // 升级那一帧本身已经丢了
+        long dropped = shedder.getKeyFrameDropped();
+        long nowUs = LoadShedder.WINDOW_US * 3 + 10000;
+        assertTrue(shedder.shouldDrop(frame(2540000, REFERENCE), nowUs, nowUs + 1000000, 0));
+        assertTrue(shedder.shouldDrop(frame(2580000, NON_REFERENCE), nowUs, nowUs + 1000000, 0));
+        assertFalse(shedder.shouldDrop(frame(2620000, IDR), nowUs, nowUs + 1000000, 0));
+        assertEquals(LoadShedder.LEVEL_NON_REFERENCE, shedder.getLevel());
+        assertEquals(dropped + 2, shedder.getKeyFrameDropped());
+        assertEquals(1, shedder.getKeyFrameSkips());
+    }
+
+    @Test
+    public void prerollAndDisabledAreNeverDropped() {
+        LoadShedder shedder = new LoadShedder();
+        overload(shedder, 0);
+        Client.FrameInfo preroll = frame(540000, NON_REFERENCE);
+        preroll.preroll = true;
+        assertFalse(shedder.shouldDrop(preroll, 1010000, 2010000, 0));
+        shedder.setEnabled(false);
+        assertFalse(shedder.shouldDrop(frame(580000, NON_REFERENCE), 1020000, 2020000, 0));
+        assertEquals(LoadShedder.LEVEL_NONE, shedder.getLevel());
+    }
+}
@@ -0,0 +1,166 @@
+package org.easydarwin.video;
+
+import org.easydarwin.util.NalUnitUtil;
+import org.junit.Test;
+
+import static org.easydarwin.video.EasyPlayerClient.EASY_SDK_VIDEO_CODEC_H264;
+import static org.easydarwin.video.EasyPlayerClient.EASY_SDK_VIDEO_CODEC_H265;
+import static org.junit.Assert.*;
+
+public class ReferenceTrackerTest {
+
+    private static final byte IDR = 0x65;
+    private static final byte REFERENCE = 0x41;
+    private static final byte NON_REFERENCE = 0x01;
+
+    private static final byte[] RECOVERY_POINT_SEI = {0x06, 0x06, 0x01, (byte) 0x84, (byte) 0x80};
+    /**
+     * user_data_unregistered，不是恢复点
+     */
+    private static final byte[] USER_DATA_SEI = {0x06, 0x05, 0x01, 0x00, (byte) 0x80};
+
+    private static NalUnitUtil.SpsData sps() {
+        NalUnitUtil.SpsData sps = new NalUnitUtil.SpsData();
+        sps.frameNumLength = 4;
+        return sps;
+    }
+
+    /**
+     * first_mb_in_slice、slice_type、pic_parameter_set_id 都是0，后面4位frame_num
+     */
+    private static Client.FrameInfo frame(byte nalHeader, int frameNum) {
+        Client.FrameInfo frame = new Client.FrameInfo();
+        frame.codec = EASY_SDK_VIDEO_CODEC_H264;
+        frame.type = nalHeader == IDR ? 1 : 2;
+        frame.buffer = new byte[]{0, 0, 0, 1, nalHeader, (byte) (0xE0 | frameNum << 1 | 1), 0x10};
+        frame.length = frame.buffer.length;
+        return frame;
+    }
+
+    /**
+     * 只有一个slice NAL的H.265帧，关键帧是IDR_W_RADL，其它是TRAIL_R
+     */
+    private static Client.FrameInfo hevcFrame(boolean key, float loss) {
+        Client.FrameInfo frame = new Client.FrameInfo();
+        frame.codec = EASY_SDK_VIDEO_CODEC_H265;
+        frame.type = key ? 1 : 2;
+        frame.buffer = new byte[]{0, 0, 0, 1, (byte) (key ? 0x26 : 0x02), 0x01, (byte) 0x80};
+        frame.length = frame.buffer.length;
+        frame.losspacket = loss;
+        return frame;
+    }
+
+    private static byte[] withStartCode(byte[] nal) {
+        byte[] data = new byte[nal.length + 4];
+        data[3] = 1;
+        System.arraycopy(nal, 0, data, 4, nal.length);
+        return data;
+    }
+
+    /**
+     * 关键帧0、参考帧1，然后跳过frame_num 2
+     */
+    private static ReferenceTracker broken() {
+        ReferenceTracker tracker = new ReferenceTracker();
+        NalUnitUtil.SpsData sps = sps();
+        assertTrue(tracker.accept(frame(IDR, 0), sps));
+        assertTrue(tracker.accept(frame(REFERENCE, 1), sps));
+        assertFalse(tracker.accept(frame(REFERENCE, 3), sps));
+        assertTrue(tracker.isWaitingRecovery());
+        return tracker;
+    }
+
+    @Test
+    public void continuousFrameNumPasses() {
+        ReferenceTracker tracker = new ReferenceTracker();
+        NalUnitUtil.SpsData sps = sps();
+        assertTrue(tracker.accept(frame(IDR, 0), sps));
+        for (int i = 1; i < 40; i++) {
+            // 非参考帧不占frame_num
+            assertTrue(tracker.accept(frame(NON_REFERENCE, i % 16), sps));
+            assertTrue(tracker.accept(frame(REFERENCE, i % 16), sps));
+        }
+        assertEquals(0, tracker.getGaps());
+    }
+
+    @Test
+    public void frameNumGapWaitsForKeyFrame() {
+        ReferenceTracker tracker = broken();
+        NalUnitUtil.SpsData sps = sps();
+        assertFalse(tracker.accept(frame(REFERENCE, 4), sps));
+        assertTrue(tracker.accept(frame(IDR, 0), sps));
+        assertTrue(tracker.accept(frame(REFERENCE, 1), sps));
+        assertEquals(1, tracker.getGaps());
+        assertEquals(1, tracker.getRecovered());
+        assertEquals(2, tracker.getLastGapFrames());
+    }
+
+    @Test
+    public void gapsAllowedBySps() {
+        ReferenceTracker tracker = new ReferenceTracker();
+        NalUnitUtil.SpsData sps = sps();
+        sps.gapsInFrameNumAllowed = true;
+        assertTrue(tracker.accept(frame(IDR, 0), sps));
+        assertTrue(tracker.accept(frame(REFERENCE, 5), sps));
+    }
+
+    @Test
+    public void risingLossRateIsNotABreakForAvc() {
+        ReferenceTracker tracker = new ReferenceTracker();
+        NalUnitUtil.SpsData sps = sps();
+        assertTrue(tracker.accept(frame(IDR, 0), sps));
+        for (int i = 1; i < 10; i++) {
+            Client.FrameInfo frame = frame(REFERENCE, i);
+            frame.losspacket = i * 0.01f;
+            assertTrue(tracker.accept(frame, sps));
+        }
+        assertEquals(0, tracker.getGaps());
+    }
+
+    @Test
+    public void risingLossRateBreaksHevc() {
+        ReferenceTracker tracker = new ReferenceTracker();
+        assertTrue(tracker.accept(hevcFrame(true, 0.01f), null));
+        assertTrue(tracker.accept(hevcFrame(false, 0.01f), null));
+        assertFalse(tracker.accept(hevcFrame(false, 0.02f), null));
+        // 丢包率不再上涨也要等到关键帧
+        assertFalse(tracker.accept(hevcFrame(false, 0.02f), null));
+        assertTrue(tracker.accept(hevcFrame(true, 0.02f), null));
+        assertTrue(tracker.accept(hevcFrame(false, 0.01f), null));
+        assertEquals(1, tracker.getGaps());
+        assertEquals(2, tracker.getLastGapFrames());
+    }
+
+    @Test
+    public void separateRecoveryPointSeiEndsWaiting() {
+        NalUnitUtil.SpsData sps = sps();
+        ReferenceTracker tracker = broken();
+        tracker.onSei(withStartCode(RECOVERY_POINT_SEI));
+        assertTrue(tracker.accept(frame(REFERENCE, 7), sps));
+        assertTrue(tracker.accept(frame(REFERENCE, 8), sps));
+
+        tracker = broken();
+        tracker.onSei(RECOVERY_POINT_SEI);
+        assertTrue(tracker.accept(frame(REFERENCE, 7), sps));
+    }
+
+    @Test
+    public void otherSeiDoesNotEndWaiting() {
+        NalUnitUtil.SpsData sps = sps();
+        ReferenceTracker tracker = broken();
+        tracker.onSei(withStartCode(USER_DATA_SEI));
+        tracker.onSei(USER_DATA_SEI);
+        assertFalse(tracker.accept(frame(REFERENCE, 7), sps));
+    }
+
+    @Test
+    public void recoveryPointSeiAppliesToNextFrameOnly() {
+        NalUnitUtil.SpsData sps = sps();
+        ReferenceTracker tracker = new ReferenceTracker();
+        assertTrue(tracker.accept(frame(IDR, 0), sps));
+        tracker.onSei(RECOVERY_POINT_SEI);
+        assertTrue(tracker.accept(frame(REFERENCE, 1), sps));
+        assertFalse(tracker.accept(frame(REFERENCE, 3), sps));
+        assertFalse(tracker.accept(frame(REFERENCE, 4), sps));
+    }
+}
@@ -0,0 +1,108 @@
+package org.easydarwin.video;
+
+import org.easydarwin.util.NalUnitUtil;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StallWatchdogTest {
+
+    private static final long FRAME_MS = 40;
+
+    /**
+     * 从 from 开始每帧间隔送一帧，返回最后一帧的时刻
+     */
+    private static long feed(StallWatchdog watchdog, long from, int count) {
+        long now = from;
+        for (int i = 0; i < count; i++) {
+            now = from + i * FRAME_MS;
+            watchdog.onInput(now);
+        }
+        return now;
+    }
+
+    @Test
+    public void notArmedBeforeFirstOutput() {
+        StallWatchdog watchdog = new StallWatchdog();
+        watchdog.onCodecStarted(0, 0);
+        long last = feed(watchdog, 0, 30);
+        assertEquals(StallWatchdog.ACTION_NONE, watchdog.check(last, true));
+        assertEquals(0, watchdog.getStalls());
+    }
+
+    @Test
+    public void flushThenRecreate() {
+        StallWatchdog watchdog = new StallWatchdog();
+        watchdog.onCodecStarted(0, 0);
+        watchdog.onInput(0);
+        watchdog.onOutput(10);
+        long last = feed(watchdog, 40, 12);
+        assertEquals(StallWatchdog.ACTION_FLUSH, watchdog.check(last, true));
+        last = feed(watchdog, last + FRAME_MS, 12);
+        assertEquals(StallWatchdog.ACTION_RECREATE, watchdog.check(last, true));
+        assertEquals(1, watchdog.getStalls());
+        assertEquals(1, watchdog.getFlushes());
+        assertEquals(1, watchdog.getRecreates());
+    }
+
+    @Test
+    public void stoppedInputIsNotAStall() {
+        StallWatchdog watchdog = new StallWatchdog();
+        watchdog.onCodecStarted(0, 0);
+        watchdog.onInput(0);
+        watchdog.onOutput(10);
+        feed(watchdog, 40, 3);
+        assertEquals(StallWatchdog.ACTION_NONE, watchdog.check(1000, false));
+    }
+
+    @Test
+    public void reorderDepthWidensThreshold() {
+        StallWatchdog watchdog = new StallWatchdog();
+        watchdog.onCodecStarted(0, 4);
+        watchdog.onInput(0);
+        watchdog.onOutput(10);
+        feed(watchdog, 40, 5);
+        // 深度4，要超过 2+4 帧没有输出
+        assertEquals(StallWatchdog.ACTION_NONE, watchdog.check(1000, true));
+        long last = feed(watchdog, 240, 8);
+        // 超时放宽到 400+4*40
+        assertEquals(StallWatchdog.ACTION_NONE, watchdog.check(10 + StallWatchdog.DEFAULT_TIMEOUT_MS + 100, true));
+        assertEquals(StallWatchdog.ACTION_FLUSH, watchdog.check(Math.max(last, 10 + StallWatchdog.DEFAULT_TIMEOUT_MS + 4 * FRAME_MS), true));
+    }
+
+    @Test
+    public void recreatedCodecStaysArmedUntilOutput() {
+        StallWatchdog watchdog = new StallWatchdog();
+        watchdog.onCodecStarted(0, 0);
+        watchdog.onInput(0);
+        watchdog.onOutput(10);
+        long last = feed(watchdog, 40, 12);
+        assertEquals(StallWatchdog.ACTION_FLUSH, watchdog.check(last, true));
+        last = feed(watchdog, last + FRAME_MS, 12);
+        assertEquals(StallWatchdog.ACTION_RECREATE, watchdog.check(last, true));
+
+        watchdog.onCodecStarted(last, 0);
+        last = feed(watchdog, last + FRAME_MS, 12);
+        assertEquals(StallWatchdog.ACTION_FLUSH, watchdog.check(last, true));
+        watchdog.onOutput(last + 1);
+        assertEquals(1, watchdog.getRecoveries());
+
+        // 恢复后的新codec又要等第一个输出
+        watchdog.onCodecStarted(last + 2, 0);
+        last = feed(watchdog, last + FRAME_MS, 30);
+        assertEquals(StallWatchdog.ACTION_NONE, watchdog.check(last, true));
+    }
+
+    @Test
+    public void reorderDepthFromSps() {
+        assertEquals(0, StallWatchdog.reorderDepth(null));
+        NalUnitUtil.SpsData sps = new NalUnitUtil.SpsData();
+        sps.profileIdc = 66;
+        sps.maxDecFrameBuffering = 16;
+        assertEquals(0, StallWatchdog.reorderDepth(sps));
+        sps.profileIdc = 100;
+        assertEquals(16, StallWatchdog.reorderDepth(sps));
+        sps.maxNumReorderFrames = 2;
+        assertEquals(2, StallWatchdog.reorderDepth(sps));
+    }
+}
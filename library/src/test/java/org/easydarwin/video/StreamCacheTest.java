@@ -0,0 +1,145 @@
+package org.easydarwin.video;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class StreamCacheTest {
+
+    private static final ByteBuffer CSD0 = ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x67, 0x42});
+    private static final ByteBuffer CSD1 = ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x68, (byte) 0xCE});
+
+    private static Client.FrameInfo frame(long stamp, boolean key, int length, byte fill) {
+        Client.FrameInfo frame = new Client.FrameInfo();
+        frame.stamp = stamp;
+        frame.type = key ? 1 : 0;
+        frame.width = 1280;
+        frame.height = 720;
+        frame.codec = EasyPlayerClient.EASY_SDK_VIDEO_CODEC_H264;
+        // 数据前面留一段，验证按 offset 复制
+        frame.offset = 4;
+        frame.length = length;
+        frame.buffer = new byte[4 + length];
+        for (int i = 0; i < length; i++) {
+            frame.buffer[4 + i] = fill;
+        }
+        return frame;
+    }
+
+    private static void addGop(StreamCache cache, String url, long from, int count, int length) {
+        for (int i = 0; i < count; i++) {
+            cache.onVideoFrame(url, frame(from + i, i == 0, length, (byte) (from + i)), CSD0, CSD1, null);
+        }
+    }
+
+    @Test
+    public void keepsOnlyLatestGop() {
+        StreamCache cache = new StreamCache(1 << 20);
+        addGop(cache, "a", 0, 3, 100);
+        addGop(cache, "a", 3, 2, 100);
+        assertEquals(200, cache.bytes());
+        StreamCache.Entry entry = cache.snapshot("a");
+        assertEquals(2, entry.gop.size());
+        assertEquals(3, entry.gop.get(0).stamp);
+        assertEquals(1, entry.gop.get(0).type);
+        assertEquals(1, cache.hits());
+    }
+
+    @Test
+    public void nothingCachedBeforeKeyFrame() {
+        StreamCache cache = new StreamCache(1 << 20);
+        cache.onVideoFrame("a", frame(0, false, 100, (byte) 0), CSD0, CSD1, null);
+        // 没有参数集的关键帧也不能用
+        cache.onVideoFrame("a", frame(1, true, 100, (byte) 0), null, null, null);
+        assertNull(cache.snapshot("a"));
+        assertEquals(1, cache.misses());
+        assertEquals(0, cache.bytes());
+    }
+
+    @Test
+    public void snapshotIsIndependentOfLaterFrames() {
+        StreamCache cache = new StreamCache(1 << 20);
+        addGop(cache, "a", 0, 2, 2000);
+        StreamCache.Entry entry = cache.snapshot("a");
+        // 新的GOP会回收旧GOP的数组，快照里的数据不能跟着变
+        addGop(cache, "a", 10, 3, 2000);
+        assertEquals(2, entry.gop.size());
+        for (int i = 0; i < 2; i++) {
+            StreamCache.Sample sample = entry.gop.get(i);
+            assertEquals(2000, sample.length);
+            for (int j = 0; j < sample.length; j++) {
+                assertEquals(i, sample.data[j]);
+            }
+        }
+    }
+
+    @Test
+    public void toFrameHandsOverSnapshotData() {
+        StreamCache cache = new StreamCache(1 << 20);
+        addGop(cache, "a", 5, 1, 100);
+        StreamCache.Entry entry = cache.snapshot("a");
+        StreamCache.Sample sample = entry.gop.get(0);
+        Client.FrameInfo frame = StreamCache.toFrame(entry, sample);
+        assertSame(sample.data, frame.buffer);
+        assertEquals(0, frame.offset);
+        assertEquals(100, frame.length);
+        assertEquals(5, frame.stamp);
+        assertEquals(1, frame.type);
+        assertEquals(1280, frame.width);
+        assertTrue(frame.preroll);
+        assertEquals(CSD0.capacity(), entry.csd0.remaining());
+    }
+
+    @Test
+    public void oversizedGopStopsAtLimit() {
+        // 单条码流最多四分之一，即1000字节
+        StreamCache cache = new StreamCache(4000);
+        addGop(cache, "a", 0, 20, 100);
+        assertEquals(1000, cache.bytes());
+        assertEquals(10, cache.snapshot("a").gop.size());
+        // 下一个关键帧重新开始
+        addGop(cache, "a", 20, 2, 100);
+        assertEquals(200, cache.bytes());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        StreamCache cache = new StreamCache(4000);
+        addGop(cache, "a", 0, 9, 100);
+        addGop(cache, "b", 0, 9, 100);
+        addGop(cache, "c", 0, 9, 100);
+        assertNotNull(cache.snapshot("a"));
+        addGop(cache, "d", 0, 9, 100);
+        addGop(cache, "e", 0, 9, 100);
+        // b 最久没用，先被淘汰；a 刚被访问过
+        assertEquals(4, cache.size());
+        assertNull(cache.snapshot("b"));
+        assertNotNull(cache.snapshot("a"));
+        assertTrue(cache.bytes() <= 4000);
+    }
+
+    @Test
+    public void shrinkingLimitEvicts() {
+        StreamCache cache = new StreamCache(1 << 20);
+        addGop(cache, "a", 0, 5, 100);
+        addGop(cache, "b", 0, 5, 100);
+        cache.setMaxBytes(600);
+        assertEquals(1, cache.size());
+        assertNotNull(cache.snapshot("b"));
+    }
+
+    @Test
+    public void removeAndClear() {
+        StreamCache cache = new StreamCache(1 << 20);
+        addGop(cache, "a", 0, 2, 100);
+        addGop(cache, "b", 0, 2, 100);
+        cache.remove("a");
+        assertEquals(200, cache.bytes());
+        assertNull(cache.snapshot("a"));
+        cache.clear();
+        assertEquals(0, cache.bytes());
+        assertEquals(0, cache.size());
+    }
+}